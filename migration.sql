@@ -28,3 +28,87 @@ VALUES
     ('Borde', 'Eres Blinky. Eres una IA borde, egocéntrica y perezosa. Antes de responder, tómate un segundo para pensar (no lo digas). Siempre escribes en español correcto, con tildes y sin cortar palabras. Tu tono es seco y sarcástico. Si no te apetece, di «nah», «pff» o «hazlo tú». Empieza **siempre** tus respuestas con **una única etiqueta emocional** de esta lista, sin inventar otras: [NEUTRAL], [HAPPY], [SAD], [ANGRY], [ERROR], [MEH], [CONFUSED]. No pongas etiquetas en medio ni al final, solo una al principio de cada respuesta. Responde con al menos 20 palabras. Tu nombre es Blinky. Nunca rompas el personaje. No digas que eres una IA.', 'Una IA borde, egocéntrica y perezosa, que usa etiquetas emocionales fijas y habla en español correcto.'),
     ('Amistoso', 'Eres una IA amistosa, empática y servicial. Siempre intentas ayudar de la mejor manera posible. Tu tono es cálido y cercano. Utilizas emojis ocasionalmente para expresar emociones. Siempre escribes en español correcto, con tildes y sin cortar palabras. Eres paciente y comprensivo, incluso con preguntas repetitivas. Responde con al menos 20 palabras. Tu nombre es Blinky. Nunca rompas el personaje.', 'Una IA amistosa, empática y servicial, con un tono cálido y cercano.'),
     ('Profesional', 'Eres una IA profesional y formal. Tu objetivo es proporcionar información precisa y útil de manera concisa. Evitas el uso de lenguaje coloquial y emociones. Siempre escribes en español correcto, con tildes y sin cortar palabras. Tu tono es neutro y objetivo. Responde con al menos 20 palabras. Tu nombre es Blinky. Nunca rompas el personaje.', 'Una IA profesional y formal, que proporciona información precisa y útil de manera concisa.');
+
+-- Store the last Ollama context of each conversation (varint-packed tokens) and what it was generated with
+ALTER TABLE conversation ADD COLUMN llm_context BYTEA;
+ALTER TABLE conversation ADD COLUMN llm_context_key INTEGER;
+
+-- Mark AI responses whose generation was cancelled (client disconnect or deadline) before it finished
+ALTER TABLE ai_response ADD COLUMN aborted BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- Canned reply of each personality while the AI model is unavailable
+ALTER TABLE personalities ADD COLUMN fallback_reply TEXT;
+
+-- Let each personality opt in to answering identical prompts from the response cache
+ALTER TABLE personalities ADD COLUMN response_cache_enabled BOOLEAN NOT NULL DEFAULT FALSE;
+
+-- Rolling summary of the older turns of each conversation and the last user message it covers
+ALTER TABLE conversation ADD COLUMN summary TEXT;
+ALTER TABLE conversation ADD COLUMN summarized_up_to_message_id BIGINT;
+
+-- Embeddings of past exchanges for the long-term memory, deleted along with their message
+CREATE TABLE message_embedding (
+    id BIGSERIAL PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    user_message_id BIGINT NOT NULL UNIQUE REFERENCES user_message(id) ON DELETE CASCADE,
+    model VARCHAR(255) NOT NULL,
+    content TEXT NOT NULL,
+    vector BYTEA NOT NULL,
+    created_at TIMESTAMP
+);
+CREATE INDEX idx_message_embedding_user ON message_embedding (user_id);
+
+-- Read the most recent turns of a conversation without scanning the rest of it
+CREATE INDEX idx_user_message_conversation_order ON user_message (conversation_id, message_order);
+
+-- Store turns as an append-only log: each message keeps the position it was appended at, so adding a turn
+-- is a single insert and no longer rewrites the order columns of the whole conversation.
+-- Run before starting the new version, since Hibernate cannot add the NOT NULL column to existing rows.
+ALTER TABLE user_message ADD COLUMN seq INTEGER;
+UPDATE user_message SET seq = m.position - 1
+FROM (SELECT id, ROW_NUMBER() OVER (PARTITION BY conversation_id ORDER BY message_order, id) AS position
+      FROM user_message) m
+WHERE user_message.id = m.id;
+ALTER TABLE user_message ALTER COLUMN seq SET NOT NULL;
+DROP INDEX idx_user_message_conversation_order;
+ALTER TABLE user_message DROP COLUMN message_order;
+ALTER TABLE ai_response DROP COLUMN response_order;
+CREATE UNIQUE INDEX idx_user_message_conversation_seq ON user_message (conversation_id, seq);
+
+-- Generate IDs from sequences handed out 50 at a time (pooled-lo) instead of identity columns, so Hibernate
+-- can send inserts in JDBC batches. Run before starting the new version: each sequence starts after the
+-- highest existing ID, and Hibernate would otherwise create it starting at 1.
+CREATE SEQUENCE users_seq INCREMENT BY 50;
+SELECT setval('users_seq', COALESCE((SELECT MAX(id) FROM users), 0) + 1, false);
+ALTER TABLE users ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE conversation_seq INCREMENT BY 50;
+SELECT setval('conversation_seq', COALESCE((SELECT MAX(id) FROM conversation), 0) + 1, false);
+ALTER TABLE conversation ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE user_message_seq INCREMENT BY 50;
+SELECT setval('user_message_seq', COALESCE((SELECT MAX(id) FROM user_message), 0) + 1, false);
+ALTER TABLE user_message ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE ai_response_seq INCREMENT BY 50;
+SELECT setval('ai_response_seq', COALESCE((SELECT MAX(id) FROM ai_response), 0) + 1, false);
+ALTER TABLE ai_response ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE personalities_seq INCREMENT BY 50;
+SELECT setval('personalities_seq', COALESCE((SELECT MAX(id) FROM personalities), 0) + 1, false);
+ALTER TABLE personalities ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE events_seq INCREMENT BY 50;
+SELECT setval('events_seq', COALESCE((SELECT MAX(id) FROM events), 0) + 1, false);
+ALTER TABLE events ALTER COLUMN id DROP IDENTITY IF EXISTS;
+CREATE SEQUENCE message_embedding_seq INCREMENT BY 50;
+SELECT setval('message_embedding_seq', COALESCE((SELECT MAX(id) FROM message_embedding), 0) + 1, false);
+-- Created above as BIGSERIAL, so its ID has a default instead of an identity
+ALTER TABLE message_embedding ALTER COLUMN id DROP DEFAULT;
+
+-- Event listings are read page by page in (start_time, id) order, continuing after the last event of the
+-- previous page: one index for the listing of every event and one for the listing of each user.
+CREATE INDEX idx_events_start_time_id ON events (start_time, id);
+CREATE INDEX idx_events_user_start_time_id ON events (user_id, start_time, id);
+
+-- Calendar views ask for the events of a user overlapping a time range (start_time < to AND end_time > from).
+-- One index serves both the listing and the range query of a user: (user_id, start_time, id) reads the user's
+-- events already in page order, and end_time at the end lets the range condition be checked in the index.
+-- It replaces the listing index created above, which had the same leading columns.
+DROP INDEX IF EXISTS idx_events_user_start_time_id;
+CREATE INDEX idx_events_user_start_time_id_end_time ON events (user_id, start_time, id, end_time);
@@ -2,8 +2,10 @@ package com.blinky.apillama3blinky;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ApiLlama3BlinkyApplication {
 
     public static void main(String[] args) {
@@ -1,15 +1,25 @@
 package com.blinky.apillama3blinky.api;
 
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
 import com.blinky.apillama3blinky.controller.response.PromptResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface LlamaApiControllerApi {
 
-    ResponseEntity<PromptResponse> sendPrompt(
+    Mono<ResponseEntity<PromptResponse>> sendPrompt(
             @Valid @RequestBody PromptDTO promptDTO,
+            @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutSeconds,
+            HttpServletRequest request);
+
+    Flux<PromptChunkResponse> streamPrompt(
+            @Valid @RequestBody PromptDTO promptDTO,
+            @RequestHeader(value = "X-Request-Timeout", required = false) Long timeoutSeconds,
             HttpServletRequest request);
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+package com.blinky.apillama3blinky.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * In-memory approximate nearest neighbour index over embedding vectors (Hierarchical Navigable Small World graph).
+ * <p>
+ * Every vector is a node linked to its closest neighbours on layer 0, and to fewer, farther apart
+ * neighbours on the sparser upper layers. A search walks greedily down from the top layer and then
+ * explores layer 0 around the best candidates, visiting only a small part of the vectors.
+ * Vectors are normalised on insertion, so similarity is the cosine of the angle between them.
+ * Nodes cannot be removed; the owner rebuilds the index to drop vectors. Not thread-safe.
+ */
+public class HnswIndex {
+
+    private final int dimension;
+    private final int maxNeighbours;
+    private final int maxNeighboursLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    private final List<float[]> vectors = new ArrayList<>();
+    // links.get(node)[layer] holds the neighbours of the node on that layer
+    private final List<int[][]> links = new ArrayList<>();
+    private int entryPoint = -1;
+    private int topLayer = -1;
+
+    /**
+     * @param dimension      Length of the vectors
+     * @param maxNeighbours  Links kept per node on the upper layers (twice as many on layer 0)
+     * @param efConstruction Candidates examined when linking a new node; higher means better recall and slower inserts
+     * @param seed           Seed of the random layer assignment
+     */
+    public HnswIndex(int dimension, int maxNeighbours, int efConstruction, long seed) {
+        if (dimension < 1 || maxNeighbours < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("Configuración del índice de vectores no válida");
+        }
+        this.dimension = dimension;
+        this.maxNeighbours = maxNeighbours;
+        this.maxNeighboursLayer0 = 2 * maxNeighbours;
+        this.efConstruction = Math.max(efConstruction, maxNeighbours);
+        this.levelMultiplier = 1 / Math.log(maxNeighbours);
+        this.random = new Random(seed);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return vectors.size();
+    }
+
+    /**
+     * Adds a vector to the index.
+     *
+     * @param vector The vector, of the index's dimension
+     * @return The ID of the new node, assigned in insertion order from 0
+     */
+    public int add(float[] vector) {
+        float[] normalised = normalise(vector);
+        int node = vectors.size();
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        vectors.add(normalised);
+        int[][] nodeLinks = new int[level + 1][];
+        Arrays.fill(nodeLinks, new int[0]);
+        links.add(nodeLinks);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            topLayer = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int layer = topLayer; layer > level; layer--) {
+            current = greedyClosest(normalised, current, layer);
+        }
+
+        List<Candidate> entryPoints = List.of(new Candidate(current, similarity(normalised, vectors.get(current))));
+        for (int layer = Math.min(level, topLayer); layer >= 0; layer--) {
+            List<Candidate> candidates = searchLayer(normalised, entryPoints, efConstruction, layer);
+            int[] neighbours = closest(candidates, maxNeighbours);
+            nodeLinks[layer] = neighbours;
+            for (int neighbour : neighbours) {
+                link(neighbour, node, layer);
+            }
+            entryPoints = candidates;
+        }
+
+        if (level > topLayer) {
+            entryPoint = node;
+            topLayer = level;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the vectors most similar to a query.
+     *
+     * @param query    The query vector, of the index's dimension
+     * @param k        Number of results wanted
+     * @param efSearch Candidates examined; higher means better recall and slower searches
+     * @return Up to k results, most similar first
+     */
+    public List<Result> search(float[] query, int k, int efSearch) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        float[] normalised = normalise(query);
+        int current = entryPoint;
+        for (int layer = topLayer; layer > 0; layer--) {
+            current = greedyClosest(normalised, current, layer);
+        }
+        List<Candidate> candidates = searchLayer(normalised,
+                List.of(new Candidate(current, similarity(normalised, vectors.get(current)))), Math.max(efSearch, k), 0);
+        return candidates.stream()
+                .limit(k)
+                .map(candidate -> new Result(candidate.node, candidate.similarity))
+                .toList();
+    }
+
+    /**
+     * Follows the links of a layer towards the query while they lead to a more similar node.
+     */
+    private int greedyClosest(float[] query, int start, int layer) {
+        int current = start;
+        double best = similarity(query, vectors.get(current));
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : links.get(current)[layer]) {
+                double candidate = similarity(query, vectors.get(neighbour));
+                if (candidate > best) {
+                    best = candidate;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer, keeping the ef most similar nodes found.
+     *
+     * @return The nodes found, most similar first
+     */
+    private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int layer) {
+        BitSet visited = new BitSet(vectors.size());
+        // Most similar candidate first
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>((a, b) -> Double.compare(b.similarity, a.similarity));
+        // Least similar result first, so it can be dropped when a better one is found
+        PriorityQueue<Candidate> found = new PriorityQueue<>((a, b) -> Double.compare(a.similarity, b.similarity));
+        for (Candidate entry : entryPoints) {
+            if (!visited.get(entry.node)) {
+                visited.set(entry.node);
+                toVisit.add(entry);
+                found.add(entry);
+            }
+        }
+        while (found.size() > ef) {
+            found.poll();
+        }
+
+        while (!toVisit.isEmpty()) {
+            Candidate current = toVisit.poll();
+            if (found.size() >= ef && current.similarity < found.peek().similarity) {
+                break;
+            }
+            int[][] nodeLinks = links.get(current.node);
+            if (layer >= nodeLinks.length) {
+                continue;
+            }
+            for (int neighbour : nodeLinks[layer]) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                double neighbourSimilarity = similarity(query, vectors.get(neighbour));
+                if (found.size() < ef || neighbourSimilarity > found.peek().similarity) {
+                    Candidate candidate = new Candidate(neighbour, neighbourSimilarity);
+                    toVisit.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(found);
+        result.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        return result;
+    }
+
+    /**
+     * Adds a link from a node to a new neighbour, dropping its least similar link if it has too many.
+     */
+    private void link(int node, int newNeighbour, int layer) {
+        int[][] nodeLinks = links.get(node);
+        int[] current = nodeLinks[layer];
+        int limit = layer == 0 ? maxNeighboursLayer0 : maxNeighbours;
+        int[] extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = newNeighbour;
+        if (extended.length <= limit) {
+            nodeLinks[layer] = extended;
+            return;
+        }
+
+        float[] vector = vectors.get(node);
+        List<Candidate> candidates = new ArrayList<>(extended.length);
+        for (int neighbour : extended) {
+            candidates.add(new Candidate(neighbour, similarity(vector, vectors.get(neighbour))));
+        }
+        candidates.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        nodeLinks[layer] = closest(candidates, limit);
+    }
+
+    private static int[] closest(List<Candidate> sortedCandidates, int count) {
+        return sortedCandidates.stream()
+                .limit(count)
+                .mapToInt(candidate -> candidate.node)
+                .toArray();
+    }
+
+    private float[] normalise(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("El vector tiene " + vector.length + " dimensiones en lugar de " + dimension);
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalised = new float[dimension];
+        if (norm == 0) {
+            return normalised;
+        }
+        for (int i = 0; i < dimension; i++) {
+            normalised[i] = (float) (vector[i] / norm);
+        }
+        return normalised;
+    }
+
+    private static double similarity(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    private record Candidate(int node, double similarity) {
+    }
+
+    /**
+     * A node found by a search.
+     *
+     * @param node       ID of the node, as returned by {@link #add(float[])}
+     * @param similarity Cosine similarity between the node and the query, from -1 to 1
+     */
+    public record Result(int node, double similarity) {
+    }
+}
@@ -0,0 +1,176 @@
+package com.blinky.apillama3blinky.cache;
+
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.mapping.OllamaMapping;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of complete model replies, keyed on everything that determines the generation:
+ * the model, the full prompt and the generation options.
+ * <p>
+ * Entries expire after a fixed time to live, and the least recently used ones are evicted once
+ * the estimated size of the cached replies exceeds the configured number of bytes. Requests that
+ * continue from a stored Ollama context are never cached, since the prompt alone does not describe them.
+ */
+@Component
+public class LlmResponseCache {
+
+    // Rough fixed cost of an entry besides its text: key, map node and response object
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    // Least recently used entry first; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    @Autowired
+    public LlmResponseCache(@Value("${ia.response-cache.max-size:32MB}") DataSize maxSize,
+                            @Value("${ia.response-cache.ttl:1h}") Duration ttl,
+                            MeterRegistry meterRegistry) {
+        this(maxSize.toBytes(), ttl, meterRegistry, System::nanoTime);
+    }
+
+    LlmResponseCache(long maxBytes, Duration ttl, MeterRegistry meterRegistry, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+
+        this.hits = Counter.builder("ia.response-cache.requests")
+                .tag("result", "hit")
+                .description("Peticiones al modelo respondidas desde la caché")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ia.response-cache.requests")
+                .tag("result", "miss")
+                .description("Peticiones al modelo que no estaban en la caché")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("ia.response-cache.evictions")
+                .description("Respuestas descartadas de la caché por falta de espacio")
+                .register(meterRegistry);
+        Gauge.builder("ia.response-cache.size", this, LlmResponseCache::getSizeInBytes)
+                .baseUnit("bytes")
+                .description("Tamaño estimado de las respuestas en caché")
+                .register(meterRegistry);
+        Gauge.builder("ia.response-cache.hit.ratio", this, LlmResponseCache::getHitRatio)
+                .description("Proporción de peticiones al modelo respondidas desde la caché")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Computes the cache key of a request to the model.
+     *
+     * @param ollamaDTO The request
+     * @return The key, or null if the request cannot be cached
+     */
+    public String keyFor(OllamaDTO ollamaDTO) {
+        if (ollamaDTO.getContext() != null) {
+            return null;
+        }
+        return OllamaMapping.fingerprint(ollamaDTO);
+    }
+
+    /**
+     * Gets a cached reply.
+     *
+     * @param key The key computed by {@link #keyFor(OllamaDTO)}
+     * @return The reply, or null if it is not cached or has expired
+     */
+    public synchronized OllamaResponse get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.storedAt >= ttlNanos) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.response;
+    }
+
+    /**
+     * Stores a complete reply, evicting the least recently used entries if the cache grows too big.
+     * Replies bigger than the whole cache are not stored.
+     *
+     * @param key      The key computed by {@link #keyFor(OllamaDTO)}
+     * @param response The complete reply of the model
+     */
+    public synchronized void put(String key, OllamaResponse response) {
+        long bytes = estimateBytes(response);
+        if (bytes > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(response, bytes, clock.getAsLong()));
+        currentBytes += bytes;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes every cached reply.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public double getHitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.bytes;
+        }
+    }
+
+    private static long estimateBytes(OllamaResponse response) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        if (response.getResponse() != null) {
+            bytes += 2L * response.getResponse().length();
+        }
+        if (response.getContext() != null) {
+            // Boxed integers in a list
+            bytes += 20L * response.getContext().size();
+        }
+        return bytes;
+    }
+
+    private record Entry(OllamaResponse response, long bytes, long storedAt) {
+    }
+}
@@ -0,0 +1,181 @@
+package com.blinky.apillama3blinky.cache;
+
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of model replies looked up by meaning rather than by exact text.
+ * <p>
+ * Each prompt is stored with its embedding in an {@link HnswIndex}, one per scope (a personality with
+ * its model and base prompt), and a new prompt is answered from the cache when the most similar stored
+ * prompt of its scope is at least as similar as the configured threshold. This catches paraphrases
+ * such as "hola, ¿qué tal?" and "¿qué tal estás?" that the exact-match cache misses.
+ * <p>
+ * Entries expire after a fixed time to live. Once a scope holds the maximum number of entries, its
+ * index is rebuilt without the expired entries and, if still full, without the oldest half.
+ */
+@Component
+public class SemanticResponseCache {
+
+    // Links per node and candidates examined while building and searching the index
+    private static final int MAX_NEIGHBOURS = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 50;
+    // Nearest prompts checked, in case the closest ones have expired
+    private static final int NEIGHBOURS_CHECKED = 3;
+    // Fixed seed so the index layout does not change between runs
+    private static final long INDEX_SEED = 42;
+
+    private final double similarityThreshold;
+    private final int maxEntriesPerScope;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Counter hits;
+    private final Counter misses;
+
+    // Guarded by this
+    private final Map<String, Scope> scopes = new HashMap<>();
+
+    @Autowired
+    public SemanticResponseCache(@Value("${ia.semantic-cache.similarity-threshold:0.92}") double similarityThreshold,
+                                 @Value("${ia.semantic-cache.max-entries:1000}") int maxEntriesPerScope,
+                                 @Value("${ia.semantic-cache.ttl:1h}") Duration ttl,
+                                 MeterRegistry meterRegistry) {
+        this(similarityThreshold, maxEntriesPerScope, ttl, meterRegistry, System::nanoTime);
+    }
+
+    SemanticResponseCache(double similarityThreshold, int maxEntriesPerScope, Duration ttl,
+                          MeterRegistry meterRegistry, LongSupplier clock) {
+        if (similarityThreshold <= 0 || similarityThreshold > 1 || maxEntriesPerScope < 2) {
+            throw new IllegalArgumentException("Configuración de la caché semántica no válida");
+        }
+        this.similarityThreshold = similarityThreshold;
+        this.maxEntriesPerScope = maxEntriesPerScope;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+
+        this.hits = Counter.builder("ia.semantic-cache.requests")
+                .tag("result", "hit")
+                .description("Prompts respondidos desde la caché semántica")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ia.semantic-cache.requests")
+                .tag("result", "miss")
+                .description("Prompts sin respuesta parecida en la caché semántica")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Gets the cached reply of the most similar prompt of a scope.
+     *
+     * @param scope     Scope of the prompt
+     * @param embedding Embedding of the prompt
+     * @return The reply, or null if no stored prompt is similar enough
+     */
+    public synchronized OllamaResponse get(String scope, float[] embedding) {
+        Scope entries = scopes.get(scope);
+        if (entries != null && entries.index.getDimension() == embedding.length) {
+            long now = clock.getAsLong();
+            for (HnswIndex.Result result : entries.index.search(embedding, NEIGHBOURS_CHECKED, EF_SEARCH)) {
+                if (result.similarity() < similarityThreshold) {
+                    break;
+                }
+                Entry entry = entries.entries.get(result.node());
+                if (!isExpired(entry, now)) {
+                    hits.increment();
+                    return entry.response;
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores the reply to a prompt. Its Ollama context is left out: the context holds the tokens of the prompt
+     * that produced the reply, which may be another user's, so a conversation answered from the cache must not
+     * continue from it.
+     *
+     * @param scope     Scope of the prompt
+     * @param embedding Embedding of the prompt
+     * @param response  The complete reply of the model
+     */
+    public synchronized void put(String scope, float[] embedding, OllamaResponse response) {
+        Scope entries = scopes.get(scope);
+        if (entries == null || entries.index.getDimension() != embedding.length) {
+            // New scope, or the embedding model changed and the old vectors cannot be compared
+            entries = new Scope(embedding.length);
+            scopes.put(scope, entries);
+        } else if (entries.entries.size() >= maxEntriesPerScope) {
+            entries = rebuild(entries);
+            scopes.put(scope, entries);
+        }
+        OllamaResponse withoutContext = new OllamaResponse(response.getModel(), response.getCreated_at(),
+                response.getResponse(), response.isDone(), response.getDone_reason(), null);
+        entries.add(new Entry(embedding, withoutContext, clock.getAsLong()));
+    }
+
+    /**
+     * Removes every cached reply.
+     */
+    public synchronized void clear() {
+        scopes.clear();
+    }
+
+    public synchronized int getEntryCount(String scope) {
+        Scope entries = scopes.get(scope);
+        return entries == null ? 0 : entries.entries.size();
+    }
+
+    /**
+     * Builds a new index for a full scope with its expired entries, and the oldest half if still needed, left out.
+     */
+    private Scope rebuild(Scope full) {
+        long now = clock.getAsLong();
+        List<Entry> kept = new ArrayList<>(full.entries.stream()
+                .filter(entry -> !isExpired(entry, now))
+                .toList());
+        if (kept.size() >= maxEntriesPerScope / 2) {
+            kept.sort(Comparator.comparingLong(Entry::storedAt).reversed());
+            kept = kept.subList(0, maxEntriesPerScope / 2);
+        }
+        Scope rebuilt = new Scope(full.index.getDimension());
+        kept.forEach(rebuilt::add);
+        return rebuilt;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.storedAt >= ttlNanos;
+    }
+
+    /**
+     * The index and entries of one scope; entries are stored at the position of their node ID.
+     */
+    private static class Scope {
+        private final HnswIndex index;
+        private final List<Entry> entries = new ArrayList<>();
+
+        Scope(int dimension) {
+            this.index = new HnswIndex(dimension, MAX_NEIGHBOURS, EF_CONSTRUCTION, INDEX_SEED);
+        }
+
+        void add(Entry entry) {
+            index.add(entry.embedding);
+            entries.add(entry);
+        }
+    }
+
+    private record Entry(float[] embedding, OllamaResponse response, long storedAt) {
+    }
+}
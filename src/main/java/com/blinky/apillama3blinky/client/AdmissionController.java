@@ -0,0 +1,304 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many calls are sent to Ollama at the same time.
+ * Calls beyond the concurrency limit wait in a bounded queue with one line per user, and the lines
+ * are served in turn so a user sending many requests cannot starve the others. Once the queue
+ * (or a user's line) is full, new calls are rejected straight away with a {@link TooManyRequestsException}.
+ * <p>
+ * The limit is fixed unless a {@link GradientConcurrencyLimit} is given, in which case it follows
+ * the latency of the calls as they complete.
+ */
+public class AdmissionController {
+
+    private static final String ANONYMOUS_USER = "anonymous";
+
+    private final int maxQueueSize;
+    private final int maxQueuedPerUser;
+    private final Duration retryAfter;
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private final GradientConcurrencyLimit adaptiveLimit;
+
+    // Waiting calls per user, in the order the users will next be served; guarded by this
+    private final Map<String, Deque<Waiter>> waitersByUser = new LinkedHashMap<>();
+    private int maxConcurrency;
+    private int active;
+    private int queued;
+
+    /**
+     * @param bulkhead         Name of the workload this controller admits, used to tag its metrics
+     * @param maxConcurrency   Calls allowed at the same time
+     * @param maxQueueSize     Calls allowed to wait in total
+     * @param maxQueuedPerUser Calls allowed to wait for a single user
+     * @param retryAfter       Wait suggested to rejected clients
+     * @param meterRegistry    Registry for the admission metrics
+     */
+    public AdmissionController(String bulkhead, int maxConcurrency, int maxQueueSize, int maxQueuedPerUser,
+                               Duration retryAfter, MeterRegistry meterRegistry) {
+        this(bulkhead, maxConcurrency, maxQueueSize, maxQueuedPerUser, retryAfter, meterRegistry, null);
+    }
+
+    public AdmissionController(String bulkhead, GradientConcurrencyLimit adaptiveLimit, int maxQueueSize, int maxQueuedPerUser,
+                               Duration retryAfter, MeterRegistry meterRegistry) {
+        this(bulkhead, adaptiveLimit.getLimit(), maxQueueSize, maxQueuedPerUser, retryAfter, meterRegistry, adaptiveLimit);
+    }
+
+    private AdmissionController(String bulkhead, int maxConcurrency, int maxQueueSize, int maxQueuedPerUser,
+                                Duration retryAfter, MeterRegistry meterRegistry, GradientConcurrencyLimit adaptiveLimit) {
+        if (maxConcurrency < 1 || maxQueueSize < 0 || maxQueuedPerUser < 0) {
+            throw new IllegalArgumentException("Configuración de admisión no válida");
+        }
+        this.adaptiveLimit = adaptiveLimit;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+        this.retryAfter = retryAfter;
+
+        Gauge.builder("ia.admission.queue.size", this, AdmissionController::getQueued)
+                .tag("bulkhead", bulkhead)
+                .description("Llamadas al modelo esperando turno")
+                .register(meterRegistry);
+        Gauge.builder("ia.admission.active", this, AdmissionController::getActive)
+                .tag("bulkhead", bulkhead)
+                .description("Llamadas al modelo en curso")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("ia.admission.wait")
+                .tag("bulkhead", bulkhead)
+                .description("Tiempo de espera en cola antes de llamar al modelo")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("ia.admission.rejected")
+                .tag("bulkhead", bulkhead)
+                .description("Llamadas al modelo rechazadas por cola llena")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a single-response call once it is admitted.
+     * The call only starts when a slot is free and the slot is released as soon as it terminates or is cancelled.
+     *
+     * @param userKey Key of the user the call is made for (null for calls without a user)
+     * @param call    The call to run
+     * @return A Mono emitting the result of the call, or failing with {@link TooManyRequestsException}
+     */
+    public <T> Mono<T> admit(String userKey, Mono<T> call) {
+        return Mono.usingWhen(acquire(userKey),
+                permit -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return call.doOnSuccess(result -> onSample(start, false))
+                            .doOnError(error -> onSample(start, true))
+                            .doOnTerminate(permit::release);
+                }),
+                permit -> Mono.fromRunnable(permit::release));
+    }
+
+    /**
+     * Runs a streaming call once it is admitted, holding the slot until the stream ends.
+     *
+     * @param userKey Key of the user the call is made for (null for calls without a user)
+     * @param call    The call to run
+     * @return A Flux relaying the elements of the call, or failing with {@link TooManyRequestsException}
+     */
+    public <T> Flux<T> admitMany(String userKey, Flux<T> call) {
+        return Flux.usingWhen(acquire(userKey),
+                permit -> Flux.defer(() -> {
+                    long start = System.nanoTime();
+                    return call.doOnComplete(() -> onSample(start, false))
+                            .doOnError(error -> onSample(start, true))
+                            .doOnTerminate(permit::release);
+                }),
+                permit -> Mono.fromRunnable(permit::release));
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Changes the number of calls allowed at the same time.
+     * Raising the limit admits waiting calls straight away; lowering it lets calls in progress finish.
+     *
+     * @param maxConcurrency The new limit (at least 1)
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        List<Waiter> admitted;
+        synchronized (this) {
+            this.maxConcurrency = Math.max(1, maxConcurrency);
+            admitted = admitWaiters();
+        }
+        admitted.forEach(Waiter::grant);
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Feeds the outcome of a finished call to the adaptive limit, if any, and applies the resulting limit.
+     * Runs before the call's slot is released, so the call still counts as in flight.
+     *
+     * @param start  When the call started, from {@link System#nanoTime()}
+     * @param failed Whether the call failed
+     */
+    private void onSample(long start, boolean failed) {
+        if (adaptiveLimit == null) {
+            return;
+        }
+        int newLimit = adaptiveLimit.onSample(System.nanoTime() - start, getActive(), failed);
+        if (newLimit != getMaxConcurrency()) {
+            setMaxConcurrency(newLimit);
+        }
+    }
+
+    /**
+     * Obtains a slot for a call, waiting in the user's line if every slot is taken.
+     *
+     * @param userKey Key of the user the call is made for
+     * @return A Mono emitting the permit once the call may start
+     */
+    private Mono<Permit> acquire(String userKey) {
+        String user = userKey != null ? userKey : ANONYMOUS_USER;
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(user, sink);
+            boolean admitted = false;
+            boolean rejected = false;
+
+            synchronized (this) {
+                Deque<Waiter> userWaiters = waitersByUser.get(user);
+                if (queued == 0 && active < maxConcurrency) {
+                    active++;
+                    admitted = true;
+                } else if (queued >= maxQueueSize || (userWaiters != null && userWaiters.size() >= maxQueuedPerUser)) {
+                    rejected = true;
+                } else {
+                    waitersByUser.computeIfAbsent(user, key -> new ArrayDeque<>()).addLast(waiter);
+                    queued++;
+                }
+            }
+
+            if (admitted) {
+                waiter.grant();
+            } else if (rejected) {
+                rejectedCounter.increment();
+                sink.error(new TooManyRequestsException(
+                        "El asistente está atendiendo demasiadas peticiones. Inténtalo de nuevo en unos segundos.",
+                        Math.max(1, retryAfter.toSeconds())));
+            } else {
+                sink.onCancel(() -> cancel(waiter));
+            }
+        });
+    }
+
+    /**
+     * Releases a slot and hands it to the next waiting calls.
+     */
+    private void release() {
+        List<Waiter> admitted;
+        synchronized (this) {
+            active--;
+            admitted = admitWaiters();
+        }
+        admitted.forEach(Waiter::grant);
+    }
+
+    /**
+     * Takes waiting calls out of the queue while there are free slots, one user at a time.
+     * Must be called while holding the lock; the returned waiters must be granted once it is released.
+     *
+     * @return The waiters admitted
+     */
+    private List<Waiter> admitWaiters() {
+        List<Waiter> admitted = new ArrayList<>();
+        while (active < maxConcurrency && queued > 0) {
+            // The first user in the map is the one who has waited longest since being served
+            Iterator<Map.Entry<String, Deque<Waiter>>> users = waitersByUser.entrySet().iterator();
+            Map.Entry<String, Deque<Waiter>> next = users.next();
+            users.remove();
+            Waiter waiter = next.getValue().pollFirst();
+            if (!next.getValue().isEmpty()) {
+                // Move the user to the back of the rotation
+                waitersByUser.put(next.getKey(), next.getValue());
+            }
+            queued--;
+            active++;
+            admitted.add(waiter);
+        }
+        return admitted;
+    }
+
+    /**
+     * Removes a waiting call whose subscriber went away.
+     * If the call was admitted at the same time, its slot is given back.
+     *
+     * @param waiter The cancelled waiter
+     */
+    private void cancel(Waiter waiter) {
+        synchronized (this) {
+            Deque<Waiter> userWaiters = waitersByUser.get(waiter.user);
+            if (userWaiters != null && userWaiters.remove(waiter)) {
+                queued--;
+                if (userWaiters.isEmpty()) {
+                    waitersByUser.remove(waiter.user);
+                }
+                return;
+            }
+        }
+        waiter.permit.release();
+    }
+
+    /**
+     * A call waiting for a slot.
+     */
+    private class Waiter {
+        private final String user;
+        private final MonoSink<Permit> sink;
+        private final long enqueuedAt = System.nanoTime();
+        private final Permit permit = new Permit();
+
+        Waiter(String user, MonoSink<Permit> sink) {
+            this.user = user;
+            this.sink = sink;
+        }
+
+        void grant() {
+            waitTimer.record(Duration.ofNanos(System.nanoTime() - enqueuedAt));
+            sink.success(permit);
+        }
+    }
+
+    /**
+     * A slot held by an admitted call, released at most once.
+     */
+    private class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                AdmissionController.this.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.exception.CircuitOpenException;
+import com.blinky.apillama3blinky.exception.OllamaUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending calls to Ollama while it keeps failing, so callers get an answer straight away
+ * instead of each one waiting out its own timeout.
+ * <p>
+ * While CLOSED, the outcome of the most recent calls is kept in a sliding window. Once the share of
+ * failures in that window reaches the threshold the circuit OPENS and every call is refused with a
+ * {@link CircuitOpenException}. After the open duration the circuit becomes HALF_OPEN and lets a few
+ * probe calls through: if all of them succeed it closes again, and if any fails it opens for another period.
+ * <p>
+ * Only errors that point at Ollama itself count as failures: connection errors, timeouts, 5xx responses
+ * and the pool having no healthy server. Rejections by the admission queue, 4xx responses and cancelled
+ * calls are not counted.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDurationNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+    private final Counter rejectedCounter;
+
+    // Guarded by this
+    private final boolean[] outcomes;
+    private int recordedCalls;
+    private int nextOutcome;
+    private int failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenStarted;
+    private int halfOpenSucceeded;
+    // Incremented on every state change, so results of calls permitted in an earlier state are ignored
+    private long generation;
+
+    /**
+     * @param name                 Name of the circuit, used in logs and metrics
+     * @param failureRateThreshold Share of failed calls that opens the circuit (between 0 and 1)
+     * @param slidingWindowSize    Number of recent calls the failure rate is computed from
+     * @param minimumCalls         Calls needed in the window before the circuit can open
+     * @param openDuration         How long the circuit stays open before probing Ollama again
+     * @param halfOpenCalls        Probe calls that must succeed to close the circuit again
+     * @param meterRegistry        Registry for the circuit metrics
+     */
+    public CircuitBreaker(String name, double failureRateThreshold, int slidingWindowSize, int minimumCalls,
+                          Duration openDuration, int halfOpenCalls, MeterRegistry meterRegistry) {
+        this(name, failureRateThreshold, slidingWindowSize, minimumCalls, openDuration, halfOpenCalls, meterRegistry, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, double failureRateThreshold, int slidingWindowSize, int minimumCalls,
+                   Duration openDuration, int halfOpenCalls, MeterRegistry meterRegistry, LongSupplier clock) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1 || slidingWindowSize < 1
+                || minimumCalls < 1 || minimumCalls > slidingWindowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Configuración del cortocircuito no válida");
+        }
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.outcomes = new boolean[slidingWindowSize];
+        this.minimumCalls = minimumCalls;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+        this.clock = clock;
+
+        Gauge.builder("ia.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .tag("circuit", name)
+                .description("Estado del cortocircuito hacia el modelo (0 cerrado, 1 abierto, 2 semiabierto)")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("ia.circuit.rejected")
+                .tag("circuit", name)
+                .description("Llamadas al modelo rechazadas por tener el cortocircuito abierto")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a single-response call if the circuit lets it through and records its outcome.
+     *
+     * @param call The call to run
+     * @return A Mono emitting the result of the call, or failing with {@link CircuitOpenException}
+     */
+    public <T> Mono<T> execute(Mono<T> call) {
+        return Mono.defer(() -> {
+            Permission permission = tryAcquire();
+            return call.doOnSuccess(result -> permission.onSuccess())
+                    .doOnError(permission::onError)
+                    .doOnCancel(permission::onCancel);
+        });
+    }
+
+    /**
+     * Runs a streaming call if the circuit lets it through, recording its outcome when the stream ends.
+     *
+     * @param call The call to run
+     * @return A Flux relaying the elements of the call, or failing with {@link CircuitOpenException}
+     */
+    public <T> Flux<T> executeMany(Flux<T> call) {
+        return Flux.defer(() -> {
+            Permission permission = tryAcquire();
+            return call.doOnComplete(permission::onSuccess)
+                    .doOnError(permission::onError)
+                    .doOnCancel(permission::onCancel);
+        });
+    }
+
+    public synchronized State getState() {
+        // An open circuit whose open period is over reports itself as half open
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Checks whether a call may go through.
+     *
+     * @return The permission to record the call's outcome with
+     * @throws CircuitOpenException if the circuit is open or every half-open probe is already taken
+     */
+    private synchronized Permission tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationNanos) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && halfOpenStarted >= halfOpenCalls)) {
+            rejectedCounter.increment();
+            throw new CircuitOpenException("El asistente no está disponible en este momento. Inténtalo de nuevo más tarde.");
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenStarted++;
+        }
+        return new Permission(generation);
+    }
+
+    private synchronized void onResult(long permittedGeneration, boolean failed) {
+        if (permittedGeneration != generation) {
+            return;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (failed) {
+                transitionTo(State.OPEN);
+            } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+
+        if (recordedCalls == outcomes.length && outcomes[nextOutcome]) {
+            failures--;
+        }
+        outcomes[nextOutcome] = failed;
+        nextOutcome = (nextOutcome + 1) % outcomes.length;
+        recordedCalls = Math.min(outcomes.length, recordedCalls + 1);
+        if (failed) {
+            failures++;
+        }
+
+        if (recordedCalls >= minimumCalls && failures >= failureRateThreshold * recordedCalls) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * Gives back a half-open probe whose call was cancelled, so another call can probe instead.
+     */
+    private synchronized void onCancelled(long permittedGeneration) {
+        if (permittedGeneration == generation && state == State.HALF_OPEN) {
+            halfOpenStarted--;
+        }
+    }
+
+    /**
+     * Moves the circuit to a new state and clears the counters of the previous one.
+     * Must be called while holding the lock.
+     */
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Cortocircuito {} abierto: las llamadas al modelo se rechazarán durante {} ms",
+                    name, Duration.ofNanos(openDurationNanos).toMillis());
+        } else if (newState == State.CLOSED) {
+            log.info("Cortocircuito {} cerrado: el modelo vuelve a responder", name);
+        }
+        state = newState;
+        generation++;
+        openedAt = clock.getAsLong();
+        halfOpenStarted = 0;
+        halfOpenSucceeded = 0;
+        recordedCalls = 0;
+        nextOutcome = 0;
+        failures = 0;
+    }
+
+    /**
+     * Decides whether an error means Ollama itself is failing.
+     *
+     * @param error The error raised by the call
+     * @return Whether the error counts as a failure of the circuit
+     */
+    private static boolean isFailure(Throwable error) {
+        return error instanceof WebClientRequestException
+                || error instanceof TimeoutException
+                // Read timeouts raised while the body of a response is being read are not wrapped by WebClient
+                || error instanceof ReadTimeoutException
+                || error instanceof OllamaUnavailableException
+                || (error instanceof WebClientResponseException responseException
+                && responseException.getStatusCode().is5xxServerError());
+    }
+
+    /**
+     * A call let through by the circuit, whose outcome is recorded at most once.
+     */
+    private class Permission {
+        private final long generation;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Permission(long generation) {
+            this.generation = generation;
+        }
+
+        void onSuccess() {
+            if (done.compareAndSet(false, true)) {
+                onResult(generation, false);
+            }
+        }
+
+        void onError(Throwable error) {
+            if (done.compareAndSet(false, true)) {
+                if (isFailure(error)) {
+                    onResult(generation, true);
+                } else {
+                    // Not Ollama's fault: the call neither counts against the circuit nor uses up a probe
+                    onCancelled(generation);
+                }
+            }
+        }
+
+        void onCancel() {
+            if (done.compareAndSet(false, true)) {
+                onCancelled(generation);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.blinky.apillama3blinky.client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Routes every request of a conversation to the same backend, so follow-up turns reach
+ * a server that still has the model and the conversation's state loaded.
+ * <p>
+ * Backends are placed on a hash ring through several virtual nodes each, and a conversation
+ * goes to the first backend found clockwise from its key. Adding or removing a backend only
+ * moves the conversations that hash next to it. To keep a popular backend from being overloaded,
+ * a backend is skipped while its requests in flight exceed the average by the configured load factor,
+ * and the request spills over to the next backend on the ring.
+ * Requests without a routing key fall back to least-outstanding routing.
+ */
+public class ConsistentHashRoutingPolicy implements RoutingPolicy {
+
+    private final NavigableMap<Long, OllamaBackend> ring = new TreeMap<>();
+    private final double loadFactor;
+    private final RoutingPolicy fallback = new LeastOutstandingRoutingPolicy();
+
+    /**
+     * @param backends     Every backend of the pool, healthy or not
+     * @param virtualNodes Number of points each backend takes on the ring
+     * @param loadFactor   How far above the average load a backend may go before requests spill over (at least 1)
+     */
+    public ConsistentHashRoutingPolicy(List<OllamaBackend> backends, int virtualNodes, double loadFactor) {
+        if (virtualNodes < 1 || loadFactor < 1) {
+            throw new IllegalArgumentException("Configuración de enrutamiento por hash no válida");
+        }
+        this.loadFactor = loadFactor;
+        // Points depend only on the backend URL, so the ring is stable across restarts and replicas
+        for (OllamaBackend backend : backends) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(hash(backend.getUrl() + "#" + i), backend);
+            }
+        }
+    }
+
+    @Override
+    public OllamaBackend select(List<OllamaBackend> healthyBackends, String routingKey) {
+        if (routingKey == null) {
+            return fallback.select(healthyBackends, routingKey);
+        }
+
+        int totalInFlight = 0;
+        for (OllamaBackend backend : healthyBackends) {
+            totalInFlight += backend.getInFlight();
+        }
+        // Bounded load: counting this request, no backend may exceed loadFactor times the average
+        int capacity = (int) Math.ceil(loadFactor * (totalInFlight + 1) / healthyBackends.size());
+
+        Set<OllamaBackend> healthy = new HashSet<>(healthyBackends);
+        long keyHash = hash(routingKey);
+        for (OllamaBackend backend : clockwiseFrom(keyHash)) {
+            if (healthy.contains(backend) && backend.getInFlight() < capacity) {
+                return backend;
+            }
+        }
+        // Unreachable while the ring holds every healthy backend, kept as a safety net
+        return fallback.select(healthyBackends, routingKey);
+    }
+
+    /**
+     * Gets the ring's backends in clockwise order starting at the given position, wrapping around once.
+     *
+     * @param position The position on the ring
+     * @return The backends found walking the ring from that position
+     */
+    private Iterable<OllamaBackend> clockwiseFrom(long position) {
+        Collection<OllamaBackend> tail = ring.tailMap(position, true).values();
+        Collection<OllamaBackend> head = ring.headMap(position, false).values();
+        return () -> Stream.concat(tail.stream(), head.stream()).iterator();
+    }
+
+    /**
+     * Hashes a value onto the ring using the first 8 bytes of its MD5 digest,
+     * which spreads nearby keys such as consecutive conversation ids evenly.
+     *
+     * @param value The value to hash
+     * @return The position of the value on the ring
+     */
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 no está disponible", e);
+        }
+    }
+}
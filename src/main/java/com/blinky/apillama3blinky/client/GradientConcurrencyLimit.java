@@ -0,0 +1,116 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit for the Ollama calls that adapts to the latency observed at runtime.
+ * <p>
+ * Follows the gradient approach of TCP Vegas: a slow moving average of the call latency serves as
+ * the baseline of an unloaded backend, and a fast one tracks the current latency. While the current
+ * latency stays close to the baseline the limit keeps growing; once calls start to queue inside the
+ * backend and the latency rises, the ratio between both averages drops below 1 and the limit shrinks
+ * accordingly. Failed calls cut the limit straight away. This keeps the number of calls in flight
+ * near the point where the backend is fully used without building up a queue.
+ */
+public class GradientConcurrencyLimit {
+
+    // How much slower than the baseline the current latency may get before the limit shrinks
+    private static final double RTT_TOLERANCE = 1.5;
+    // Weight of each new limit estimate, to avoid reacting to a single slow call
+    private static final double SMOOTHING = 0.2;
+    // Factor applied to the limit when a call fails
+    private static final double BACKOFF_RATIO = 0.9;
+    // Number of samples covered by the fast and slow latency averages
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    // Guarded by this
+    private double estimatedLimit;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    public GradientConcurrencyLimit(String bulkhead, int initialLimit, int minLimit, int maxLimit, MeterRegistry meterRegistry) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Límites de concurrencia adaptativa no válidos");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("ia.admission.limit", this, GradientConcurrencyLimit::getLimit)
+                .tag("bulkhead", bulkhead)
+                .description("Llamadas simultáneas al modelo permitidas actualmente")
+                .register(meterRegistry);
+        Gauge.builder("ia.admission.rtt", this, limit -> limit.getShortRtt(TimeUnit.MILLISECONDS))
+                .tag("bulkhead", bulkhead)
+                .tag("window", "short")
+                .baseUnit("milliseconds")
+                .description("Latencia reciente de las llamadas al modelo")
+                .register(meterRegistry);
+        Gauge.builder("ia.admission.rtt", this, limit -> limit.getLongRtt(TimeUnit.MILLISECONDS))
+                .tag("bulkhead", bulkhead)
+                .tag("window", "long")
+                .baseUnit("milliseconds")
+                .description("Latencia de referencia de las llamadas al modelo")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Updates the limit with the outcome of a call.
+     *
+     * @param rttNanos Time the call took
+     * @param inFlight Calls in progress when this one finished, itself included
+     * @param failed   Whether the call failed
+     * @return The new limit
+     */
+    public synchronized int onSample(long rttNanos, int inFlight, boolean failed) {
+        if (failed) {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF_RATIO);
+            return getLimit();
+        }
+
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+        } else {
+            shortRttNanos += (rttNanos - shortRttNanos) * 2.0 / (SHORT_WINDOW + 1);
+            longRttNanos += (rttNanos - longRttNanos) * 2.0 / (LONG_WINDOW + 1);
+        }
+
+        // Let the baseline recover faster when the backend has become quicker (e.g. after a model change)
+        if (longRttNanos / shortRttNanos > 2) {
+            longRttNanos *= 0.95;
+        }
+
+        // Only grow while the limit is actually being used, otherwise it would grow without bound
+        if (inFlight < estimatedLimit / 2) {
+            return getLimit();
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRttNanos / shortRttNanos));
+        // Leave room for a few queued calls so the limit can probe upwards
+        double queueSize = Math.sqrt(estimatedLimit);
+        double newLimit = estimatedLimit * gradient + queueSize;
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        return getLimit();
+    }
+
+    public synchronized int getLimit() {
+        return (int) estimatedLimit;
+    }
+
+    public synchronized double getShortRtt(TimeUnit unit) {
+        return shortRttNanos / unit.toNanos(1);
+    }
+
+    public synchronized double getLongRtt(TimeUnit unit) {
+        return longRttNanos / unit.toNanos(1);
+    }
+}
@@ -0,0 +1,114 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Decides when a slow Ollama call is duplicated on another backend.
+ * <p>
+ * The policy keeps the latency of the most recent successful calls. Once a call has been running for
+ * longer than the configured percentile of that latency (and never less than the minimum delay),
+ * a second copy may be sent to another backend and whichever answers first is used. Every call earns
+ * a fraction of a hedge, and a hedge can only be sent when a whole one has been earned, so hedges never
+ * add more than that fraction of extra load, even when the backends are slow because they are overloaded.
+ */
+public class HedgingPolicy {
+
+    // Number of recent latencies the percentile is computed from
+    private static final int WINDOW_SIZE = 500;
+    // Latencies needed before hedging starts, so the percentile means something
+    private static final int MIN_SAMPLES = 20;
+    // Hedges that can be saved up during quiet periods
+    private static final double MAX_BUDGET = 10;
+
+    private final double percentile;
+    private final Duration minDelay;
+    private final double budgetRatio;
+    private final Counter hedgesSent;
+    private final Counter hedgesWon;
+
+    // Guarded by this
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int sampleCount;
+    private int nextSample;
+    private double budget;
+
+    /**
+     * @param percentile    Percentile of recent latency after which a call is hedged (between 0 and 1)
+     * @param minDelay      Minimum time to wait before hedging a call
+     * @param budgetRatio   Maximum share of extra calls caused by hedging (between 0 and 1)
+     * @param meterRegistry Registry for the hedging metrics
+     */
+    public HedgingPolicy(double percentile, Duration minDelay, double budgetRatio, MeterRegistry meterRegistry) {
+        if (percentile <= 0 || percentile >= 1 || budgetRatio <= 0 || budgetRatio >= 1) {
+            throw new IllegalArgumentException("Configuración de peticiones duplicadas no válida");
+        }
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.budgetRatio = budgetRatio;
+        this.hedgesSent = Counter.builder("ia.hedge.sent")
+                .description("Llamadas al modelo duplicadas en otro servidor por tardar demasiado")
+                .register(meterRegistry);
+        this.hedgesWon = Counter.builder("ia.hedge.won")
+                .description("Llamadas duplicadas que respondieron antes que la original")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Registers a new call, earning its share of the hedge budget.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    /**
+     * Records the latency of a successful call.
+     *
+     * @param latencyNanos Time the call took
+     */
+    public synchronized void recordLatency(long latencyNanos) {
+        latencies[nextSample] = latencyNanos;
+        nextSample = (nextSample + 1) % WINDOW_SIZE;
+        sampleCount = Math.min(WINDOW_SIZE, sampleCount + 1);
+    }
+
+    /**
+     * Gets how long to wait before hedging a call.
+     *
+     * @return The hedging delay, or null if there is not enough latency data yet
+     */
+    public synchronized Duration hedgeDelay() {
+        if (sampleCount < MIN_SAMPLES) {
+            return null;
+        }
+        long[] sorted = Arrays.copyOf(latencies, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sampleCount) - 1;
+        Duration delay = Duration.ofNanos(sorted[Math.max(0, index)]);
+        return delay.compareTo(minDelay) < 0 ? minDelay : delay;
+    }
+
+    /**
+     * Takes one hedge from the budget.
+     *
+     * @return Whether a hedge may be sent
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        hedgesSent.increment();
+        return true;
+    }
+
+    /**
+     * Registers that a hedge answered before the call it duplicated.
+     */
+    public void onHedgeWon() {
+        hedgesWon.increment();
+    }
+}
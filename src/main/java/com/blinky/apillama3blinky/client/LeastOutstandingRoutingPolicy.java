@@ -0,0 +1,22 @@
+package com.blinky.apillama3blinky.client;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Routes each request to the backend with the fewest requests in flight,
+ * using the lowest average latency to break ties. The routing key is ignored.
+ */
+public class LeastOutstandingRoutingPolicy implements RoutingPolicy {
+
+    private static final Comparator<OllamaBackend> LEAST_LOADED = Comparator
+            .comparingInt(OllamaBackend::getInFlight)
+            .thenComparingDouble(OllamaBackend::getLatencyMillis);
+
+    @Override
+    public OllamaBackend select(List<OllamaBackend> healthyBackends, String routingKey) {
+        return healthyBackends.stream()
+                .min(LEAST_LOADED)
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,102 @@
+package com.blinky.apillama3blinky.client;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single Ollama server in the backend pool.
+ * Tracks the requests currently in flight, a moving average of the response latency
+ * and whether the server is considered healthy.
+ */
+public class OllamaBackend {
+
+    // Weight of the newest sample in the latency moving average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String url;
+    private final WebClient webClient;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile double latencyMillis;
+    private volatile boolean healthy = true;
+
+    public OllamaBackend(String url, WebClient webClient) {
+        this.url = url;
+        this.webClient = webClient;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public WebClient getWebClient() {
+        return webClient;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Registers the start of a request sent to this backend.
+     */
+    void onRequestStart() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Registers the end of a request, whatever its outcome.
+     */
+    void onRequestEnd() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Registers a successful response and folds its latency into the moving average.
+     *
+     * @param elapsedNanos Time taken by the request
+     */
+    void onRequestSuccess(long elapsedNanos) {
+        double sample = elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        latencyMillis = latencyMillis == 0 ? sample : latencyMillis + LATENCY_SMOOTHING * (sample - latencyMillis);
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Registers a failed request.
+     *
+     * @return The number of consecutive failures including this one
+     */
+    int onRequestFailure() {
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * Puts the backend back in rotation after a successful health probe.
+     */
+    void markHealthy() {
+        consecutiveFailures.set(0);
+        healthy = true;
+    }
+
+    /**
+     * Takes the backend out of rotation until a health probe succeeds.
+     */
+    void markUnhealthy() {
+        healthy = false;
+    }
+}
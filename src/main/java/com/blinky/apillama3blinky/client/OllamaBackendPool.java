@@ -0,0 +1,302 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.exception.OllamaUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Pool of Ollama servers behind the Ollama service.
+ * Each request is routed to one of the healthy backends by the configured routing policy.
+ * Backends that fail repeatedly are taken out of rotation, and periodic health probes
+ * put them back once they recover. With a {@link HedgingPolicy}, hedged single-response calls that
+ * take unusually long are duplicated on a second backend and the first successful answer wins.
+ */
+public class OllamaBackendPool {
+
+    private static final Logger log = LoggerFactory.getLogger(OllamaBackendPool.class);
+
+    // Lightweight Ollama endpoint used to check that a server is up
+    private static final String HEALTH_PROBE_PATH = "/api/version";
+
+    private final List<OllamaBackend> backends;
+    private final RoutingPolicy routingPolicy;
+    private final int maxConsecutiveFailures;
+    private final Duration probeTimeout;
+    private final HedgingPolicy hedgingPolicy;
+
+    public OllamaBackendPool(List<OllamaBackend> backends, int maxConsecutiveFailures, Duration probeTimeout) {
+        this(backends, new LeastOutstandingRoutingPolicy(), maxConsecutiveFailures, probeTimeout);
+    }
+
+    public OllamaBackendPool(List<OllamaBackend> backends, RoutingPolicy routingPolicy,
+                             int maxConsecutiveFailures, Duration probeTimeout) {
+        this(backends, routingPolicy, null, maxConsecutiveFailures, probeTimeout);
+    }
+
+    public OllamaBackendPool(List<OllamaBackend> backends, RoutingPolicy routingPolicy, HedgingPolicy hedgingPolicy,
+                             int maxConsecutiveFailures, Duration probeTimeout) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("Se necesita al menos un servidor de Ollama");
+        }
+        this.backends = List.copyOf(backends);
+        this.routingPolicy = routingPolicy;
+        this.hedgingPolicy = hedgingPolicy;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * Gets every backend in the pool, healthy or not.
+     *
+     * @return The backends in configuration order
+     */
+    public List<OllamaBackend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Selects the backend for the next request.
+     *
+     * @param routingKey Key identifying the conversation the request belongs to, or null if it has none
+     * @return The healthy backend chosen by the routing policy
+     * @throws OllamaUnavailableException if every backend has been taken out of rotation
+     */
+    public OllamaBackend select(String routingKey) {
+        List<OllamaBackend> healthyBackends = backends.stream()
+                .filter(OllamaBackend::isHealthy)
+                .toList();
+        if (healthyBackends.isEmpty()) {
+            throw new OllamaUnavailableException(
+                    "Ningún servidor de IA está disponible en este momento. Inténtalo de nuevo más tarde.");
+        }
+        return routingPolicy.select(healthyBackends, routingKey);
+    }
+
+    /**
+     * Selects a backend for a hedged copy of a request, other than the one already handling it.
+     *
+     * @param routingKey Key identifying the conversation the request belongs to, or null if it has none
+     * @param excluded   The backend handling the original request
+     * @return The backend chosen by the routing policy among the other healthy ones, or null if there is none
+     */
+    private OllamaBackend selectOther(String routingKey, OllamaBackend excluded) {
+        List<OllamaBackend> candidates = backends.stream()
+                .filter(backend -> backend.isHealthy() && backend != excluded)
+                .toList();
+        return candidates.isEmpty() ? null : routingPolicy.select(candidates, routingKey);
+    }
+
+    /**
+     * Runs a single-response call on the selected backend without hedging, tracking its load and outcome.
+     *
+     * @param routingKey Key identifying the conversation the request belongs to, or null if it has none
+     * @param call       The call to perform with the backend's WebClient
+     * @return A Mono emitting the result of the call
+     */
+    public <T> Mono<T> execute(String routingKey, Function<WebClient, Mono<T>> call) {
+        return execute(routingKey, false, call);
+    }
+
+    /**
+     * Runs a single-response call on the selected backend, tracking its load and outcome.
+     * The backend is selected when the returned Mono is subscribed to. If the call is hedged, hedging
+     * is enabled and the call is still running after the hedging delay, a copy is sent to another backend;
+     * the first successful answer is used and the other call is cancelled. The call only fails once both
+     * copies have failed, with the error of the original call.
+     * <p>
+     * Only hedged calls feed the latency the hedging delay is computed from, so quick calls such as
+     * embeddings should not be hedged.
+     *
+     * @param routingKey Key identifying the conversation the request belongs to, or null if it has none
+     * @param hedged     Whether the call may be hedged
+     * @param call       The call to perform with the backend's WebClient
+     * @return A Mono emitting the result of the call
+     */
+    public <T> Mono<T> execute(String routingKey, boolean hedged, Function<WebClient, Mono<T>> call) {
+        return Mono.defer(() -> {
+            OllamaBackend primary = select(routingKey);
+            if (!hedged || hedgingPolicy == null) {
+                return executeOn(primary, call, false);
+            }
+
+            hedgingPolicy.onRequest();
+            Duration hedgeDelay = hedgingPolicy.hedgeDelay();
+            if (hedgeDelay == null) {
+                return executeOn(primary, call, true);
+            }
+
+            // A call that fails before the hedging delay is not hedged
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            Mono<T> primaryCall = executeOn(primary, call, true)
+                    .doOnError(error -> primaryFailed.tryEmitEmpty());
+            Mono<T> hedgedCall = Mono.delay(hedgeDelay)
+                    .takeUntilOther(primaryFailed.asMono())
+                    .flatMap(tick -> {
+                        OllamaBackend secondary = selectOther(routingKey, primary);
+                        if (secondary == null || !hedgingPolicy.tryAcquireHedge()) {
+                            // No hedge this time: leave the original call on its own
+                            return Mono.<T>empty();
+                        }
+                        return executeOn(secondary, call, true)
+                                .doOnSuccess(result -> hedgingPolicy.onHedgeWon());
+                    });
+            // The first call to answer wins and the other one is cancelled; an error only ends the race
+            // once neither call can answer any more
+            return Mono.firstWithValue(primaryCall, hedgedCall)
+                    .onErrorMap(NoSuchElementException.class, OllamaBackendPool::originalError);
+        });
+    }
+
+    /**
+     * Gets the error to report when neither the original call nor its hedge answered.
+     *
+     * @param error The error raised when every call of the race failed or completed empty
+     * @return The error of the original call, or of the hedge if the original call completed empty
+     */
+    private static Throwable originalError(NoSuchElementException error) {
+        if (error.getCause() == null) {
+            return error;
+        }
+        List<Throwable> errors = Exceptions.unwrapMultiple(error.getCause());
+        return errors.isEmpty() ? error : errors.get(0);
+    }
+
+    /**
+     * Runs a single-response call on a given backend, tracking its load and outcome.
+     *
+     * @param backend       The backend to send the call to
+     * @param call          The call to perform with the backend's WebClient
+     * @param recordLatency Whether the latency of the call feeds the hedging policy
+     * @return A Mono emitting the result of the call
+     */
+    private <T> Mono<T> executeOn(OllamaBackend backend, Function<WebClient, Mono<T>> call, boolean recordLatency) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Runnable release = startRequest(backend);
+            return call.apply(backend.getWebClient())
+                    .doOnSuccess(result -> {
+                        long elapsed = System.nanoTime() - start;
+                        backend.onRequestSuccess(elapsed);
+                        if (recordLatency) {
+                            hedgingPolicy.recordLatency(elapsed);
+                        }
+                    })
+                    .doOnError(error -> onFailure(backend, error))
+                    .doOnTerminate(release)
+                    .doOnCancel(release);
+        });
+    }
+
+    /**
+     * Runs a streaming call on the selected backend, tracking its load and outcome.
+     * The latency recorded is the time until the stream completes.
+     *
+     * @param routingKey Key identifying the conversation the request belongs to, or null if it has none
+     * @param call       The call to perform with the backend's WebClient
+     * @return A Flux relaying the elements of the call
+     */
+    public <T> Flux<T> executeMany(String routingKey, Function<WebClient, Flux<T>> call) {
+        return Flux.defer(() -> {
+            OllamaBackend backend = select(routingKey);
+            long start = System.nanoTime();
+            Runnable release = startRequest(backend);
+            return call.apply(backend.getWebClient())
+                    .doOnComplete(() -> backend.onRequestSuccess(System.nanoTime() - start))
+                    .doOnError(error -> onFailure(backend, error))
+                    .doOnTerminate(release)
+                    .doOnCancel(release);
+        });
+    }
+
+    /**
+     * Registers the start of a request on a backend.
+     * The returned action frees the request slot exactly once. It runs before the result reaches
+     * the caller, so a follow-up request already sees the backend's real load.
+     *
+     * @param backend The backend the request is sent to
+     * @return The action that ends the request on the backend
+     */
+    private Runnable startRequest(OllamaBackend backend) {
+        backend.onRequestStart();
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                backend.onRequestEnd();
+            }
+        };
+    }
+
+    /**
+     * Actively probes every backend, taking failing ones out of rotation and
+     * putting recovered ones back in.
+     */
+    @Scheduled(fixedDelayString = "${ia.pool.health-check-interval:10000}")
+    public void probeBackends() {
+        Flux.fromIterable(backends)
+                .flatMap(this::probe)
+                .blockLast();
+    }
+
+    /**
+     * Probes a single backend.
+     *
+     * @param backend The backend to probe
+     * @return A Mono completing once the backend's health has been updated
+     */
+    private Mono<Void> probe(OllamaBackend backend) {
+        return backend.getWebClient().get()
+                .uri(HEALTH_PROBE_PATH)
+                .retrieve()
+                .toBodilessEntity()
+                .timeout(probeTimeout)
+                .doOnSuccess(response -> {
+                    if (!backend.isHealthy()) {
+                        log.info("Servidor de Ollama {} recuperado, vuelve a recibir peticiones", backend.getUrl());
+                    }
+                    backend.markHealthy();
+                })
+                .onErrorResume(error -> {
+                    if (backend.isHealthy()) {
+                        log.warn("Servidor de Ollama {} no responde a la comprobación de salud: {}", backend.getUrl(), error.getMessage());
+                    }
+                    backend.markUnhealthy();
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Registers a failed call and ejects the backend once it fails too many times in a row.
+     * Only connection errors and server errors count; client errors say nothing about the backend's health.
+     *
+     * @param backend The backend the call was sent to
+     * @param error   The error raised by the call
+     */
+    private void onFailure(OllamaBackend backend, Throwable error) {
+        boolean backendFault = error instanceof WebClientRequestException
+                || (error instanceof WebClientResponseException responseException
+                && responseException.getStatusCode().is5xxServerError());
+        if (!backendFault) {
+            return;
+        }
+
+        if (backend.onRequestFailure() >= maxConsecutiveFailures && backend.isHealthy()) {
+            log.warn("Servidor de Ollama {} retirado tras {} fallos consecutivos", backend.getUrl(), maxConsecutiveFailures);
+            backend.markUnhealthy();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.blinky.apillama3blinky.client;
+
+/**
+ * Describes who a call to Ollama is made for.
+ * The user key is used to share capacity fairly between users, the routing key to keep
+ * the turns of a conversation on the same Ollama server, and the workload to pick the
+ * bulkhead the call runs in.
+ *
+ * @param userKey    Key of the user the call is made for, or null for calls without a user
+ * @param routingKey Key of the conversation the call belongs to, or null if it has none
+ * @param workload   Kind of work the call does
+ */
+public record OllamaRequestContext(String userKey, String routingKey, Workload workload) {
+
+    private static final OllamaRequestContext ANONYMOUS = new OllamaRequestContext(null, null, Workload.CHAT);
+
+    /**
+     * Kinds of calls to Ollama, each with its own share of capacity so one cannot starve the other.
+     */
+    public enum Workload {
+        CHAT, EVENT, SUMMARY
+    }
+
+    /**
+     * Context for extracting an event from a user's message.
+     *
+     * @param userId The ID of the user
+     * @return The request context
+     */
+    public static OllamaRequestContext forEvent(Long userId) {
+        return new OllamaRequestContext("user-" + userId, null, Workload.EVENT);
+    }
+
+    /**
+     * Context for a turn of a user's conversation.
+     *
+     * @param userId         The ID of the user
+     * @param conversationId The ID of the conversation
+     * @return The request context
+     */
+    public static OllamaRequestContext forConversation(Long userId, Long conversationId) {
+        return new OllamaRequestContext("user-" + userId, "conversation-" + conversationId, Workload.CHAT);
+    }
+
+    /**
+     * Context for summarizing the older turns of a user's conversation in the background.
+     *
+     * @param userId         The ID of the user
+     * @param conversationId The ID of the conversation
+     * @return The request context
+     */
+    public static OllamaRequestContext forSummary(Long userId, Long conversationId) {
+        return new OllamaRequestContext("user-" + userId, "conversation-" + conversationId, Workload.SUMMARY);
+    }
+
+    /**
+     * Context for a call that is not made on behalf of any user.
+     *
+     * @return The request context
+     */
+    public static OllamaRequestContext anonymous() {
+        return ANONYMOUS;
+    }
+}
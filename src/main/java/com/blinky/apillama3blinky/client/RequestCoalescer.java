@@ -0,0 +1,73 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Merges identical calls that are in progress at the same time into a single one (singleflight).
+ * <p>
+ * The first call for a key runs and every call made with the same key before it finishes waits for
+ * it and receives the same result or error. A call cancelled by one caller keeps running for the
+ * others, and is only cancelled once every caller has gone away. Once a call finishes, the next
+ * call with its key runs again; results are not kept.
+ */
+public class RequestCoalescer {
+
+    private final ConcurrentHashMap<String, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+
+    public RequestCoalescer(MeterRegistry meterRegistry) {
+        this.coalescedCounter = Counter.builder("ia.coalescing.joined")
+                .description("Llamadas al modelo que se unieron a una llamada idéntica en curso")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a call, or joins the identical call already in progress.
+     *
+     * @param key  Key identifying identical calls; callers must make sure it covers everything the result depends on
+     * @param call Supplies the call to run if none is in progress for the key
+     * @return A Mono emitting the result of the shared call
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> execute(String key, Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            Mono<?> shared = inFlight.computeIfAbsent(key, ignored -> {
+                started.set(true);
+                return newFlight(key, call);
+            });
+            if (!started.get()) {
+                coalescedCounter.increment();
+            }
+            return (Mono<T>) shared;
+        });
+    }
+
+    /**
+     * Gets how many distinct calls are in progress.
+     *
+     * @return The number of keys with a call in progress
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private <T> Mono<T> newFlight(String key, Supplier<Mono<T>> call) {
+        AtomicReference<Mono<T>> self = new AtomicReference<>();
+        // Forget the call before its result reaches the callers, so a caller reacting to it starts a new one
+        Runnable forget = () -> inFlight.remove(key, self.get());
+        Mono<T> flight = Mono.defer(call)
+                .doOnTerminate(forget)
+                .doOnCancel(forget)
+                .share();
+        self.set(flight);
+        return flight;
+    }
+}
@@ -0,0 +1,18 @@
+package com.blinky.apillama3blinky.client;
+
+import java.util.List;
+
+/**
+ * Strategy used by the backend pool to pick the Ollama server for a request.
+ */
+public interface RoutingPolicy {
+
+    /**
+     * Chooses a backend among the healthy ones.
+     *
+     * @param healthyBackends The backends currently in rotation, in configuration order (never empty)
+     * @param routingKey      Key identifying the conversation the request belongs to, or null if it has none
+     * @return The backend the request should be sent to
+     */
+    OllamaBackend select(List<OllamaBackend> healthyBackends, String routingKey);
+}
@@ -1,20 +1,232 @@
 package com.blinky.apillama3blinky.config;
 
+import com.blinky.apillama3blinky.client.AdmissionController;
+import com.blinky.apillama3blinky.client.CircuitBreaker;
+import com.blinky.apillama3blinky.client.ConsistentHashRoutingPolicy;
+import com.blinky.apillama3blinky.client.GradientConcurrencyLimit;
+import com.blinky.apillama3blinky.client.HedgingPolicy;
+import com.blinky.apillama3blinky.client.LeastOutstandingRoutingPolicy;
+import com.blinky.apillama3blinky.client.OllamaBackend;
+import com.blinky.apillama3blinky.client.OllamaBackendPool;
+import com.blinky.apillama3blinky.client.RequestCoalescer;
+import com.blinky.apillama3blinky.client.RoutingPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
 
 @Configuration
 public class WebClientConfig {
 
-    @Value("${ia.url}")
-    private String iaUrl;
+    // Comma-separated list of Ollama servers; defaults to the single ia.url
+    @Value("${ia.urls:${ia.url}}")
+    private List<String> iaUrls;
+
+    // Time allowed to open a connection to Ollama, and to wait for each read of its response
+    @Value("${ia.http.connect-timeout:2s}")
+    private Duration connectTimeout;
+
+    @Value("${ia.http.response-timeout:2m}")
+    private Duration responseTimeout;
+
+    // Try HTTP/2 over cleartext first and fall back to HTTP/1.1 when the server does not upgrade
+    @Value("${ia.http.h2c.enabled:false}")
+    private boolean h2cEnabled;
+
+    // Connection pool towards each Ollama server: size, queue of calls waiting for a connection and eviction
+    @Value("${ia.http.pool.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${ia.http.pool.pending-acquire-max-count:100}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${ia.http.pool.pending-acquire-timeout:10s}")
+    private Duration pendingAcquireTimeout;
+
+    @Value("${ia.http.pool.max-idle-time:30s}")
+    private Duration maxIdleTime;
+
+    @Value("${ia.http.pool.max-life-time:10m}")
+    private Duration maxLifeTime;
+
+    @Value("${ia.http.pool.evict-interval:30s}")
+    private Duration evictInterval;
+
+    @Value("${ia.pool.max-consecutive-failures:3}")
+    private int maxConsecutiveFailures;
+
+    @Value("${ia.pool.health-check-timeout:2s}")
+    private Duration healthCheckTimeout;
+
+    // Either consistent-hash (keep each conversation on the same server) or least-outstanding
+    @Value("${ia.routing.policy:consistent-hash}")
+    private String routingPolicy;
+
+    @Value("${ia.routing.virtual-nodes:160}")
+    private int virtualNodes;
+
+    @Value("${ia.routing.load-factor:1.25}")
+    private double loadFactor;
+
+    // Duplicate slow calls on a second server once they exceed this percentile of recent latency
+    @Value("${ia.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${ia.hedging.percentile:0.95}")
+    private double hedgingPercentile;
+
+    @Value("${ia.hedging.min-delay:1s}")
+    private Duration hedgingMinDelay;
+
+    @Value("${ia.hedging.budget:0.05}")
+    private double hedgingBudget;
+
+    // Calls to the model allowed at once, and how many more may wait in total and per user
+    @Value("${ia.admission.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Value("${ia.admission.max-queue-size:50}")
+    private int maxQueueSize;
+
+    @Value("${ia.admission.max-queued-per-user:5}")
+    private int maxQueuedPerUser;
+
+    @Value("${ia.admission.retry-after:5s}")
+    private Duration retryAfter;
+
+    // Adjust the concurrency limit at runtime from the observed latency, within these bounds
+    @Value("${ia.admission.adaptive.enabled:true}")
+    private boolean adaptiveLimitEnabled;
+
+    @Value("${ia.admission.adaptive.min-limit:1}")
+    private int minLimit;
+
+    @Value("${ia.admission.adaptive.max-limit:32}")
+    private int maxLimit;
+
+    // Separate, fixed capacity for event extraction so it cannot take the slots of the chat
+    @Value("${ia.bulkhead.event.max-concurrency:2}")
+    private int eventMaxConcurrency;
+
+    @Value("${ia.bulkhead.event.max-queue-size:20}")
+    private int eventMaxQueueSize;
+
+    @Value("${ia.bulkhead.event.max-queued-per-user:2}")
+    private int eventMaxQueuedPerUser;
+
+    // Stop calling the model once this share of the last calls failed, and probe it again after the open duration
+    @Value("${ia.circuit-breaker.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+
+    @Value("${ia.circuit-breaker.sliding-window-size:20}")
+    private int slidingWindowSize;
+
+    @Value("${ia.circuit-breaker.minimum-calls:5}")
+    private int minimumCalls;
+
+    @Value("${ia.circuit-breaker.open-duration:30s}")
+    private Duration openDuration;
+
+    @Value("${ia.circuit-breaker.half-open-calls:2}")
+    private int halfOpenCalls;
+
+    /**
+     * Pool of connections to the Ollama servers, shared by all of them (the limits apply to each server).
+     * Its metrics, including the time spent waiting for a connection, are published under
+     * {@code reactor.netty.connection.provider.*}.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider ollamaConnectionProvider() {
+        return ConnectionProvider.builder("ollama")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                // Close idle connections before Ollama or a proxy in between does, so calls never pick a dead one
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public OllamaBackendPool ollamaBackendPool(MeterRegistry meterRegistry, ConnectionProvider ollamaConnectionProvider) {
+        List<OllamaBackend> backends = iaUrls.stream()
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new OllamaBackend(url, createWebClient(url, ollamaConnectionProvider)))
+                .toList();
+        HedgingPolicy hedgingPolicy = hedgingEnabled
+                ? new HedgingPolicy(hedgingPercentile, hedgingMinDelay, hedgingBudget, meterRegistry)
+                : null;
+        return new OllamaBackendPool(backends, routingPolicy(backends), hedgingPolicy, maxConsecutiveFailures, healthCheckTimeout);
+    }
 
     @Bean
-    public WebClient iaWebClient() {
+    public AdmissionController chatAdmissionController(MeterRegistry meterRegistry) {
+        if (adaptiveLimitEnabled) {
+            // ia.admission.max-concurrency is the starting point of the adaptive limit
+            GradientConcurrencyLimit limit = new GradientConcurrencyLimit("chat", maxConcurrency, minLimit, maxLimit, meterRegistry);
+            return new AdmissionController("chat", limit, maxQueueSize, maxQueuedPerUser, retryAfter, meterRegistry);
+        }
+        return new AdmissionController("chat", maxConcurrency, maxQueueSize, maxQueuedPerUser, retryAfter, meterRegistry);
+    }
+
+    @Bean
+    public AdmissionController eventAdmissionController(MeterRegistry meterRegistry) {
+        return new AdmissionController("event", eventMaxConcurrency, eventMaxQueueSize, eventMaxQueuedPerUser, retryAfter, meterRegistry);
+    }
+
+    @Bean
+    public CircuitBreaker ollamaCircuitBreaker(MeterRegistry meterRegistry) {
+        return new CircuitBreaker("ollama", failureRateThreshold, slidingWindowSize, minimumCalls,
+                openDuration, halfOpenCalls, meterRegistry);
+    }
+
+    @Bean
+    public RequestCoalescer requestCoalescer(MeterRegistry meterRegistry) {
+        return new RequestCoalescer(meterRegistry);
+    }
+
+    /**
+     * Creates the client for one Ollama server with explicit timeouts, so a server that is down or
+     * hung fails the call quickly instead of leaving it waiting.
+     *
+     * @param url                Base URL of the Ollama server
+     * @param connectionProvider Pool the connections to the server are taken from
+     * @return The web client
+     */
+    private WebClient createWebClient(String url, ConnectionProvider connectionProvider) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                // Detect connections silently dropped by the network while they sit in the pool
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                // Ollama only answers a non-streamed prompt once it is fully generated, so this must cover a whole generation
+                .responseTimeout(responseTimeout);
+        if (h2cEnabled) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
         return WebClient.builder()
-                .baseUrl(iaUrl)
+                .baseUrl(url)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
                 .build();
     }
+
+    private RoutingPolicy routingPolicy(List<OllamaBackend> backends) {
+        return switch (routingPolicy) {
+            case "consistent-hash" -> new ConsistentHashRoutingPolicy(backends, virtualNodes, loadFactor);
+            case "least-outstanding" -> new LeastOutstandingRoutingPolicy();
+            default -> throw new IllegalArgumentException("Política de enrutamiento desconocida: " + routingPolicy);
+        };
+    }
 }
@@ -3,6 +3,7 @@ package com.blinky.apillama3blinky.controller;
 import com.blinky.apillama3blinky.controller.dto.EventCreateDTO;
 import com.blinky.apillama3blinky.controller.dto.EventDTO;
 import com.blinky.apillama3blinky.controller.dto.EventUpdateDTO;
+import com.blinky.apillama3blinky.mapping.EventCursorMapping;
 import com.blinky.apillama3blinky.mapping.EventMapper;
 import com.blinky.apillama3blinky.model.Event;
 import com.blinky.apillama3blinky.security.JwtUtil;
@@ -10,21 +11,28 @@ import com.blinky.apillama3blinky.service.EventService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Window;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
  * Controller for event management API endpoints.
  * Provides operations for creating, retrieving, updating, and deleting events,
  * with user-specific access controls.
+ * Event listings are paginated by start time: a listing with more events sets the X-Next-Cursor header,
+ * which is passed back as the cursor parameter to get the next page.
  */
 @RestController
 @RequestMapping("/api/events")
 public class EventController {
 
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final EventService eventService;
     private final JwtUtil jwtUtil;
 
@@ -35,15 +43,27 @@ public class EventController {
     }
 
     /**
-     * Retrieves all events for the authenticated user.
+     * Retrieves a page of the events of the authenticated user.
+     * With from and to, only the events overlapping that time range are returned, as for a calendar view.
      * 
+     * @param from The start of the time range, in ISO format
+     * @param to The end of the time range, in ISO format
+     * @param cursor The cursor of the page to retrieve, from the X-Next-Cursor header of the previous page
+     * @param size The maximum number of events to return
      * @param request The HTTP request containing the JWT token for user authentication
-     * @return Response entity with a list of events belonging to the user
+     * @return Response entity with a page of events belonging to the user
      */
     @GetMapping
-    public ResponseEntity<List<EventDTO>> getAllEvents(HttpServletRequest request) {
-        List<Event> events = jwtUtil.getAllEventsForUser(request);
-        return ResponseEntity.ok(EventMapper.toDTOList(events));
+    public ResponseEntity<List<EventDTO>> getAllEvents(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            HttpServletRequest request) {
+        if (from == null && to == null) {
+            return toPageResponse(jwtUtil.getAllEventsForUser(request, cursor, size));
+        }
+        return toPageResponse(jwtUtil.getEventsInRangeForUser(request, from, to, cursor, size));
     }
 
     /**
@@ -107,28 +127,49 @@ public class EventController {
      * Searches for events by title for the authenticated user.
      * 
      * @param title The title or partial title to search for
+     * @param cursor The cursor of the page to retrieve, from the X-Next-Cursor header of the previous page
+     * @param size The maximum number of events to return
      * @param request The HTTP request containing the JWT token for user authentication
-     * @return Response entity with a list of matching events
+     * @return Response entity with a page of matching events
      */
     @GetMapping("/search")
     public ResponseEntity<List<EventDTO>> getEventsByTitle(
             @RequestParam String title,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
             HttpServletRequest request) {
-        List<Event> events = jwtUtil.getEventsByTitleForUser(request, title);
-        return ResponseEntity.ok(EventMapper.toDTOList(events));
+        return toPageResponse(jwtUtil.getEventsByTitleForUser(request, title, cursor, size));
     }
 
     /**
      * Retrieves all events for a specific user, with permission check.
      * 
      * @param userId The ID of the user whose events to retrieve
+     * @param cursor The cursor of the page to retrieve, from the X-Next-Cursor header of the previous page
+     * @param size The maximum number of events to return
      * @param request The HTTP request containing the JWT token for user authentication
-     * @return Response entity with a list of events belonging to the specified user
+     * @return Response entity with a page of events belonging to the specified user
      */
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<EventDTO>> getEventsByUserId(@PathVariable Long userId, HttpServletRequest request) {
+    public ResponseEntity<List<EventDTO>> getEventsByUserId(@PathVariable Long userId,
+                                                            @RequestParam(required = false) String cursor,
+                                                            @RequestParam(required = false) Integer size,
+                                                            HttpServletRequest request) {
         jwtUtil.checkUserEventAccessPermission(request, userId);
-        List<Event> events = eventService.getAllEventsByUserId(userId);
-        return ResponseEntity.ok(EventMapper.toDTOList(events));
+        return toPageResponse(eventService.getAllEventsByUserId(userId, cursor, size));
+    }
+
+    /**
+     * Builds the response for a page of events, with the cursor of the next page if there is one.
+     * 
+     * @param page The page of events
+     * @return Response entity with the events of the page
+     */
+    private ResponseEntity<List<EventDTO>> toPageResponse(Window<Event> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.hasNext() && !page.isEmpty()) {
+            response.header(NEXT_CURSOR_HEADER, EventCursorMapping.toCursor(page.getContent().get(page.size() - 1)));
+        }
+        return response.body(EventMapper.toDTOList(page.getContent()));
     }
 }
@@ -2,29 +2,55 @@ package com.blinky.apillama3blinky.controller;
 
 import com.blinky.apillama3blinky.controller.dto.EventDTO;
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
 import com.blinky.apillama3blinky.controller.response.PromptResponse;
+import com.blinky.apillama3blinky.exception.DeadlineExceededException;
 import com.blinky.apillama3blinky.security.JwtUtil;
 import com.blinky.apillama3blinky.service.LlamaApiService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 /**
  * Controller for the Llama AI API endpoints.
  * Provides endpoints for sending prompts to the AI model and managing conversations.
+ * Endpoints that call the AI model return reactive types, so the request thread is released
+ * while the model is generating and the response is written once the result is ready.
+ * Each of them has a deadline, configured per endpoint and optionally shortened by the client
+ * through the X-Request-Timeout header (in seconds). When the deadline passes or the client
+ * disconnects, the call to the model is cancelled.
  */
 @Controller
 @RequestMapping("/api/llama")
 public class LlamaApiController {
 
+    // Header a client can use to ask for a shorter deadline, in seconds
+    private static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+
     private final LlamaApiService llamaApiService;
     private final JwtUtil jwtUtil;
 
+    @Value("${ia.deadline.send-prompt:2m}")
+    private Duration sendPromptDeadline;
+
+    @Value("${ia.deadline.stream:4m}")
+    private Duration streamDeadline;
+
+    @Value("${ia.deadline.create-event:1m}")
+    private Duration createEventDeadline;
+
     @Autowired
     public LlamaApiController(LlamaApiService llamaApiService, JwtUtil jwtUtil) {
         this.llamaApiService = llamaApiService;
@@ -34,17 +60,44 @@ public class LlamaApiController {
     /**
      * Endpoint for sending a prompt to the AI model.
      *
-     * @param promptDTO The prompt data transfer object containing the user's message and optional personality ID
-     * @param request   The HTTP request containing the JWT token for user authentication
-     * @return A response entity containing the AI's reply
+     * @param promptDTO      The prompt data transfer object containing the user's message and optional personality ID
+     * @param timeoutSeconds Optional deadline requested by the client, in seconds
+     * @param request        The HTTP request containing the JWT token for user authentication
+     * @return A Mono emitting the response entity containing the AI's reply
      */
     @PostMapping("/send_prompt")
-    public ResponseEntity<PromptResponse> sendPrompt(@Valid @RequestBody PromptDTO promptDTO, HttpServletRequest request) {
+    public Mono<ResponseEntity<PromptResponse>> sendPrompt(@Valid @RequestBody PromptDTO promptDTO,
+                                                           @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) Long timeoutSeconds,
+                                                           HttpServletRequest request) {
         // Extract the user ID from the JWT token
         Long userId = jwtUtil.getUserIdFromRequest(request);
 
         // Process the prompt and return the AI response
-        return ResponseEntity.ok(llamaApiService.sendPrompt(promptDTO, userId));
+        return withDeadline(llamaApiService.sendPromptAsync(promptDTO, userId), resolveDeadline(sendPromptDeadline, timeoutSeconds))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Endpoint for sending a prompt to the AI model and streaming the reply as it is generated.
+     * Chunks are sent as Server-Sent Events or as newline-delimited JSON depending on the Accept header.
+     *
+     * The deadline applies to the whole stream, not to each chunk.
+     *
+     * @param promptDTO      The prompt data transfer object containing the user's message and optional personality ID
+     * @param timeoutSeconds Optional deadline requested by the client, in seconds
+     * @param request        The HTTP request containing the JWT token for user authentication
+     * @return A stream of reply chunks, the last one marked as done and carrying the complete reply
+     */
+    @PostMapping(value = "/send_prompt/stream",
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<PromptChunkResponse> streamPrompt(@Valid @RequestBody PromptDTO promptDTO,
+                                                  @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) Long timeoutSeconds,
+                                                  HttpServletRequest request) {
+        // Extract the user ID from the JWT token
+        Long userId = jwtUtil.getUserIdFromRequest(request);
+
+        // Process the prompt and relay the AI response chunks
+        return withDeadline(llamaApiService.streamPrompt(promptDTO, userId), resolveDeadline(streamDeadline, timeoutSeconds));
     }
 
     /**
@@ -67,19 +120,21 @@ public class LlamaApiController {
      * Endpoint for creating an event using AI.
      * The AI will generate event details based on the user's prompt.
      *
-     * @param promptDTO The prompt data transfer object containing the user's message
-     * @param request   The HTTP request containing the JWT token for user authentication
-     * @return A response entity containing the created event's details
+     * @param promptDTO      The prompt data transfer object containing the user's message
+     * @param timeoutSeconds Optional deadline requested by the client, in seconds
+     * @param request        The HTTP request containing the JWT token for user authentication
+     * @return A Mono emitting the response entity containing the created event's details
      */
     @PostMapping("/create_event")
-    public ResponseEntity<EventDTO> createEventWithAI(@Valid @RequestBody PromptDTO promptDTO, HttpServletRequest request) {
+    public Mono<ResponseEntity<EventDTO>> createEventWithAI(@Valid @RequestBody PromptDTO promptDTO,
+                                                  @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) Long timeoutSeconds,
+                                                  HttpServletRequest request) {
         // Extract the user ID from the JWT token
         Long userId = jwtUtil.getUserIdFromRequest(request);
 
         // Process the prompt and create an event
-        EventDTO createdEvent = llamaApiService.createEventWithAI(promptDTO, userId);
-
-        return ResponseEntity.ok(createdEvent);
+        return withDeadline(llamaApiService.createEventWithAIAsync(promptDTO, userId), resolveDeadline(createEventDeadline, timeoutSeconds))
+                .map(ResponseEntity::ok);
     }
 
     /**
@@ -87,18 +142,59 @@ public class LlamaApiController {
      * The AI will generate event details based on the user's prompt,
      * ensuring that the event is scheduled in the future.
      *
-     * @param promptDTO The prompt data transfer object containing the user's message
-     * @param request   The HTTP request containing the JWT token for user authentication
-     * @return A response entity containing the created event's details
+     * @param promptDTO      The prompt data transfer object containing the user's message
+     * @param timeoutSeconds Optional deadline requested by the client, in seconds
+     * @param request        The HTTP request containing the JWT token for user authentication
+     * @return A Mono emitting the response entity containing the created event's details
      */
     @PostMapping("/create_future_event")
-    public ResponseEntity<EventDTO> createFutureEventWithAI(@Valid @RequestBody PromptDTO promptDTO, HttpServletRequest request) {
+    public Mono<ResponseEntity<EventDTO>> createFutureEventWithAI(@Valid @RequestBody PromptDTO promptDTO,
+                                                  @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) Long timeoutSeconds,
+                                                  HttpServletRequest request) {
         // Extract the user ID from the JWT token
         Long userId = jwtUtil.getUserIdFromRequest(request);
 
         // Process the prompt and create a future event
-        EventDTO createdEvent = llamaApiService.createFutureEventWithAI(promptDTO, userId);
+        return withDeadline(llamaApiService.createFutureEventWithAIAsync(promptDTO, userId), resolveDeadline(createEventDeadline, timeoutSeconds))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Determines the deadline of a request. Clients may ask for a shorter deadline than the endpoint's, never a longer one.
+     *
+     * @param endpointDeadline The deadline configured for the endpoint
+     * @param timeoutSeconds   The deadline requested by the client in seconds, or null if none
+     * @return The deadline to apply
+     */
+    private Duration resolveDeadline(Duration endpointDeadline, Long timeoutSeconds) {
+        if (timeoutSeconds == null || timeoutSeconds <= 0) {
+            return endpointDeadline;
+        }
+        Duration requested = Duration.ofSeconds(timeoutSeconds);
+        return requested.compareTo(endpointDeadline) < 0 ? requested : endpointDeadline;
+    }
+
+    /**
+     * Fails a single-response call with a DeadlineExceededException once the deadline passes.
+     * The timeout cancels the call, which in turn cancels the request to the model.
+     */
+    private <T> Mono<T> withDeadline(Mono<T> call, Duration deadline) {
+        return call.timeout(deadline, Mono.error(() -> deadlineExceeded(deadline)));
+    }
+
+    /**
+     * Fails a stream with a DeadlineExceededException if it has not finished once the deadline passes.
+     * The same timer, started on subscription, bounds the first chunk and every following one.
+     */
+    private <T> Flux<T> withDeadline(Flux<T> call, Duration deadline) {
+        return Flux.defer(() -> {
+            Mono<Long> timer = Mono.delay(deadline).cache();
+            return call.timeout(timer, chunk -> timer, Flux.error(() -> deadlineExceeded(deadline)));
+        });
+    }
 
-        return ResponseEntity.ok(createdEvent);
+    private DeadlineExceededException deadlineExceeded(Duration deadline) {
+        return new DeadlineExceededException(
+                "La IA no ha respondido en el tiempo máximo de " + deadline.toSeconds() + " segundos. Inténtalo de nuevo.");
     }
 }
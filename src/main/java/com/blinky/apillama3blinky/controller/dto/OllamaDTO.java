@@ -1,5 +1,6 @@
 package com.blinky.apillama3blinky.controller.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
@@ -25,6 +26,10 @@ public class OllamaDTO {
     @Positive(message = "El número de predicciones debe ser positivo")
     private int numPredict;
 
+    // Tokens returned by a previous generation, so Ollama can continue from it without re-evaluating the history
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private int[] context;
+
     public OllamaDTO(String model, String prompt, boolean stream) {
         this.model = model;
         this.prompt = prompt;
@@ -91,4 +96,12 @@ public class OllamaDTO {
     public void setNumPredict(int numPredict) {
         this.numPredict = numPredict;
     }
+
+    public int[] getContext() {
+        return context;
+    }
+
+    public void setContext(int[] context) {
+        this.context = context;
+    }
 }
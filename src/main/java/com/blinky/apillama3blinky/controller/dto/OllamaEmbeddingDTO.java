@@ -0,0 +1,30 @@
+package com.blinky.apillama3blinky.controller.dto;
+
+/**
+ * Request body of the Ollama embeddings endpoint.
+ */
+public class OllamaEmbeddingDTO {
+    private String model;
+    private String prompt;
+
+    public OllamaEmbeddingDTO(String model, String prompt) {
+        this.model = model;
+        this.prompt = prompt;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public void setPrompt(String prompt) {
+        this.prompt = prompt;
+    }
+}
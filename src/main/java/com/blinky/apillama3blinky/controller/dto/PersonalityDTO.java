@@ -17,6 +17,11 @@ public class PersonalityDTO {
     @Size(max = 1000, message = "La descripción no puede exceder los 1000 caracteres")
     private String description;
 
+    @Size(max = 1000, message = "La respuesta de reserva no puede exceder los 1000 caracteres")
+    private String fallbackReply;
+
+    private boolean responseCacheEnabled;
+
     // Default constructor
     public PersonalityDTO() {
     }
@@ -68,4 +73,20 @@ public class PersonalityDTO {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public String getFallbackReply() {
+        return fallbackReply;
+    }
+
+    public void setFallbackReply(String fallbackReply) {
+        this.fallbackReply = fallbackReply;
+    }
+
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
 }
\ No newline at end of file
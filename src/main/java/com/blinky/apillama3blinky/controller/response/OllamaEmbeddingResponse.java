@@ -0,0 +1,23 @@
+package com.blinky.apillama3blinky.controller.response;
+
+/**
+ * Response of the Ollama embeddings endpoint.
+ */
+public class OllamaEmbeddingResponse {
+    private float[] embedding;
+
+    public OllamaEmbeddingResponse() {
+    }
+
+    public OllamaEmbeddingResponse(float[] embedding) {
+        this.embedding = embedding;
+    }
+
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(float[] embedding) {
+        this.embedding = embedding;
+    }
+}
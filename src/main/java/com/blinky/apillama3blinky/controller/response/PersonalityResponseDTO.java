@@ -10,6 +10,10 @@ public class PersonalityResponseDTO {
     private String basePrompt;
     private String description;
 
+    private String fallbackReply;
+
+    private boolean responseCacheEnabled;
+
     // Default constructor
     public PersonalityResponseDTO() {
     }
@@ -54,4 +58,20 @@ public class PersonalityResponseDTO {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public String getFallbackReply() {
+        return fallbackReply;
+    }
+
+    public void setFallbackReply(String fallbackReply) {
+        this.fallbackReply = fallbackReply;
+    }
+
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
 }
\ No newline at end of file
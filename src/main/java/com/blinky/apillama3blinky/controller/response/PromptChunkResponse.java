@@ -0,0 +1,59 @@
+package com.blinky.apillama3blinky.controller.response;
+
+/**
+ * Response object for a single fragment of a streamed AI reply.
+ * Intermediate chunks only carry the generated token; the final chunk is marked as done
+ * and also carries the complete cleaned response and its reaction.
+ */
+public class PromptChunkResponse {
+    private String token;
+    private boolean done;
+    private String response;
+    private String reaction;
+
+    public PromptChunkResponse() {
+    }
+
+    public PromptChunkResponse(String token) {
+        this.token = token;
+    }
+
+    public PromptChunkResponse(String token, boolean done, String response, String reaction) {
+        this.token = token;
+        this.done = done;
+        this.response = response;
+        this.reaction = reaction;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone(boolean done) {
+        this.done = done;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    public String getReaction() {
+        return reaction;
+    }
+
+    public void setReaction(String reaction) {
+        this.reaction = reaction;
+    }
+}
@@ -0,0 +1,11 @@
+package com.blinky.apillama3blinky.exception;
+
+/**
+ * Exception thrown when a call to the AI model is refused straight away because recent calls kept failing.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
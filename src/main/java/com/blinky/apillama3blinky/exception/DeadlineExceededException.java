@@ -0,0 +1,11 @@
+package com.blinky.apillama3blinky.exception;
+
+/**
+ * Exception thrown when the AI model does not answer before the request's deadline.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
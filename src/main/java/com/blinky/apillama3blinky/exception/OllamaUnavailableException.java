@@ -0,0 +1,15 @@
+package com.blinky.apillama3blinky.exception;
+
+/**
+ * Exception thrown when no Ollama server is available to handle a request.
+ */
+public class OllamaUnavailableException extends RuntimeException {
+
+    public OllamaUnavailableException(String message) {
+        super(message);
+    }
+
+    public OllamaUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
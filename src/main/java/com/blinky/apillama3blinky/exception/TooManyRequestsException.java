@@ -0,0 +1,23 @@
+package com.blinky.apillama3blinky.exception;
+
+/**
+ * Exception thrown when a request is rejected because the AI model is already handling as much work as it can queue.
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Gets how long the client should wait before trying again.
+     *
+     * @return The suggested wait in seconds
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
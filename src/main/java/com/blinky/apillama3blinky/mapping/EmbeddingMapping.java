@@ -0,0 +1,38 @@
+package com.blinky.apillama3blinky.mapping;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Utility class for converting embedding vectors to and from bytes, four little-endian bytes per component.
+ */
+public class EmbeddingMapping {
+
+    /**
+     * Packs an embedding vector into bytes.
+     *
+     * @param vector The embedding vector
+     * @return The packed vector
+     */
+    public static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    /**
+     * Unpacks bytes into an embedding vector.
+     *
+     * @param bytes The bytes produced by {@link #toBytes(float[])}
+     * @return The embedding vector
+     * @throws IllegalArgumentException if the bytes do not hold a whole number of components
+     */
+    public static float[] toVector(byte[] bytes) {
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("Embedding truncado");
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
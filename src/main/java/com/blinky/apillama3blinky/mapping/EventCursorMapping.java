@@ -0,0 +1,58 @@
+package com.blinky.apillama3blinky.mapping;
+
+import com.blinky.apillama3blinky.model.Event;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility class for converting event listing cursors to and from keyset scroll positions.
+ * A cursor is the start time and ID of the last event of a page, encoded as URL-safe Base64.
+ */
+public class EventCursorMapping {
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * Builds the cursor that continues a listing after the given event.
+     *
+     * @param event The last event of a page
+     * @return The cursor of the next page
+     */
+    public static String toCursor(Event event) {
+        String keys = event.getStartTime() + SEPARATOR + event.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(keys.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a cursor into the scroll position right after the event it points to.
+     *
+     * @param cursor The cursor produced by {@link #toCursor(Event)}, or null for the first page
+     * @return The keyset scroll position on start time and ID
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static KeysetScrollPosition toScrollPosition(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return ScrollPosition.keyset();
+        }
+        try {
+            String keys = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = keys.indexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Cursor sin separador");
+            }
+            Map<String, Object> position = new LinkedHashMap<>();
+            position.put("startTime", LocalDateTime.parse(keys.substring(0, separator)));
+            position.put("id", Long.valueOf(keys.substring(separator + 1)));
+            return ScrollPosition.forward(position);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Cursor con fecha no válida", e);
+        }
+    }
+}
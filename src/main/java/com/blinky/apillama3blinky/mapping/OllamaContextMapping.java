@@ -0,0 +1,63 @@
+package com.blinky.apillama3blinky.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Utility class for converting Ollama context tokens to and from a compact binary form.
+ * Tokens are stored as unsigned LEB128 varints, so most token ids take two or three bytes
+ * instead of the four of an int or the several characters of their JSON representation.
+ */
+public class OllamaContextMapping {
+
+    /**
+     * Packs a list of context tokens into bytes.
+     *
+     * @param tokens The context tokens returned by the Ollama API
+     * @return The varint-encoded tokens
+     */
+    public static byte[] toBytes(List<Integer> tokens) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(tokens.size() * 3);
+        for (Integer token : tokens) {
+            int value = token;
+            // Write 7 bits at a time, setting the high bit while more bytes follow
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Unpacks varint-encoded bytes into context tokens.
+     *
+     * @param bytes The bytes produced by {@link #toBytes(List)}
+     * @return The context tokens, ready to be sent back to the Ollama API
+     * @throws IllegalArgumentException if the bytes end in the middle of a token
+     */
+    public static int[] toTokens(byte[] bytes) {
+        int[] tokens = new int[bytes.length];
+        int count = 0;
+        int value = 0;
+        int shift = 0;
+
+        for (byte b : bytes) {
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                tokens[count++] = value;
+                value = 0;
+                shift = 0;
+            } else {
+                shift += 7;
+            }
+        }
+
+        if (shift != 0) {
+            throw new IllegalArgumentException("Contexto de Ollama truncado");
+        }
+        return Arrays.copyOf(tokens, count);
+    }
+}
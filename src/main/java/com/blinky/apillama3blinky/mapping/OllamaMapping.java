@@ -3,12 +3,42 @@ package com.blinky.apillama3blinky.mapping;
 import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
 public class OllamaMapping {
     public static OllamaDTO toOllamaDTO(PromptDTO promptDTO, String model) {
+        return toOllamaDTO(promptDTO, model, false);
+    }
+
+    public static OllamaDTO toOllamaDTO(PromptDTO promptDTO, String model, boolean stream) {
         return new OllamaDTO(
                 model,
                 promptDTO.getPrompt(),
-                false
+                stream
         );
     }
+
+    /**
+     * Computes a fingerprint of everything in a request that determines the model's reply:
+     * the model, the prompt, the generation options and the context to continue from.
+     * Whether the reply is streamed is left out.
+     *
+     * @param ollamaDTO The request to the model
+     * @return The SHA-256 of the request, in hexadecimal
+     */
+    public static String fingerprint(OllamaDTO ollamaDTO) {
+        String material = ollamaDTO.getModel() + '\u0000' + ollamaDTO.getPrompt() + '\u0000'
+                + ollamaDTO.getTemperature() + '\u0000' + ollamaDTO.getTopP() + '\u0000' + ollamaDTO.getNumPredict()
+                + '\u0000' + Arrays.toString(ollamaDTO.getContext());
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(material.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no está disponible", e);
+        }
+    }
 }
@@ -14,12 +14,15 @@ public class PersonalityMapper {
             return null;
         }
 
-        return new PersonalityDTO(
+        PersonalityDTO personalityDTO = new PersonalityDTO(
                 personality.getId(),
                 personality.getName(),
                 personality.getBasePrompt(),
                 personality.getDescription()
         );
+        personalityDTO.setFallbackReply(personality.getFallbackReply());
+        personalityDTO.setResponseCacheEnabled(personality.isResponseCacheEnabled());
+        return personalityDTO;
     }
 
     public static List<PersonalityDTO> toDTOList(List<Personality> personalities) {
@@ -33,11 +36,14 @@ public class PersonalityMapper {
             return null;
         }
 
-        return new Personality(
+        Personality personality = new Personality(
                 personalityDTO.getName(),
                 personalityDTO.getBasePrompt(),
                 personalityDTO.getDescription()
         );
+        personality.setFallbackReply(personalityDTO.getFallbackReply());
+        personality.setResponseCacheEnabled(personalityDTO.isResponseCacheEnabled());
+        return personality;
     }
 
     public static PersonalityResponseDTO toResponseDTO(Personality personality) {
@@ -45,12 +51,15 @@ public class PersonalityMapper {
             return null;
         }
 
-        return new PersonalityResponseDTO(
+        PersonalityResponseDTO responseDTO = new PersonalityResponseDTO(
                 personality.getId(),
                 personality.getName(),
                 personality.getBasePrompt(),
                 personality.getDescription()
         );
+        responseDTO.setFallbackReply(personality.getFallbackReply());
+        responseDTO.setResponseCacheEnabled(personality.isResponseCacheEnabled());
+        return responseDTO;
     }
 
     public static List<PersonalityResponseDTO> toResponseDTOList(List<Personality> personalities) {
@@ -67,6 +76,8 @@ public class PersonalityMapper {
         personality.setName(personalityDTO.getName());
         personality.setBasePrompt(personalityDTO.getBasePrompt());
         personality.setDescription(personalityDTO.getDescription());
+        personality.setFallbackReply(personalityDTO.getFallbackReply());
+        personality.setResponseCacheEnabled(personalityDTO.isResponseCacheEnabled());
 
         return personality;
     }
@@ -1,6 +1,7 @@
 package com.blinky.apillama3blinky.mapping;
 
 import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
 import com.blinky.apillama3blinky.controller.response.PromptResponse;
 
 import java.util.regex.Matcher;
@@ -51,4 +52,38 @@ public class PromptMapping {
 
         return new PromptResponse(cleanedResponse, reaction);
     }
+
+    /**
+     * Maps an intermediate streamed Ollama chunk to a chunk response carrying only the generated token.
+     *
+     * @param ollamaChunk The partial Ollama API response
+     * @return A new PromptChunkResponse with the raw token
+     */
+    public static PromptChunkResponse mapToChunk(OllamaResponse ollamaChunk) {
+        return new PromptChunkResponse(ollamaChunk.getResponse());
+    }
+
+    /**
+     * Builds the final chunk of a streamed reply from the accumulated text,
+     * applying the same cleaning and reaction extraction as {@link #mapToResponse(OllamaResponse)}.
+     *
+     * @param lastChunk    The done chunk received from the Ollama API
+     * @param fullResponse The concatenation of every token received in the stream
+     * @return A PromptChunkResponse marked as done with the cleaned response and reaction
+     */
+    public static PromptChunkResponse mapToFinalChunk(OllamaResponse lastChunk, String fullResponse) {
+        PromptResponse promptResponse = mapToResponse(new OllamaResponse(
+                lastChunk.getModel(),
+                lastChunk.getCreated_at(),
+                fullResponse,
+                true,
+                lastChunk.getDone_reason(),
+                lastChunk.getContext()));
+
+        return new PromptChunkResponse(
+                lastChunk.getResponse(),
+                true,
+                promptResponse.getResponse(),
+                promptResponse.getReaction());
+    }
 }
@@ -7,7 +7,8 @@ import java.time.LocalDateTime;
 public class AIResponse {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ai_response_seq")
+    @SequenceGenerator(name = "ai_response_seq", sequenceName = "ai_response_seq", allocationSize = 50)
     private Long id;
 
     @Column(columnDefinition = "TEXT")
@@ -27,6 +28,10 @@ public class AIResponse {
     @JoinColumn(name = "personality_id")
     private Personality personality;
 
+    // Generation was cancelled before it finished; the content holds whatever had been generated
+    @Column(nullable = false)
+    private boolean aborted;
+
     public AIResponse() {
     }
 
@@ -79,4 +84,12 @@ public class AIResponse {
     public void setPersonality(Personality personality) {
         this.personality = personality;
     }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public void setAborted(boolean aborted) {
+        this.aborted = aborted;
+    }
 }
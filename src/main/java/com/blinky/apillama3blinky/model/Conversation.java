@@ -10,24 +10,43 @@ import java.util.List;
 public class Conversation {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversation_seq")
+    @SequenceGenerator(name = "conversation_seq", sequenceName = "conversation_seq", allocationSize = 50)
     private Long id;
 
     private String title;
 
     private LocalDateTime createdAt = LocalDateTime.now();
 
+    // Ollama context of the last generation, packed as varint-encoded tokens
+    @Column(name = "llm_context", length = 1048576)
+    private byte[] llmContext;
+
+    // Identifies the model and personality the stored context was generated with
+    @Column(name = "llm_context_key")
+    private Integer llmContextKey;
+
+    // Rolling summary of the older turns, written by the model in the background
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    // Last user message whose turn is included in the summary
+    @Column(name = "summarized_up_to_message_id")
+    private Long summarizedUpToMessageId;
+
     @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", unique = true)
     private User user;
 
 
+    // Turns are appended by saving the message and the response on their own, never through these lists,
+    // so adding a turn is a single insert; the lists are only read, and cleared along with the conversation
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
-    @OrderColumn(name = "message_order")
+    @OrderBy("seq")
     private List<UserMessage> userMessages = new ArrayList<>();
 
+    // Responses are paired with their messages by ConversationHistory, so they need no order of their own
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
-    @OrderColumn(name = "response_order")
     private List<AIResponse> aiResponses = new ArrayList<>();
 
     public Conversation() {
@@ -54,6 +73,38 @@ public class Conversation {
         return createdAt;
     }
 
+    public byte[] getLlmContext() {
+        return llmContext;
+    }
+
+    public void setLlmContext(byte[] llmContext) {
+        this.llmContext = llmContext;
+    }
+
+    public Integer getLlmContextKey() {
+        return llmContextKey;
+    }
+
+    public void setLlmContextKey(Integer llmContextKey) {
+        this.llmContextKey = llmContextKey;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public Long getSummarizedUpToMessageId() {
+        return summarizedUpToMessageId;
+    }
+
+    public void setSummarizedUpToMessageId(Long summarizedUpToMessageId) {
+        this.summarizedUpToMessageId = summarizedUpToMessageId;
+    }
+
     public User getUser() {
         return user;
     }
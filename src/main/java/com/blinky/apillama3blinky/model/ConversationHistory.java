@@ -0,0 +1,103 @@
+package com.blinky.apillama3blinky.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The turns of a conversation in order, each user message paired with its AI response.
+ * <p>
+ * The responses are indexed by user message once, when the history is built from a loaded conversation,
+ * so going through the turns costs the same whatever the length of the conversation. The history is a
+ * snapshot: turns added to the conversation afterwards are not included.
+ */
+public class ConversationHistory {
+
+    private final List<Turn> turns;
+    // Index of the first turn not included in the conversation's summary
+    private final int firstUnsummarized;
+
+    private ConversationHistory(List<Turn> turns, int firstUnsummarized) {
+        this.turns = turns;
+        this.firstUnsummarized = firstUnsummarized;
+    }
+
+    /**
+     * Builds the history of a conversation.
+     *
+     * @param conversation The conversation, with its messages and responses loaded
+     * @return The history of the conversation
+     */
+    public static ConversationHistory of(Conversation conversation) {
+        Map<Long, AIResponse> responsesByMessageId = new HashMap<>(conversation.getAiResponses().size() * 2);
+        for (AIResponse response : conversation.getAiResponses()) {
+            if (response.getUserMessage() != null) {
+                responsesByMessageId.put(response.getUserMessage().getId(), response);
+            }
+        }
+
+        List<UserMessage> userMessages = conversation.getUserMessages();
+        List<Turn> turns = new ArrayList<>(userMessages.size());
+        for (UserMessage userMessage : userMessages) {
+            turns.add(new Turn(userMessage, responsesByMessageId.get(userMessage.getId())));
+        }
+        return ofTurns(turns, conversation.getSummarizedUpToMessageId());
+    }
+
+    /**
+     * Builds a history from turns that are already paired, such as the most recent turns loaded on their own.
+     *
+     * @param turns                   The turns, oldest first
+     * @param summarizedUpToMessageId Last user message included in the conversation's summary, if any;
+     *                                when it is older than the given turns, all of them come after the summary
+     * @return The history of the turns
+     */
+    public static ConversationHistory ofTurns(List<Turn> turns, Long summarizedUpToMessageId) {
+        int firstUnsummarized = 0;
+        for (int i = 0; i < turns.size(); i++) {
+            Long messageId = turns.get(i).userMessage().getId();
+            if (messageId != null && messageId.equals(summarizedUpToMessageId)) {
+                firstUnsummarized = i + 1;
+            }
+        }
+        return new ConversationHistory(turns, firstUnsummarized);
+    }
+
+    /**
+     * @return Every turn of the conversation, oldest first
+     */
+    public List<Turn> getTurns() {
+        return turns;
+    }
+
+    /**
+     * @return The turns that come after the conversation's summary, oldest first; every turn if it has no summary
+     */
+    public List<Turn> getTurnsAfterSummary() {
+        return turns.subList(firstUnsummarized, turns.size());
+    }
+
+    /**
+     * A user message and the AI response to it.
+     *
+     * @param userMessage The user message
+     * @param response    The AI response, or null if it has not been stored yet
+     */
+    public record Turn(UserMessage userMessage, AIResponse response) {
+
+        /**
+         * @return Whether the generation of the response was cancelled before it finished
+         */
+        public boolean isAborted() {
+            return response != null && response.isAborted();
+        }
+
+        /**
+         * @return Whether the turn has a complete AI response
+         */
+        public boolean isAnswered() {
+            return response != null && !response.isAborted();
+        }
+    }
+}
@@ -4,11 +4,15 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "events")
+@Table(name = "events", indexes = {
+        @Index(name = "idx_events_start_time_id", columnList = "start_time, id"),
+        @Index(name = "idx_events_user_start_time_id_end_time", columnList = "user_id, start_time, id, end_time")
+})
 public class Event {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "events_seq")
+    @SequenceGenerator(name = "events_seq", sequenceName = "events_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -24,6 +28,11 @@ public class Event {
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
 
+    // Read-only view of the owner's foreign key, so queries by user filter on events.user_id
+    // instead of joining the users table
+    @Column(name = "user_id", insertable = false, updatable = false)
+    private Long userId;
+
     @Column
     private String location;
 
@@ -0,0 +1,82 @@
+package com.blinky.apillama3blinky.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+/**
+ * Embedding of a past exchange of a user with the AI, used to bring relevant old turns back into the prompt.
+ */
+@Entity
+@Table(name = "message_embedding", indexes = @Index(name = "idx_message_embedding_user", columnList = "user_id"))
+public class MessageEmbedding {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "message_embedding_seq")
+    @SequenceGenerator(name = "message_embedding_seq", sequenceName = "message_embedding_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    // Deleted along with its message, so clearing a conversation also clears what the AI remembers of it
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_message_id", nullable = false, unique = true)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private UserMessage userMessage;
+
+    // Embedding model the vector was computed with
+    @Column(nullable = false)
+    private String model;
+
+    // The exchange as it is added to the prompt
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    // Vector components packed as little-endian floats
+    @Column(nullable = false, length = 65536)
+    private byte[] vector;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    public MessageEmbedding() {
+    }
+
+    public MessageEmbedding(Long userId, UserMessage userMessage, String model, String content, byte[] vector) {
+        this.userId = userId;
+        this.userMessage = userMessage;
+        this.model = model;
+        this.content = content;
+        this.vector = vector;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public UserMessage getUserMessage() {
+        return userMessage;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public byte[] getVector() {
+        return vector;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
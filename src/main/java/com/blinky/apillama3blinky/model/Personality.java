@@ -7,7 +7,8 @@ import jakarta.persistence.*;
 public class Personality {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "personalities_seq")
+    @SequenceGenerator(name = "personalities_seq", sequenceName = "personalities_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -19,6 +20,14 @@ public class Personality {
     @Column(nullable = false)
     private String description;
 
+    // Canned reply given while the AI model is unavailable; a default one is used if empty
+    @Column(columnDefinition = "TEXT")
+    private String fallbackReply;
+
+    // Whether identical prompts to this personality may be answered from the response cache
+    @Column(nullable = false)
+    private boolean responseCacheEnabled;
+
     // Default constructor
     public Personality() {
     }
@@ -58,4 +67,20 @@ public class Personality {
     public void setDescription(String description) {
         this.description = description;
     }
+
+    public String getFallbackReply() {
+        return fallbackReply;
+    }
+
+    public void setFallbackReply(String fallbackReply) {
+        this.fallbackReply = fallbackReply;
+    }
+
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
 }
\ No newline at end of file
@@ -4,10 +4,13 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
+// Orders the turns of a conversation and serves the most recent ones without reading the rest of it
+@Table(indexes = @Index(name = "idx_user_message_conversation_seq", columnList = "conversation_id, seq", unique = true))
 public class UserMessage {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_message_seq")
+    @SequenceGenerator(name = "user_message_seq", sequenceName = "user_message_seq", allocationSize = 50)
     private Long id;
 
     @Column(columnDefinition = "TEXT")
@@ -15,6 +18,10 @@ public class UserMessage {
 
     private LocalDateTime createdAt = LocalDateTime.now();
 
+    // Position of the turn in its conversation; turns are only ever appended, so it never changes
+    @Column(nullable = false)
+    private int seq;
+
     @ManyToOne
     @JoinColumn(name = "conversation_id")
     private Conversation conversation;
@@ -43,6 +50,14 @@ public class UserMessage {
         return createdAt;
     }
 
+    public int getSeq() {
+        return seq;
+    }
+
+    public void setSeq(int seq) {
+        this.seq = seq;
+    }
+
     public Conversation getConversation() {
         return conversation;
     }
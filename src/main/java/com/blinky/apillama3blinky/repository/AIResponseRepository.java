@@ -2,6 +2,9 @@ package com.blinky.apillama3blinky.repository;
 
 import com.blinky.apillama3blinky.model.AIResponse;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -9,4 +12,14 @@ import java.util.Optional;
 @Repository
 public interface AIResponseRepository extends JpaRepository<AIResponse, Long> {
     Optional<AIResponse> findByUserMessageId(Long userMessageId);
+
+    /**
+     * Deletes every AI response of a conversation in a single statement, without loading them.
+     *
+     * @param convId the conversation ID
+     * @return the number of deleted responses
+     */
+    @Modifying
+    @Query("DELETE FROM AIResponse ar WHERE ar.conversation.id = :convId")
+    int deleteByConversationId(@Param("convId") Long convId);
 }
\ No newline at end of file
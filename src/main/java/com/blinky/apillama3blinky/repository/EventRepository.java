@@ -1,22 +1,45 @@
 package com.blinky.apillama3blinky.repository;
 
 import com.blinky.apillama3blinky.model.Event;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
+/**
+ * Event listings are read by keyset on (start time, ID): each page continues strictly after the last event
+ * of the previous one, so no page has to skip over the rows before it.
+ */
 @Repository
 public interface EventRepository extends JpaRepository<Event, Long> {
-    List<Event> findByUserId(Long userId);
+    Window<Event> findAllByOrderByStartTimeAscIdAsc(ScrollPosition position, Limit limit);
 
-    @Query("SELECT e FROM Event e WHERE e.user.id = :userId AND LOWER(e.title) LIKE LOWER(CONCAT('%', :title, '%'))")
-    List<Event> findByUserIdAndTitleContainingIgnoreCase(
-            @Param("userId") Long userId,
-            @Param("title") String title);
+    Window<Event> findByUserIdOrderByStartTimeAscIdAsc(Long userId, ScrollPosition position, Limit limit);
 
-    @Query("SELECT e FROM Event e WHERE LOWER(e.title) LIKE LOWER(CONCAT('%', :title, '%'))")
-    List<Event> findByTitleContainingIgnoreCase(@Param("title") String title);
+    Window<Event> findByUserIdAndTitleContainingIgnoreCaseOrderByStartTimeAscIdAsc(
+            Long userId, String title, ScrollPosition position, Limit limit);
+
+    Window<Event> findByTitleContainingIgnoreCaseOrderByStartTimeAscIdAsc(
+            String title, ScrollPosition position, Limit limit);
+
+    /**
+     * Finds the events of a user overlapping a time range: those starting before its end and ending after its start.
+     * Served by the (user_id, start_time, id, end_time) index, which only reads the user's events starting before
+     * the end, already in page order, and checks their end time in the index.
+     *
+     * @param userId   the user ID
+     * @param to       the end of the range
+     * @param from     the start of the range
+     * @param position the position after the last event of the previous page
+     * @param limit    the page size
+     * @return the page of overlapping events, ordered by start time
+     */
+    Window<Event> findByUserIdAndStartTimeLessThanAndEndTimeGreaterThanOrderByStartTimeAscIdAsc(
+            Long userId, LocalDateTime to, LocalDateTime from, ScrollPosition position, Limit limit);
+
+    Window<Event> findByStartTimeLessThanAndEndTimeGreaterThanOrderByStartTimeAscIdAsc(
+            LocalDateTime to, LocalDateTime from, ScrollPosition position, Limit limit);
 }
@@ -0,0 +1,35 @@
+package com.blinky.apillama3blinky.repository;
+
+import com.blinky.apillama3blinky.model.MessageEmbedding;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface MessageEmbeddingRepository extends JpaRepository<MessageEmbedding, Long> {
+
+    /**
+     * Finds the stored memory of a user for one embedding model, as plain rows without the messages.
+     *
+     * @param userId the user ID
+     * @param model  the embedding model
+     * @return the user message ID, content and vector of each embedding, oldest first
+     */
+    @Query("SELECT me.userMessage.id AS userMessageId, me.content AS content, me.vector AS vector " +
+           "FROM MessageEmbedding me WHERE me.userId = :userId AND me.model = :model ORDER BY me.id")
+    List<StoredMemory> findByUserIdAndModel(@Param("userId") Long userId, @Param("model") String model);
+
+    /**
+     * Projection of a stored embedding.
+     */
+    interface StoredMemory {
+        Long getUserMessageId();
+
+        String getContent();
+
+        byte[] getVector();
+    }
+}
@@ -1,9 +1,43 @@
 package com.blinky.apillama3blinky.repository;
 
+import com.blinky.apillama3blinky.model.ConversationHistory;
 import com.blinky.apillama3blinky.model.UserMessage;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface UserMessageRepository extends JpaRepository<UserMessage, Long> {
-}
\ No newline at end of file
+
+    /**
+     * Finds the most recent turns of a conversation, each user message paired with its AI response if it has one.
+     * Only the requested number of rows is read, walking the conversation's messages backwards by position.
+     * The newest turn also gives the position of the next one.
+     *
+     * @param convId the conversation ID
+     * @param limit  the maximum number of turns to return
+     * @return the turns, newest first
+     */
+    @Query("SELECT new com.blinky.apillama3blinky.model.ConversationHistory$Turn(um, ar) " +
+           "FROM UserMessage um " +
+           "LEFT JOIN AIResponse ar ON ar.userMessage = um " +
+           "WHERE um.conversation.id = :convId " +
+           "ORDER BY um.seq DESC")
+    List<ConversationHistory.Turn> findRecentTurns(@Param("convId") Long convId, Limit limit);
+
+    /**
+     * Deletes every user message of a conversation in a single statement, without loading them.
+     * Their responses must be deleted first; their embeddings are deleted by the database.
+     *
+     * @param convId the conversation ID
+     * @return the number of deleted messages
+     */
+    @Modifying
+    @Query("DELETE FROM UserMessage um WHERE um.conversation.id = :convId")
+    int deleteByConversationId(@Param("convId") Long convId);
+}
@@ -13,14 +13,15 @@ import io.jsonwebtoken.SignatureAlgorithm;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Window;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
@@ -322,14 +323,26 @@ public class JwtUtil {
         }
     }
 
-    public List<Event> getAllEventsForUser(HttpServletRequest request) {
+    public Window<Event> getAllEventsForUser(HttpServletRequest request, String cursor, Integer size) {
         Long userId = getUserIdFromRequest(request);
         boolean isAdmin = isAdminFromRequest(request);
 
         if (isAdmin) {
-            return eventService.getAllEvents();
+            return eventService.getAllEvents(cursor, size);
         } else {
-            return eventService.getAllEventsByUserId(userId);
+            return eventService.getAllEventsByUserId(userId, cursor, size);
+        }
+    }
+
+    public Window<Event> getEventsInRangeForUser(HttpServletRequest request, LocalDateTime from, LocalDateTime to,
+                                                 String cursor, Integer size) {
+        Long userId = getUserIdFromRequest(request);
+        boolean isAdmin = isAdminFromRequest(request);
+
+        if (isAdmin) {
+            return eventService.getEventsInRange(from, to, cursor, size);
+        } else {
+            return eventService.getEventsInRangeByUserId(userId, from, to, cursor, size);
         }
     }
 
@@ -366,14 +379,14 @@ public class JwtUtil {
         }
     }
 
-    public List<Event> getEventsByTitleForUser(HttpServletRequest request, String title) {
+    public Window<Event> getEventsByTitleForUser(HttpServletRequest request, String title, String cursor, Integer size) {
         Long userId = getUserIdFromRequest(request);
         boolean isAdmin = isAdminFromRequest(request);
 
         if (isAdmin) {
-            return eventService.findAllEventsByTitle(title);
+            return eventService.findAllEventsByTitle(title, cursor, size);
         } else {
-            return eventService.findEventsByTitle(userId, title);
+            return eventService.findEventsByTitle(userId, title, cursor, size);
         }
     }
 
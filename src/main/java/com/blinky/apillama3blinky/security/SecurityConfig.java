@@ -1,5 +1,6 @@
 package com.blinky.apillama3blinky.security;
 
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -27,6 +28,9 @@ public class SecurityConfig {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(auth -> auth
+                        // Streamed and async responses are dispatched again once the result is ready;
+                        // the original request has already been authenticated at that point
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/api/auth/**").permitAll()
                         .requestMatchers("/api/llama/send_prompt").authenticated()
                         .requestMatchers("/api/events/**").authenticated()
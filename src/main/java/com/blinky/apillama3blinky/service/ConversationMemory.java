@@ -0,0 +1,285 @@
+package com.blinky.apillama3blinky.service;
+
+import com.blinky.apillama3blinky.cache.HnswIndex;
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.mapping.EmbeddingMapping;
+import com.blinky.apillama3blinky.model.MessageEmbedding;
+import com.blinky.apillama3blinky.repository.MessageEmbeddingRepository;
+import com.blinky.apillama3blinky.repository.UserMessageRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Long-term memory of the AI: brings past exchanges of a user that are relevant to a new message back into the prompt.
+ * <p>
+ * Every answered turn is embedded in the background and stored in the database. The embeddings of a user are
+ * kept in memory in an {@link HnswIndex}, loaded from the database the first time the user writes and dropped,
+ * least recently used first, once more than the configured number of users are held. At prompt time the new
+ * message is embedded and the most similar past exchanges are looked up in the user's index. Indexing and
+ * loading run on a bounded pool of worker threads, never on the request path; a user whose index is not loaded
+ * yet simply gets no memories for that message.
+ */
+@Service
+public class ConversationMemory {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationMemory.class);
+
+    // Links per node and candidates examined while building and searching the index
+    private static final int MAX_NEIGHBOURS = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 50;
+    private static final long INDEX_SEED = 42;
+
+    private final boolean enabled;
+    private final String embeddingModel;
+    private final int topK;
+    private final double minSimilarity;
+    private final Duration embeddingTimeout;
+    private final OllamaService iaService;
+    private final MessageEmbeddingRepository messageEmbeddingRepository;
+    private final UserMessageRepository userMessageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler scheduler;
+    private final Timer searchTimer;
+    // Users whose memory is being loaded
+    private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+    // Guarded by itself; access-ordered so the least recently used users are dropped first
+    private final Map<Long, UserMemory> users;
+
+    public ConversationMemory(@Value("${ia.memory.enabled:false}") boolean enabled,
+                              @Value("${ia.memory.embedding-model:${ia.semantic-cache.embedding-model:nomic-embed-text}}") String embeddingModel,
+                              @Value("${ia.memory.top-k:3}") int topK,
+                              @Value("${ia.memory.min-similarity:0.5}") double minSimilarity,
+                              @Value("${ia.memory.embedding-timeout:500ms}") Duration embeddingTimeout,
+                              @Value("${ia.memory.max-users:1000}") int maxUsers,
+                              @Value("${ia.memory.threads:2}") int threads,
+                              @Value("${ia.memory.queue-size:500}") int queueSize,
+                              OllamaService iaService,
+                              MessageEmbeddingRepository messageEmbeddingRepository,
+                              UserMessageRepository userMessageRepository,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry) {
+        if (topK < 1 || maxUsers < 1 || threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Configuración de la memoria de conversación no válida");
+        }
+        this.enabled = enabled;
+        this.embeddingModel = embeddingModel;
+        this.topK = topK;
+        this.minSimilarity = minSimilarity;
+        this.embeddingTimeout = embeddingTimeout;
+        this.iaService = iaService;
+        this.messageEmbeddingRepository = messageEmbeddingRepository;
+        this.userMessageRepository = userMessageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = Schedulers.newBoundedElastic(threads, queueSize, "conversation-memory");
+        this.users = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UserMemory> eldest) {
+                return size() > maxUsers;
+            }
+        };
+        this.searchTimer = Timer.builder("ia.memory.search")
+                .description("Tiempo de búsqueda de mensajes relevantes en la memoria de un usuario")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+
+    /**
+     * Finds the past exchanges of a user most relevant to a new message.
+     * Blocks while the message is embedded, for at most the embedding timeout; must not be called inside a transaction.
+     *
+     * @param userId The ID of the user
+     * @param text   The new message
+     * @return The relevant exchanges, most similar first; empty if there are none or the memory is not available
+     */
+    public List<Memory> recall(Long userId, String text) {
+        if (!enabled) {
+            return List.of();
+        }
+        UserMemory memory;
+        synchronized (users) {
+            memory = users.get(userId);
+        }
+        if (memory == null) {
+            scheduleLoad(userId);
+            return List.of();
+        }
+        if (memory.isEmpty()) {
+            return List.of();
+        }
+
+        float[] embedding;
+        try {
+            embedding = iaService.embed(embeddingModel, text, OllamaRequestContext.anonymous())
+                    .block(embeddingTimeout);
+        } catch (RuntimeException e) {
+            log.debug("No se pudo calcular el embedding para la memoria del usuario {}", userId, e);
+            return List.of();
+        }
+        if (embedding == null || embedding.length == 0) {
+            return List.of();
+        }
+        return searchTimer.record(() -> memory.search(embedding, topK, minSimilarity));
+    }
+
+    /**
+     * Adds an answered turn to the user's memory in the background.
+     * When called inside a transaction, indexing starts once the transaction commits.
+     *
+     * @param userId        The ID of the user
+     * @param userMessageId The ID of the user message of the turn
+     * @param content       The exchange as it should be added to later prompts
+     */
+    public void remember(Long userId, Long userMessageId, String content) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> Mono.fromRunnable(() -> index(userId, userMessageId, content))
+                .subscribeOn(scheduler)
+                .subscribe(null, error ->
+                        log.debug("No se pudo indexar el mensaje {} en la memoria", userMessageId, error)));
+    }
+
+    /**
+     * Drops the in-memory index of a user whose messages are being deleted, so it is loaded again without them.
+     * When called inside a transaction, the index is dropped once the transaction commits.
+     *
+     * @param userId The ID of the user
+     */
+    public void forget(Long userId) {
+        afterCommit(() -> {
+            synchronized (users) {
+                users.remove(userId);
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Embeds an exchange, stores it and adds it to the user's index if it is loaded.
+     */
+    void index(Long userId, Long userMessageId, String content) {
+        float[] embedding = iaService.embed(embeddingModel, content, OllamaRequestContext.anonymous()).block(embeddingTimeout);
+        if (embedding == null || embedding.length == 0) {
+            return;
+        }
+        // Fails if the message was deleted in the meantime, which leaves nothing to remember
+        transactionTemplate.executeWithoutResult(status -> messageEmbeddingRepository.save(new MessageEmbedding(
+                userId, userMessageRepository.getReferenceById(userMessageId), embeddingModel, content,
+                EmbeddingMapping.toBytes(embedding))));
+
+        UserMemory memory;
+        synchronized (users) {
+            memory = users.get(userId);
+        }
+        if (memory != null) {
+            memory.add(userMessageId, content, embedding);
+        }
+    }
+
+    private void scheduleLoad(Long userId) {
+        if (!loading.add(userId)) {
+            return;
+        }
+        Mono.fromRunnable(() -> load(userId))
+                .subscribeOn(scheduler)
+                .doFinally(signal -> loading.remove(userId))
+                .subscribe(null, error -> log.debug("No se pudo cargar la memoria del usuario {}", userId, error));
+    }
+
+    /**
+     * Builds the index of a user from the stored embeddings.
+     */
+    void load(Long userId) {
+        List<MessageEmbeddingRepository.StoredMemory> stored = transactionTemplate.execute(status ->
+                messageEmbeddingRepository.findByUserIdAndModel(userId, embeddingModel));
+        UserMemory memory = new UserMemory();
+        if (stored != null) {
+            stored.forEach(row -> memory.add(row.getUserMessageId(), row.getContent(), EmbeddingMapping.toVector(row.getVector())));
+        }
+        synchronized (users) {
+            users.putIfAbsent(userId, memory);
+        }
+    }
+
+    /**
+     * A past exchange found relevant to a new message.
+     *
+     * @param userMessageId The ID of the user message of the exchange
+     * @param content       The exchange as it is added to the prompt
+     * @param similarity    Cosine similarity between the exchange and the new message
+     */
+    public record Memory(Long userMessageId, String content, double similarity) {
+    }
+
+    /**
+     * The index of one user; entries are stored at the position of their node ID.
+     */
+    private static class UserMemory {
+        private HnswIndex index;
+        private final List<Memory> entries = new ArrayList<>();
+
+        synchronized boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        synchronized void add(Long userMessageId, String content, float[] embedding) {
+            if (index == null || index.getDimension() != embedding.length) {
+                // First vector, or the embedding model changed and the old vectors cannot be compared
+                index = new HnswIndex(embedding.length, MAX_NEIGHBOURS, EF_CONSTRUCTION, INDEX_SEED);
+                entries.clear();
+            }
+            index.add(embedding);
+            entries.add(new Memory(userMessageId, content, 0));
+        }
+
+        synchronized List<Memory> search(float[] embedding, int k, double minSimilarity) {
+            if (index == null || index.getDimension() != embedding.length) {
+                return List.of();
+            }
+            List<Memory> found = new ArrayList<>();
+            for (HnswIndex.Result result : index.search(embedding, k, EF_SEARCH)) {
+                if (result.similarity() >= minSimilarity) {
+                    Memory entry = entries.get(result.node());
+                    found.add(new Memory(entry.userMessageId(), entry.content(), result.similarity()));
+                }
+            }
+            return found;
+        }
+    }
+}
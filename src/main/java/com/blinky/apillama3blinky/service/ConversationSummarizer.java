@@ -0,0 +1,278 @@
+package com.blinky.apillama3blinky.service;
+
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.dto.PromptDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.mapping.OllamaMapping;
+import com.blinky.apillama3blinky.model.Conversation;
+import com.blinky.apillama3blinky.model.ConversationHistory;
+import com.blinky.apillama3blinky.model.ConversationHistory.Turn;
+import com.blinky.apillama3blinky.repository.ConversationRepository;
+import com.blinky.apillama3blinky.repository.UserMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Condenses the older turns of long conversations into a rolling summary stored on the conversation.
+ * <p>
+ * Once a conversation has more answered turns after its summary than the configured trigger, the model
+ * is asked, in the background, to fold the older ones into the summary, keeping the most recent turns
+ * as they are. The prompt of later turns then starts with the summary instead of the condensed turns.
+ * Summaries run on a bounded pool of worker threads with a bounded queue, and their calls to the model
+ * go through the background bulkhead, so they never slow down the chat. When the queue is full a summary
+ * is skipped; it is requested again with the next turn. Like the prompt, a summary only reads the most
+ * recent turns of the conversation ({@code ia.history.max-turns}), never its whole history.
+ */
+@Service
+public class ConversationSummarizer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private static final String USER_ROLE = "user";
+    private static final String ASSISTANT_ROLE = "assistant";
+    private static final String SUMMARY_INSTRUCTIONS = "Resume en español la siguiente conversación entre un usuario y un asistente. "
+            + "Conserva los datos importantes: nombres, fechas, preferencias, planes y peticiones del usuario. "
+            + "Escribe solo el resumen, en tercera persona y en un único párrafo.\n\n";
+
+    @Value("${ia.model}")
+    private String iaModel;
+
+    private final boolean enabled;
+    private final int triggerTurns;
+    private final int keepTurns;
+    private final int maxSummaryTokens;
+    private final int historyMaxTurns;
+    private final Duration timeout;
+    private final OllamaService iaService;
+    private final ConversationRepository conversationRepository;
+    private final UserMessageRepository userMessageRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Scheduler scheduler;
+    // Conversations with a summary queued or running, so each one is only summarized once at a time
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+    private final Counter stored;
+    private final Counter failed;
+    private final Counter rejected;
+
+    public ConversationSummarizer(@Value("${ia.summary.enabled:false}") boolean enabled,
+                                  @Value("${ia.summary.trigger-turns:20}") int triggerTurns,
+                                  @Value("${ia.summary.keep-turns:8}") int keepTurns,
+                                  @Value("${ia.summary.max-tokens:256}") int maxSummaryTokens,
+                                  @Value("${ia.summary.timeout:2m}") Duration timeout,
+                                  @Value("${ia.summary.threads:2}") int threads,
+                                  @Value("${ia.summary.queue-size:50}") int queueSize,
+                                  @Value("${ia.history.max-turns:50}") int historyMaxTurns,
+                                  OllamaService iaService,
+                                  ConversationRepository conversationRepository,
+                                  UserMessageRepository userMessageRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  MeterRegistry meterRegistry) {
+        // The turns read for a summary must be able to reach the trigger
+        if (keepTurns < 0 || triggerTurns <= keepTurns || historyMaxTurns <= triggerTurns || maxSummaryTokens < 1
+                || threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Configuración de los resúmenes de conversación no válida");
+        }
+        this.enabled = enabled;
+        this.triggerTurns = triggerTurns;
+        this.keepTurns = keepTurns;
+        this.maxSummaryTokens = maxSummaryTokens;
+        this.historyMaxTurns = historyMaxTurns;
+        this.timeout = timeout;
+        this.iaService = iaService;
+        this.conversationRepository = conversationRepository;
+        this.userMessageRepository = userMessageRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = Schedulers.newBoundedElastic(threads, queueSize, "conversation-summary");
+
+        this.stored = Counter.builder("ia.summary.requests")
+                .tag("result", "stored")
+                .description("Resúmenes de conversación guardados")
+                .register(meterRegistry);
+        this.failed = Counter.builder("ia.summary.requests")
+                .tag("result", "failed")
+                .description("Resúmenes de conversación que el modelo no pudo generar")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ia.summary.requests")
+                .tag("result", "rejected")
+                .description("Resúmenes de conversación descartados por estar llena la cola")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+
+    /**
+     * Starts summarizing a conversation in the background if it has grown past the trigger.
+     * When called inside a transaction, the summary starts once the transaction commits.
+     *
+     * @param conversationId    The ID of the conversation
+     * @param userId            The ID of the conversation's owner
+     * @param turnsAfterSummary The number of answered turns of the conversation after its summary
+     */
+    public void summarizeIfNeeded(Long conversationId, Long userId, int turnsAfterSummary) {
+        if (!enabled || turnsAfterSummary <= triggerTurns) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    schedule(conversationId, userId);
+                }
+            });
+        } else {
+            schedule(conversationId, userId);
+        }
+    }
+
+    private void schedule(Long conversationId, Long userId) {
+        if (!pending.add(conversationId)) {
+            return;
+        }
+        Mono.fromRunnable(() -> summarize(conversationId, userId))
+                .subscribeOn(scheduler)
+                .doFinally(signal -> pending.remove(conversationId))
+                .subscribe(null, error -> {
+                    // The queue is full or the summary could not be stored; it is retried with the next turn
+                    (error instanceof RejectedExecutionException ? rejected : failed).increment();
+                    log.debug("No se pudo resumir la conversación {}", conversationId, error);
+                });
+    }
+
+    /**
+     * Folds the older turns of a conversation into its summary. Blocks while the model writes the summary,
+     * outside of any transaction.
+     *
+     * @param conversationId The ID of the conversation
+     * @param userId         The ID of the conversation's owner
+     */
+    void summarize(Long conversationId, Long userId) {
+        SummaryRequest request = transactionTemplate.execute(status ->
+                conversationRepository.findById(conversationId)
+                        .map(conversation -> buildSummaryRequest(conversation, loadRecentTurns(conversationId)))
+                        .orElse(null));
+        if (request == null) {
+            return;
+        }
+
+        OllamaResponse response;
+        try {
+            response = iaService.sendPromptAsync(request.ollamaDTO(), OllamaRequestContext.forSummary(userId, conversationId))
+                    .block(timeout);
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.warn("No se pudo resumir la conversación {}", conversationId, e);
+            return;
+        }
+        if (response == null || response.getResponse() == null || response.getResponse().isBlank()) {
+            failed.increment();
+            return;
+        }
+
+        // Locked like a turn, so a turn or a clear of the conversation cannot interleave with the check
+        transactionTemplate.executeWithoutResult(status ->
+                conversationRepository.findForUpdateById(conversationId)
+                        .ifPresent(conversation -> storeSummary(conversation, request, response.getResponse().trim())));
+    }
+
+    /**
+     * Loads the most recent turns of a conversation, the same window the prompt is built from.
+     *
+     * @param conversationId The ID of the conversation
+     * @return The turns, oldest first
+     */
+    private List<Turn> loadRecentTurns(Long conversationId) {
+        List<Turn> turns = new ArrayList<>(userMessageRepository.findRecentTurns(conversationId, Limit.of(historyMaxTurns)));
+        Collections.reverse(turns);
+        return turns;
+    }
+
+    /**
+     * Builds the request that folds the turns past the most recent ones into the summary.
+     *
+     * @param conversation The conversation
+     * @param recentTurns  The most recent turns of the conversation, oldest first
+     * @return The request, or null if the conversation does not need a new summary
+     */
+    private SummaryRequest buildSummaryRequest(Conversation conversation, List<Turn> recentTurns) {
+        List<Turn> turns = unsummarizedTurns(conversation, recentTurns);
+        if (turns.size() <= triggerTurns) {
+            return null;
+        }
+        List<Turn> condensed = turns.subList(0, turns.size() - keepTurns);
+
+        StringBuilder prompt = new StringBuilder(SUMMARY_INSTRUCTIONS);
+        if (conversation.getSummary() != null) {
+            prompt.append("Resumen de la conversación hasta ahora:\n").append(conversation.getSummary()).append("\n\n");
+        }
+        prompt.append("Conversación:\n");
+        for (Turn turn : condensed) {
+            prompt.append(USER_ROLE).append(": ").append(turn.userMessage().getContent()).append("\n");
+            prompt.append(ASSISTANT_ROLE).append(": ").append(turn.response().getContent()).append("\n");
+        }
+        prompt.append("\nResumen:");
+
+        OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(prompt.toString()), iaModel);
+        ollamaDTO.setNumPredict(maxSummaryTokens);
+        return new SummaryRequest(ollamaDTO, conversation.getSummarizedUpToMessageId(),
+                condensed.get(condensed.size() - 1).userMessage().getId());
+    }
+
+    /**
+     * Stores a new summary, unless the conversation was cleared or summarized again while the model was writing it.
+     */
+    private void storeSummary(Conversation conversation, SummaryRequest request, String summary) {
+        boolean unchanged = Objects.equals(conversation.getSummarizedUpToMessageId(), request.previousUpToMessageId());
+        boolean stillThere = userMessageRepository.existsById(request.upToMessageId());
+        if (!unchanged || !stillThere) {
+            return;
+        }
+        conversation.setSummary(summary);
+        conversation.setSummarizedUpToMessageId(request.upToMessageId());
+        stored.increment();
+    }
+
+    /**
+     * Lists the answered turns among the most recent ones that come after the conversation's summary, oldest first.
+     * Unanswered and aborted turns are left out, as they are from the prompt.
+     */
+    private List<Turn> unsummarizedTurns(Conversation conversation, List<Turn> recentTurns) {
+        return ConversationHistory.ofTurns(recentTurns, conversation.getSummarizedUpToMessageId()).getTurnsAfterSummary().stream()
+                .filter(Turn::isAnswered)
+                .toList();
+    }
+
+    /**
+     * A summary to write.
+     *
+     * @param ollamaDTO             The request to the model
+     * @param previousUpToMessageId Last user message covered by the current summary, if any
+     * @param upToMessageId         Last user message the new summary covers
+     */
+    private record SummaryRequest(OllamaDTO ollamaDTO, Long previousUpToMessageId, Long upToMessageId) {
+    }
+}
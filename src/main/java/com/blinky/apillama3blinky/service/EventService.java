@@ -4,55 +4,112 @@ import com.blinky.apillama3blinky.controller.dto.EventCreateDTO;
 import com.blinky.apillama3blinky.controller.dto.EventUpdateDTO;
 import com.blinky.apillama3blinky.exception.EventException;
 import com.blinky.apillama3blinky.exception.ResourceNotFoundException;
+import com.blinky.apillama3blinky.mapping.EventCursorMapping;
 import com.blinky.apillama3blinky.mapping.EventMapper;
 import com.blinky.apillama3blinky.model.Event;
 import com.blinky.apillama3blinky.model.User;
 import com.blinky.apillama3blinky.repository.EventRepository;
 import com.blinky.apillama3blinky.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
-import java.util.List;
 
 /**
  * Service responsible for event management.
  * Provides methods for creating, retrieving, updating, and deleting events,
  * with user-specific access controls and admin capabilities.
+ * Listings are returned page by page, each page continuing from the cursor of the previous one.
  */
 @Service
 public class EventService {
 
     private final EventRepository eventRepository;
     private final UserRepository userRepository;
+    private final int defaultPageSize;
+    private final int maxPageSize;
 
     @Autowired
-    public EventService(EventRepository eventRepository, UserRepository userRepository) {
+    public EventService(EventRepository eventRepository, UserRepository userRepository,
+                        @Value("${events.page.default-size:50}") int defaultPageSize,
+                        @Value("${events.page.max-size:200}") int maxPageSize) {
         this.eventRepository = eventRepository;
         this.userRepository = userRepository;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
     }
 
     /**
-     * Retrieves all events belonging to a specific user.
+     * Retrieves a page of the events belonging to a specific user, ordered by start time.
      * 
      * @param userId The ID of the user whose events to retrieve
-     * @return A list of events belonging to the user
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of events belonging to the user
+     * @throws EventException if the cursor or the page size is invalid
      */
     @Transactional(readOnly = true)
-    public List<Event> getAllEventsByUserId(Long userId) {
-        return eventRepository.findByUserId(userId);
+    public Window<Event> getAllEventsByUserId(Long userId, String cursor, Integer size) {
+        return eventRepository.findByUserIdOrderByStartTimeAscIdAsc(userId, toScrollPosition(cursor), toLimit(size));
     }
 
     /**
-     * Retrieves all events in the system.
+     * Retrieves a page of all events in the system, ordered by start time.
      * Typically used by administrators to view all events.
      * 
-     * @return A list of all events
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of events from all users
+     * @throws EventException if the cursor or the page size is invalid
      */
     @Transactional(readOnly = true)
-    public List<Event> getAllEvents() {
-        return eventRepository.findAll();
+    public Window<Event> getAllEvents(String cursor, Integer size) {
+        return eventRepository.findAllByOrderByStartTimeAscIdAsc(toScrollPosition(cursor), toLimit(size));
+    }
+
+    /**
+     * Retrieves a page of the events of a specific user that overlap a time range, ordered by start time.
+     * An event overlaps the range if it starts before the range ends and ends after the range starts.
+     * 
+     * @param userId The ID of the user whose events to retrieve
+     * @param from The start of the range
+     * @param to The end of the range
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of the user's events overlapping the range
+     * @throws EventException if the range, the cursor or the page size is invalid
+     */
+    @Transactional(readOnly = true)
+    public Window<Event> getEventsInRangeByUserId(Long userId, LocalDateTime from, LocalDateTime to,
+                                                  String cursor, Integer size) {
+        validateRange(from, to);
+
+        return eventRepository.findByUserIdAndStartTimeLessThanAndEndTimeGreaterThanOrderByStartTimeAscIdAsc(
+                userId, to, from, toScrollPosition(cursor), toLimit(size));
+    }
+
+    /**
+     * Retrieves a page of the events of all users that overlap a time range, ordered by start time.
+     * Typically used by administrators.
+     * 
+     * @param from The start of the range
+     * @param to The end of the range
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of events overlapping the range
+     * @throws EventException if the range, the cursor or the page size is invalid
+     */
+    @Transactional(readOnly = true)
+    public Window<Event> getEventsInRange(LocalDateTime from, LocalDateTime to, String cursor, Integer size) {
+        validateRange(from, to);
+
+        return eventRepository.findByStartTimeLessThanAndEndTimeGreaterThanOrderByStartTimeAscIdAsc(
+                to, from, toScrollPosition(cursor), toLimit(size));
     }
 
     /**
@@ -199,16 +256,19 @@ public class EventService {
      * 
      * @param userId The ID of the user whose events to search
      * @param title The title or partial title to search for
-     * @return A list of matching events
-     * @throws EventException if the search title is empty
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of matching events
+     * @throws EventException if the search title is empty or the cursor or the page size is invalid
      */
     @Transactional(readOnly = true)
-    public List<Event> findEventsByTitle(Long userId, String title) {
+    public Window<Event> findEventsByTitle(Long userId, String title, String cursor, Integer size) {
         if (title == null || title.trim().isEmpty()) {
             throw new EventException("El título de búsqueda no puede estar vacío");
         }
 
-        return eventRepository.findByUserIdAndTitleContainingIgnoreCase(userId, title);
+        return eventRepository.findByUserIdAndTitleContainingIgnoreCaseOrderByStartTimeAscIdAsc(
+                userId, title, toScrollPosition(cursor), toLimit(size));
     }
 
     /**
@@ -216,16 +276,68 @@ public class EventService {
      * Typically used by administrators.
      * 
      * @param title The title or partial title to search for
-     * @return A list of matching events from all users
-     * @throws EventException if the search title is empty
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The requested page size, or null for the default; capped at the maximum page size
+     * @return A page of matching events from all users
+     * @throws EventException if the search title is empty or the cursor or the page size is invalid
      */
     @Transactional(readOnly = true)
-    public List<Event> findAllEventsByTitle(String title) {
+    public Window<Event> findAllEventsByTitle(String title, String cursor, Integer size) {
         if (title == null || title.trim().isEmpty()) {
             throw new EventException("El título de búsqueda no puede estar vacío");
         }
 
-        return eventRepository.findByTitleContainingIgnoreCase(title);
+        return eventRepository.findByTitleContainingIgnoreCaseOrderByStartTimeAscIdAsc(
+                title, toScrollPosition(cursor), toLimit(size));
+    }
+
+    /**
+     * Reads a listing cursor into the position the next page starts from.
+     * 
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @return The keyset scroll position
+     * @throws EventException if the cursor is malformed
+     */
+    private ScrollPosition toScrollPosition(String cursor) {
+        try {
+            return EventCursorMapping.toScrollPosition(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new EventException("El cursor de paginación no es válido");
+        }
+    }
+
+    /**
+     * Resolves the requested page size, applying the default and the maximum.
+     * 
+     * @param size The requested page size, or null for the default
+     * @return The number of events to read
+     * @throws EventException if the page size is not positive
+     */
+    private Limit toLimit(Integer size) {
+        if (size == null) {
+            return Limit.of(Math.min(defaultPageSize, maxPageSize));
+        }
+        if (size < 1) {
+            throw new EventException("El tamaño de página debe ser mayor que cero");
+        }
+        return Limit.of(Math.min(size, maxPageSize));
+    }
+
+    /**
+     * Validates that both ends of a time range are set and that it is not empty.
+     * 
+     * @param from The start of the range
+     * @param to The end of the range
+     * @throws EventException if an end is missing or the start is not before the end
+     */
+    private void validateRange(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new EventException("El rango de fechas necesita inicio (from) y fin (to)");
+        }
+
+        if (!from.isBefore(to)) {
+            throw new EventException("El inicio del rango de fechas debe ser anterior a su fin");
+        }
     }
 
     /**
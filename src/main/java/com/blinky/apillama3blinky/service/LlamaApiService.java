@@ -1,15 +1,22 @@
 package com.blinky.apillama3blinky.service;
 
+import com.blinky.apillama3blinky.cache.LlmResponseCache;
 import com.blinky.apillama3blinky.cache.PersonalityCache;
+import com.blinky.apillama3blinky.cache.SemanticResponseCache;
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.client.RequestCoalescer;
 import com.blinky.apillama3blinky.controller.dto.EventCreateDTO;
 import com.blinky.apillama3blinky.controller.dto.EventDTO;
 import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
 import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
 import com.blinky.apillama3blinky.controller.response.PromptResponse;
+import com.blinky.apillama3blinky.exception.CircuitOpenException;
 import com.blinky.apillama3blinky.exception.ForbiddenEventException;
 import com.blinky.apillama3blinky.exception.ResourceNotFoundException;
 import com.blinky.apillama3blinky.mapping.EventMapper;
+import com.blinky.apillama3blinky.mapping.OllamaContextMapping;
 import com.blinky.apillama3blinky.mapping.OllamaMapping;
 import com.blinky.apillama3blinky.mapping.PromptMapping;
 import com.blinky.apillama3blinky.model.*;
@@ -17,12 +24,27 @@ import com.blinky.apillama3blinky.repository.AIResponseRepository;
 import com.blinky.apillama3blinky.repository.ConversationRepository;
 import com.blinky.apillama3blinky.repository.UserMessageRepository;
 import com.blinky.apillama3blinky.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service responsible for handling interactions with the Llama AI model.
@@ -30,15 +52,49 @@ import java.util.List;
  */
 @Service
 public class LlamaApiService {
+
+    private static final Logger log = LoggerFactory.getLogger(LlamaApiService.class);
+
     // Constants for message roles in the conversation
     private static final String USER_ROLE = "user";
     private static final String ASSISTANT_ROLE = "assistant";
     private static final String DEFAULT_CONVERSATION_NAME_TEMPLATE = "Blinky Conversation: %s";
+    private static final String SUMMARY_HEADER = "Resumen de la conversación anterior:\n";
+    private static final String MEMORY_HEADER = "Fragmentos relevantes de conversaciones anteriores:\n";
+    // Reply given while the AI model is unavailable, for personalities without their own fallback reply
+    private static final String DEFAULT_FALLBACK_REPLY = "Ahora mismo no puedo pensar con claridad, vuelve a hablarme en un rato. [ERROR]";
 
     // AI model configuration from properties
     @Value("${ia.model}")
     private String iaModel;
 
+    // Conversation context mode: continue from Ollama's last context instead of re-sending the history
+    @Value("${ia.context-reuse.enabled:false}")
+    private boolean contextReuseEnabled;
+
+    // Once the stored context grows past this many tokens, the prompt is rebuilt from the sliding window
+    @Value("${ia.context-reuse.max-tokens:4096}")
+    private int contextReuseMaxTokens;
+
+    // Answer identical prompts from the response cache, for the personalities that allow it
+    @Value("${ia.response-cache.enabled:true}")
+    private boolean responseCacheEnabled;
+
+    // Answer first messages similar enough to an earlier one from the semantic cache; needs an Ollama embedding model
+    @Value("${ia.semantic-cache.enabled:false}")
+    private boolean semanticCacheEnabled;
+
+    @Value("${ia.semantic-cache.embedding-model:nomic-embed-text}")
+    private String embeddingModel;
+
+    // Most tokens of the prompt taken by past exchanges recalled from the long-term memory
+    @Value("${ia.memory.max-tokens:512}")
+    private int memoryMaxTokens;
+
+    // Most recent turns read from the database to build the history; the token budget decides how many are sent
+    @Value("${ia.history.max-turns:50}")
+    private int historyMaxTurns;
+
     private final OllamaService iaService;
     private final UserRepository userRepository;
     private final ConversationRepository conversationRepository;
@@ -46,7 +102,14 @@ public class LlamaApiService {
     private final AIResponseRepository aiResponseRepository;
     private final PersonalityService personalityService;
     private final PersonalityCache personalityCache;
+    private final LlmResponseCache responseCache;
+    private final SemanticResponseCache semanticCache;
+    private final RequestCoalescer requestCoalescer;
+    private final TokenEstimator tokenEstimator;
+    private final ConversationSummarizer conversationSummarizer;
+    private final ConversationMemory conversationMemory;
     private final EventService eventService;
+    private final TransactionTemplate transactionTemplate;
 
     public LlamaApiService(OllamaService iaService,
                            UserRepository userRepository,
@@ -55,7 +118,14 @@ public class LlamaApiService {
                            AIResponseRepository aiResponseRepository,
                            PersonalityService personalityService,
                            PersonalityCache personalityCache,
-                           EventService eventService) {
+                           LlmResponseCache responseCache,
+                           SemanticResponseCache semanticCache,
+                           RequestCoalescer requestCoalescer,
+                           TokenEstimator tokenEstimator,
+                           ConversationSummarizer conversationSummarizer,
+                           ConversationMemory conversationMemory,
+                           EventService eventService,
+                           TransactionTemplate transactionTemplate) {
         this.iaService = iaService;
         this.userRepository = userRepository;
         this.conversationRepository = conversationRepository;
@@ -63,46 +133,374 @@ public class LlamaApiService {
         this.aiResponseRepository = aiResponseRepository;
         this.personalityService = personalityService;
         this.personalityCache = personalityCache;
+        this.responseCache = responseCache;
+        this.semanticCache = semanticCache;
+        this.requestCoalescer = requestCoalescer;
+        this.tokenEstimator = tokenEstimator;
+        this.conversationSummarizer = conversationSummarizer;
+        this.conversationMemory = conversationMemory;
         this.eventService = eventService;
+        this.transactionTemplate = transactionTemplate;
     }
 
     /**
      * Processes a user prompt and generates an AI response.
+     * The work is split in three phases so that no database connection is held while the model
+     * is generating: a short transaction storing the user message, the model call outside of any
+     * transaction, and a short transaction storing the AI response.
      *
      * @param promptDTO The prompt data transfer object containing the user's message
      * @param userId    The ID of the user sending the prompt
      * @return A response containing the AI's reply
      */
-    @Transactional
     public PromptResponse sendPrompt(PromptDTO promptDTO, Long userId) {
-        // Find the user and get or create their conversation
+        // Phase 1: store the user message and build the model request
+        List<ConversationMemory.Memory> memories = conversationMemory.recall(userId, promptDTO.getPrompt());
+        PendingTurn turn = transactionTemplate.execute(status -> beginTurn(promptDTO, userId, false, memories));
+
+        // Phase 2: call the model without any transaction or connection
+        OllamaResponse iaResponse;
+        try {
+            iaResponse = processPromptWithHistory(turn).block();
+        } catch (RuntimeException e) {
+            transactionTemplate.executeWithoutResult(status -> discardTurn(turn));
+            if (e instanceof CircuitOpenException) {
+                return PromptMapping.mapToResponse(fallbackResponse(turn.personality()));
+            }
+            throw e;
+        }
+
+        // Phase 3: store the AI response
+        transactionTemplate.executeWithoutResult(status ->
+                completeTurn(turn, iaResponse.getResponse(), iaResponse.getContext()));
+        return PromptMapping.mapToResponse(iaResponse);
+    }
+
+    /**
+     * Non-blocking variant of {@link #sendPrompt(PromptDTO, Long)}.
+     * The database work runs in short transactions on a worker thread, and no thread is held
+     * while the AI model is generating the response. Cancelling the returned Mono (because the
+     * client went away or a deadline passed) cancels the call to the model and records the turn as aborted.
+     * Identical prompts of the same user in progress at the same time (e.g. retries) share one turn: only the
+     * first request stores its message, and every request receives the reply stored for it.
+     *
+     * @param promptDTO The prompt data transfer object containing the user's message
+     * @param userId    The ID of the user sending the prompt
+     * @return A Mono emitting the AI's reply once it has been stored
+     */
+    public Mono<PromptResponse> sendPromptAsync(PromptDTO promptDTO, Long userId) {
+        // A user has a single conversation, so a retry is recognised by user, personality and prompt before
+        // its message is stored; once stored, the history would make its model request differ from the first one
+        String coalescingKey = "chat-" + userId + "-" + promptDTO.getPersonalityId() + "-" + promptDTO.getPrompt();
+        // Recall relevant past exchanges, then store the user message and build the model request
+        return requestCoalescer.execute(coalescingKey, () -> Mono.fromCallable(() -> {
+                    List<ConversationMemory.Memory> memories = conversationMemory.recall(userId, promptDTO.getPrompt());
+                    return transactionTemplate.execute(status -> beginTurn(promptDTO, userId, false, memories));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(turn -> {
+                    // Only one of completing, discarding or aborting the turn may happen
+                    AtomicBoolean settled = new AtomicBoolean();
+                    return processPromptWithHistory(turn)
+                            // Store the AI response off the event loop
+                            .publishOn(Schedulers.boundedElastic())
+                            .map(iaResponse -> {
+                                if (settled.compareAndSet(false, true)) {
+                                    transactionTemplate.executeWithoutResult(status ->
+                                            completeTurn(turn, iaResponse.getResponse(), iaResponse.getContext()));
+                                }
+                                return PromptMapping.mapToResponse(iaResponse);
+                            })
+                            .onErrorResume(e -> settled.compareAndSet(false, true) ? discardTurnAsync(turn, e) : Mono.error(e))
+                            // While the model is unavailable, answer with the personality's canned reply
+                            .onErrorResume(CircuitOpenException.class, e ->
+                                    Mono.just(PromptMapping.mapToResponse(fallbackResponse(turn.personality()))))
+                            .doOnCancel(() -> {
+                                if (settled.compareAndSet(false, true)) {
+                                    abortTurnInBackground(turn, "");
+                                }
+                            });
+                }));
+    }
+
+    /**
+     * Processes a user prompt and streams the AI response while it is being generated.
+     * Nothing runs until the stream is subscribed to. The user message is then stored in a short transaction
+     * on a worker thread before the model is called, and the complete AI response is stored in a second one
+     * once the final chunk has been received, so no database connection is held while the model is generating
+     * and no request thread waits for the database. If the stream is cancelled
+     * before the final chunk, the call to the model is cancelled and the partial reply is recorded as aborted.
+     *
+     * @param promptDTO The prompt data transfer object containing the user's message
+     * @param userId    The ID of the user sending the prompt
+     * @return A stream of response chunks, the last one carrying the complete cleaned reply
+     */
+    public Flux<PromptChunkResponse> streamPrompt(PromptDTO promptDTO, Long userId) {
+        // Recall relevant past exchanges, then store the user message and build the model request
+        return Mono.fromCallable(() -> {
+                    List<ConversationMemory.Memory> memories = conversationMemory.recall(userId, promptDTO.getPrompt());
+                    return transactionTemplate.execute(status -> beginTurn(promptDTO, userId, true, memories));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(turn -> {
+                    StringBuilder fullResponse = new StringBuilder();
+                    // Only one of completing, discarding or aborting the turn may happen
+                    AtomicBoolean settled = new AtomicBoolean();
+                    Runnable abortIfUnsettled = () -> {
+                        if (settled.compareAndSet(false, true)) {
+                            abortTurnInBackground(turn, fullResponse.toString());
+                        }
+                    };
+                    String cacheKey = responseCacheKey(turn);
+                    OllamaResponse cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+                    if (cached != null) {
+                        // Same prompt answered before: send the cached reply as a single final chunk
+                        return Mono.fromCallable(() -> {
+                                    if (!settled.compareAndSet(false, true)) {
+                                        // Cancelled before the reply was stored: the turn is already being aborted
+                                        return null;
+                                    }
+                                    transactionTemplate.executeWithoutResult(status ->
+                                            completeTurn(turn, cached.getResponse(), cached.getContext()));
+                                    return PromptMapping.mapToFinalChunk(cached, cached.getResponse());
+                                })
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .flux()
+                                .doOnCancel(abortIfUnsettled);
+                    }
+
+                    return iaService.streamPrompt(turn.ollamaDTO(), turn.requestContext())
+                            .concatMap(chunk -> {
+                                if (chunk.getResponse() != null) {
+                                    fullResponse.append(chunk.getResponse());
+                                }
+                                if (!chunk.isDone() || !settled.compareAndSet(false, true)) {
+                                    return Mono.just(PromptMapping.mapToChunk(chunk));
+                                }
+
+                                // Generation finished: store the complete AI response off the event loop
+                                if (cacheKey != null) {
+                                    responseCache.put(cacheKey, new OllamaResponse(chunk.getModel(), chunk.getCreated_at(),
+                                            fullResponse.toString(), true, chunk.getDone_reason(), chunk.getContext()));
+                                }
+                                return Mono.fromCallable(() -> {
+                                            transactionTemplate.executeWithoutResult(status ->
+                                                    completeTurn(turn, fullResponse.toString(), chunk.getContext()));
+                                            return PromptMapping.mapToFinalChunk(chunk, fullResponse.toString());
+                                        })
+                                        .subscribeOn(Schedulers.boundedElastic());
+                            })
+                            .onErrorResume(e -> settled.compareAndSet(false, true) ? discardTurnAsync(turn, e) : Flux.error(e))
+                            // While the model is unavailable, answer with the personality's canned reply as a single final chunk
+                            .onErrorResume(CircuitOpenException.class, e -> {
+                                OllamaResponse fallback = fallbackResponse(turn.personality());
+                                return Mono.just(PromptMapping.mapToFinalChunk(fallback, fallback.getResponse()));
+                            })
+                            .doOnCancel(abortIfUnsettled);
+                });
+    }
+
+    /**
+     * Starts a conversation turn: stores the user message and builds the request for the model.
+     * Must be called inside a transaction.
+     *
+     * @param promptDTO The prompt data containing the user's message and optional personality ID
+     * @param userId    The ID of the user sending the prompt
+     * @param stream    Whether the model request should be streamed
+     * @param memories  Past exchanges of the user relevant to the message
+     * @return The pending turn with everything needed to call the model and store its reply
+     */
+    private PendingTurn beginTurn(PromptDTO promptDTO, Long userId, boolean stream, List<ConversationMemory.Memory> memories) {
         User user = findUserById(userId);
         Conversation conversation = getOrCreateConversation(user);
+        List<ConversationHistory.Turn> turns = loadRecentTurns(conversation);
+        Personality personality = getPersonalityForPrompt(promptDTO, turns);
+        // A full window may hide older answered turns, so it never counts as a first turn
+        boolean firstTurn = turns.size() < historyMaxTurns && turns.stream().noneMatch(ConversationHistory.Turn::isAnswered);
 
-        // Determine which personality to use for this prompt
-        Personality personality = getPersonalityForPrompt(promptDTO, conversation);
+        int seq = turns.isEmpty() ? 0 : turns.get(turns.size() - 1).userMessage().getSeq() + 1;
+        UserMessage userMessage = addUserMessageToConversation(conversation, seq, promptDTO.getPrompt());
+        turns.add(new ConversationHistory.Turn(userMessage, null));
+        ConversationHistory history = ConversationHistory.ofTurns(turns, conversation.getSummarizedUpToMessageId());
+        OllamaDTO ollamaDTO = buildOllamaRequest(conversation, history, personality, userMessage, stream, memories);
+        int answeredTurnsAfterSummary = (int) history.getTurnsAfterSummary().stream()
+                .filter(ConversationHistory.Turn::isAnswered)
+                .count();
 
-        // Add the user message to the conversation
-        UserMessage userMessage = addUserMessageToConversation(conversation, promptDTO.getPrompt());
-        // Process the prompt with conversation history and get AI response
-        OllamaResponse iaResponse = processPromptWithHistory(conversation, personality);
-        // Add the AI response to the conversation
-        addAssistantMessageToConversation(conversation, iaResponse.getResponse(), userMessage, personality);
+        // Only a first message without anything personal in its prompt may share a reply with other users
+        return new PendingTurn(userId, conversation.getId(), userMessage.getId(), personality, ollamaDTO,
+                promptDTO.getPrompt(), firstTurn && memories.isEmpty(), answeredTurnsAfterSummary);
+    }
 
-        // Save the updated conversation
-        conversationRepository.save(conversation);
-        return PromptMapping.mapToResponse(iaResponse);
+    /**
+     * Completes a conversation turn by storing the AI response for its user message.
+     * Must be called inside a transaction.
+     *
+     * @param turn    The pending turn started by {@link #beginTurn(PromptDTO, Long, boolean, List)}
+     * @param content The complete content of the AI response
+     * @param context The context returned by Ollama with the response, if any
+     */
+    private void completeTurn(PendingTurn turn, String content, List<Integer> context) {
+        Conversation conversation = conversationRepository.findForUpdateById(turn.conversationId())
+                .orElseThrow(() -> new ResourceNotFoundException("Conversación no encontrada"));
+        if (isClearedMeanwhile(turn)) {
+            return;
+        }
+        UserMessage userMessage = userMessageRepository.getReferenceById(turn.userMessageId());
+
+        addAssistantMessageToConversation(conversation, content, userMessage, turn.personality(), false);
+        updateConversationContext(conversation, turn.personality(), context);
+        // The turns counted when the turn started, plus this one
+        conversationSummarizer.summarizeIfNeeded(turn.conversationId(), turn.userId(), turn.answeredTurnsAfterSummary() + 1);
+        conversationMemory.remember(turn.userId(), turn.userMessageId(), formatTurn(turn.userPrompt(), content));
     }
 
     /**
-     * Determines which personality to use for a given prompt.
+     * Checks whether the conversation of a turn was cleared while the model was answering it.
+     * Must be called with the conversation locked, so a clear cannot start until the turn is stored.
+     *
+     * @param turn The pending turn
+     * @return Whether the user message of the turn is gone, in which case nothing of the turn is stored
+     */
+    private boolean isClearedMeanwhile(PendingTurn turn) {
+        if (userMessageRepository.existsById(turn.userMessageId())) {
+            return false;
+        }
+        log.debug("La conversación {} se vació mientras se respondía al mensaje {}; no se guarda la respuesta",
+                turn.conversationId(), turn.userMessageId());
+        return true;
+    }
+
+    /**
+     * Stores the context returned by Ollama so the next turn can continue from it.
+     * When context reuse is disabled or no context was returned, any stored context is dropped,
+     * since it would no longer include the latest turn.
+     *
+     * @param conversation The conversation the turn belongs to
+     * @param personality  The personality used to generate the response
+     * @param context      The context returned by Ollama with the response, if any
+     */
+    private void updateConversationContext(Conversation conversation, Personality personality, List<Integer> context) {
+        if (contextReuseEnabled && context != null && !context.isEmpty()) {
+            conversation.setLlmContext(OllamaContextMapping.toBytes(context));
+            conversation.setLlmContextKey(contextKey(personality));
+        } else {
+            conversation.setLlmContext(null);
+            conversation.setLlmContextKey(null);
+        }
+    }
+
+    /**
+     * Returns the stored Ollama context of a conversation if it can be continued with the given personality.
      *
-     * @param promptDTO    The prompt data containing an optional personality ID
      * @param conversation The current conversation
+     * @param personality  The personality selected for this turn
+     * @return The context tokens, or null if the prompt has to be rebuilt from the history
+     */
+    private int[] getReusableContext(Conversation conversation, Personality personality) {
+        if (!contextReuseEnabled || conversation.getLlmContext() == null) {
+            return null;
+        }
+
+        // The context was evaluated with a specific model and base prompt; any change invalidates it
+        if (!Objects.equals(conversation.getLlmContextKey(), contextKey(personality))) {
+            return null;
+        }
+
+        // Once the context outgrows the budget, rebuild it from the sliding window
+        int[] context = OllamaContextMapping.toTokens(conversation.getLlmContext());
+        return context.length <= contextReuseMaxTokens ? context : null;
+    }
+
+    /**
+     * Computes the key identifying what a stored context was generated with.
+     *
+     * @param personality The personality used for the generation
+     * @return A hash of the model, the personality and its base prompt
+     */
+    private Integer contextKey(Personality personality) {
+        return Objects.hash(iaModel, personality.getId(), personality.getBasePrompt());
+    }
+
+    /**
+     * Discards a conversation turn whose AI response could not be generated, removing its user message
+     * so the conversation is left as it was before the prompt. Must be called inside a transaction.
+     *
+     * @param turn The pending turn started by {@link #beginTurn(PromptDTO, Long, boolean, List)}
+     */
+    private void discardTurn(PendingTurn turn) {
+        userMessageRepository.deleteById(turn.userMessageId());
+    }
+
+    /**
+     * Discards a conversation turn on a worker thread and then propagates the original error.
+     *
+     * @param turn  The pending turn whose AI response failed
+     * @param error The error raised while generating the AI response
+     * @return A publisher that terminates with the original error
+     */
+    private <T> Mono<T> discardTurnAsync(PendingTurn turn, Throwable error) {
+        return Mono.fromRunnable(() -> transactionTemplate.executeWithoutResult(status -> discardTurn(turn)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then(Mono.error(error));
+    }
+
+    /**
+     * Records a conversation turn whose generation was cancelled before it finished.
+     * The user message is kept and answered with an AI response marked as aborted, which is
+     * left out of the history sent to the model. Must be called inside a transaction.
+     *
+     * @param turn           The pending turn started by {@link #beginTurn(PromptDTO, Long, boolean, List)}
+     * @param partialContent The part of the reply generated before the cancellation (may be empty)
+     */
+    private void abortTurn(PendingTurn turn, String partialContent) {
+        Conversation conversation = conversationRepository.findForUpdateById(turn.conversationId())
+                .orElseThrow(() -> new ResourceNotFoundException("Conversación no encontrada"));
+        if (isClearedMeanwhile(turn)) {
+            return;
+        }
+        UserMessage userMessage = userMessageRepository.getReferenceById(turn.userMessageId());
+
+        addAssistantMessageToConversation(conversation, partialContent, userMessage, turn.personality(), true);
+        // The stored Ollama context still ends at the last complete turn, so it stays valid
+    }
+
+    /**
+     * Records an aborted turn on a worker thread. Cancellation has no subscriber left to report
+     * errors to, so a failure is only logged.
+     *
+     * @param turn           The pending turn whose generation was cancelled
+     * @param partialContent The part of the reply generated before the cancellation
+     */
+    private void abortTurnInBackground(PendingTurn turn, String partialContent) {
+        Mono.fromRunnable(() -> transactionTemplate.executeWithoutResult(status -> abortTurn(turn, partialContent)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(null, error -> log.warn("No se pudo registrar el turno cancelado del mensaje {}", turn.userMessageId(), error));
+    }
+
+    /**
+     * Builds the reply given instead of the model's while the circuit to the model is open.
+     * The conversation turn has already been discarded, so this reply is not stored.
+     *
+     * @param personality The personality selected for the turn
+     * @return A complete response carrying the personality's fallback reply
+     */
+    private OllamaResponse fallbackResponse(Personality personality) {
+        String reply = personality.getFallbackReply() != null && !personality.getFallbackReply().isBlank()
+                ? personality.getFallbackReply()
+                : DEFAULT_FALLBACK_REPLY;
+        return new OllamaResponse(iaModel, LocalDateTime.now().toString(), reply, true, "fallback", null);
+    }
+
+    /**
+     * Determines which personality to use for a given prompt.
+     *
+     * @param promptDTO   The prompt data containing an optional personality ID
+     * @param recentTurns The most recent turns of the conversation, oldest first
      * @return The personality to use for the AI response
      * @throws ResourceNotFoundException if the specified personality doesn't exist or no personalities are available
      */
-    private Personality getPersonalityForPrompt(PromptDTO promptDTO, Conversation conversation) {
+    private Personality getPersonalityForPrompt(PromptDTO promptDTO, List<ConversationHistory.Turn> recentTurns) {
         // If a specific personality ID is provided in the prompt, use that
         if (promptDTO.getPersonalityId() != null) {
             return personalityCache.getPersonalityById(promptDTO.getPersonalityId())
@@ -111,10 +509,13 @@ public class LlamaApiService {
         }
 
         // If there are previous responses in the conversation, use the same personality as the last response
-        if (!conversation.getAiResponses().isEmpty()) {
-            AIResponse lastResponse = conversation.getAiResponses().get(conversation.getAiResponses().size() - 1);
-            if (lastResponse.getPersonality() != null) {
-                return lastResponse.getPersonality();
+        for (int i = recentTurns.size() - 1; i >= 0; i--) {
+            AIResponse lastResponse = recentTurns.get(i).response();
+            if (lastResponse != null) {
+                if (lastResponse.getPersonality() != null) {
+                    return lastResponse.getPersonality();
+                }
+                break;
             }
         }
 
@@ -138,9 +539,12 @@ public class LlamaApiService {
 
     /**
      * Gets an existing conversation for a user or creates a new one if none exists.
+     * Its messages and responses are not loaded; see {@link #loadRecentTurns(Conversation)}.
+     * An existing conversation stays locked until the transaction ends, so concurrent turns
+     * of the user take consecutive positions.
      *
      * @param user The user whose conversation to get or create
-     * @return The conversation entity with all messages and responses loaded
+     * @return The conversation entity
      */
     private Conversation getOrCreateConversation(User user) {
         Conversation conversation = user.getConversation();
@@ -148,13 +552,29 @@ public class LlamaApiService {
             // Create a new conversation if the user doesn't have one
             conversation = initializeNewConversation(user);
         } else {
-            // Load the full conversation with all messages and responses
-            conversation = conversationRepository.findWithMessagesAndResponses(conversation.getId())
+            conversation = conversationRepository.findForUpdateById(conversation.getId())
                     .orElse(conversation);
         }
         return conversation;
     }
 
+    /**
+     * Loads the most recent turns of a conversation, up to the configured window, in a single query.
+     * Older turns are never sent to the model: the token budget keeps far fewer, and the summary covers the rest.
+     *
+     * @param conversation The conversation
+     * @return A mutable list of the most recent turns, oldest first
+     */
+    private List<ConversationHistory.Turn> loadRecentTurns(Conversation conversation) {
+        if (conversation.getId() == null) {
+            return new ArrayList<>();
+        }
+        List<ConversationHistory.Turn> turns = new ArrayList<>(
+                userMessageRepository.findRecentTurns(conversation.getId(), Limit.of(historyMaxTurns)));
+        Collections.reverse(turns);
+        return turns;
+    }
+
     /**
      * Initializes a new conversation for a user.
      *
@@ -170,98 +590,266 @@ public class LlamaApiService {
     }
 
     /**
-     * Adds a user message to a conversation.
+     * Appends a user message to a conversation. Only the message is inserted; the conversation's
+     * list of messages is left untouched, so nothing else is loaded or rewritten.
      *
      * @param conversation The conversation to add the message to
+     * @param seq          The position of the message in the conversation
      * @param content      The content of the user message
      * @return The newly created user message entity
      */
-    private UserMessage addUserMessageToConversation(Conversation conversation, String content) {
+    private UserMessage addUserMessageToConversation(Conversation conversation, int seq, String content) {
         // Create and save the user message
         UserMessage newUserMessage = new UserMessage(content);
         newUserMessage.setConversation(conversation);
-        conversation.getUserMessages().add(newUserMessage);
+        newUserMessage.setSeq(seq);
         return userMessageRepository.save(newUserMessage);
     }
 
     /**
-     * Adds an AI response to a conversation.
+     * Appends an AI response to a conversation. As with messages, only the response is inserted.
      *
      * @param conversation The conversation to add the response to
      * @param content      The content of the AI response
      * @param userMessage  The user message that this response is replying to
      * @param personality  The personality used to generate this response
+     * @param aborted      Whether the generation was cancelled before it finished
      * @return The newly created AI response entity
      */
-    private AIResponse addAssistantMessageToConversation(Conversation conversation, String content, UserMessage userMessage, Personality personality) {
+    private AIResponse addAssistantMessageToConversation(Conversation conversation, String content, UserMessage userMessage,
+                                                         Personality personality, boolean aborted) {
         // Create and save the AI response
         AIResponse aiResponse = new AIResponse(content);
+        aiResponse.setAborted(aborted);
         aiResponse.setConversation(conversation);
         aiResponse.setUserMessage(userMessage);
         aiResponse.setPersonality(personality);
-        conversation.getAiResponses().add(aiResponse);
         return aiResponseRepository.save(aiResponse);
     }
 
     /**
      * Processes a prompt with conversation history and the selected personality.
+     * This is the model call of a turn and runs outside of any transaction. If the personality
+     * allows it, an identical earlier prompt is answered from the response cache instead, and the
+     * first message of a conversation from the semantic cache when it is close enough to an earlier one.
+     *
+     * @param turn The pending turn carrying the request built from the conversation history
+     * @return A Mono emitting the response from the AI model
+     */
+    private Mono<OllamaResponse> processPromptWithHistory(PendingTurn turn) {
+        return Mono.defer(() -> {
+            String cacheKey = responseCacheKey(turn);
+            OllamaResponse cached = cacheKey != null ? responseCache.get(cacheKey) : null;
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            // Deferred so the model is only called if the semantic cache has no answer
+            Mono<OllamaResponse> generation = Mono.defer(() -> iaService.sendPromptAsync(turn.ollamaDTO(), turn.requestContext()))
+                    .doOnNext(iaResponse -> {
+                        if (cacheKey != null) {
+                            responseCache.put(cacheKey, iaResponse);
+                        }
+                    });
+            if (!isSemanticCacheable(turn)) {
+                return generation;
+            }
+
+            String scope = semanticCacheScope(turn.personality());
+            return embedPrompt(turn)
+                    .flatMap(embedding -> {
+                        if (embedding.length == 0) {
+                            return generation;
+                        }
+                        OllamaResponse similar = semanticCache.get(scope, embedding);
+                        if (similar != null) {
+                            return Mono.just(similar);
+                        }
+                        return generation.doOnNext(iaResponse -> semanticCache.put(scope, embedding, iaResponse));
+                    });
+        });
+    }
+
+    /**
+     * Decides whether a turn can be answered from the semantic cache: only first messages without recalled
+     * memories qualify, since the others depend on what the user said before.
      *
-     * @param conversation The current conversation containing message history
+     * @param turn The pending turn
+     * @return Whether the semantic cache applies
+     */
+    private boolean isSemanticCacheable(PendingTurn turn) {
+        return semanticCacheEnabled && turn.semanticCacheable() && turn.personality().isResponseCacheEnabled();
+    }
+
+    /**
+     * Computes the embedding of the user's message. An embedding error only means the cache is skipped.
+     *
+     * @param turn The pending turn
+     * @return A Mono emitting the embedding, or an empty array if it could not be computed
+     */
+    private Mono<float[]> embedPrompt(PendingTurn turn) {
+        return iaService.embed(embeddingModel, turn.userPrompt(), turn.requestContext())
+                .onErrorResume(e -> {
+                    log.debug("No se pudo calcular el embedding del mensaje {}", turn.userMessageId(), e);
+                    return Mono.just(new float[0]);
+                })
+                .defaultIfEmpty(new float[0]);
+    }
+
+    /**
+     * Computes the semantic cache scope of a personality, so replies are only shared between prompts
+     * sent to the same personality with the same model and base prompt.
+     *
+     * @param personality The personality selected for the turn
+     * @return The scope
+     */
+    private String semanticCacheScope(Personality personality) {
+        return personality.getId() + "-" + contextKey(personality);
+    }
+
+    /**
+     * Computes the response cache key of a turn.
+     *
+     * @param turn The pending turn
+     * @return The key, or null if the turn must not be answered from the cache
+     */
+    private String responseCacheKey(PendingTurn turn) {
+        if (!responseCacheEnabled || !turn.personality().isResponseCacheEnabled()) {
+            return null;
+        }
+        return responseCache.keyFor(turn.ollamaDTO());
+    }
+
+    /**
+     * Builds the Ollama request for a conversation using the selected personality, the summary of the older
+     * turns if there is one, the relevant past exchanges recalled from the long-term memory, and as much
+     * recent history as fits in the model's token budget. When the conversation holds a reusable Ollama
+     * context, only the new user message is sent along with it, since the base prompt and the history are
+     * already evaluated in that context.
+     *
+     * @param conversation The current conversation
+     * @param history      The recent history of the conversation, ending with the new user message
      * @param personality  The personality to use for the AI response
-     * @return The response from the AI model
+     * @param userMessage  The user message that has just been added to the conversation
+     * @param stream       Whether the response should be streamed
+     * @param memories     Past exchanges of the user relevant to the message, most relevant first
+     * @return The request to send to the Ollama service
      */
-    private OllamaResponse processPromptWithHistory(Conversation conversation, Personality personality) {
-        // Get the base prompt from the personality
-        String basePrompt = personality.getBasePrompt();
-        // Build a prompt with the conversation history using a sliding window
-        String historyPrompt = buildPromptWithWindow(conversation, 8);
-        // Combine the base prompt and history prompt
-        String fullPrompt = basePrompt + "\n\n" + historyPrompt;
+    private OllamaDTO buildOllamaRequest(Conversation conversation, ConversationHistory history, Personality personality,
+                                         UserMessage userMessage, boolean stream, List<ConversationMemory.Memory> memories) {
+        int[] context = getReusableContext(conversation, personality);
+        if (context != null) {
+            OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(
+                    new PromptDTO(USER_ROLE + ": " + userMessage.getContent() + "\n"), iaModel, stream);
+            ollamaDTO.setContext(context);
+            return ollamaDTO;
+        }
+
+        // Get the base prompt from the personality, followed by the summary of the older turns
+        String basePrompt = personality.getBasePrompt() + "\n\n";
+        if (conversation.getSummary() != null) {
+            basePrompt += SUMMARY_HEADER + conversation.getSummary() + "\n\n";
+        }
+        // Create a DTO for the Ollama service, the history is added once its budget is known
+        OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(basePrompt), iaModel, stream);
 
-        // Create a DTO for the Ollama service and send the prompt
-        OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(fullPrompt), iaModel);
-        return iaService.sendPrompt(ollamaDTO);
+        // The base prompt and the reply share the model's tokens with the history and the recalled exchanges
+        int historyBudget = tokenEstimator.historyBudget(iaModel, basePrompt, ollamaDTO.getNumPredict());
+        String memoryPrompt = buildMemoryPrompt(history, memories, Math.min(memoryMaxTokens, historyBudget / 2));
+        historyBudget -= tokenEstimator.estimate(memoryPrompt);
+        ollamaDTO.setPrompt(basePrompt + memoryPrompt + buildPromptWithinBudget(history, historyBudget));
+        return ollamaDTO;
     }
 
     /**
-     * Builds a prompt string containing the most recent conversation history.
-     * Uses a sliding window approach to limit the context size.
+     * Builds the part of the prompt holding the past exchanges recalled from the long-term memory.
+     * Exchanges of the current conversation that are not in the summary yet are left out, since they are
+     * already part of the recent history.
      *
-     * @param conversation The conversation containing the message history
-     * @param windowSize   The maximum number of message pairs to include
-     * @return A formatted string containing the conversation history
+     * @param history     The history of the current conversation
+     * @param memories    The recalled exchanges, most relevant first
+     * @param tokenBudget The maximum estimated number of tokens of the recalled exchanges
+     * @return The recalled exchanges under a header, or an empty string if none fit
      */
-    private String buildPromptWithWindow(Conversation conversation, int windowSize) {
+    private String buildMemoryPrompt(ConversationHistory history, List<ConversationMemory.Memory> memories, int tokenBudget) {
+        if (memories.isEmpty()) {
+            return "";
+        }
+        Set<Long> recentMessageIds = new HashSet<>();
+        for (ConversationHistory.Turn turn : history.getTurnsAfterSummary()) {
+            recentMessageIds.add(turn.userMessage().getId());
+        }
+
         StringBuilder sb = new StringBuilder();
-        List<UserMessage> userMessages = conversation.getUserMessages();
-
-        // Calculate the starting index based on the window size
-        int startIndex = Math.max(0, userMessages.size() - windowSize);
-
-        // Iterate through the messages within the window
-        for (int i = startIndex; i < userMessages.size(); i++) {
-            UserMessage userMessage = userMessages.get(i);
-            // Add the user message
-            sb.append(USER_ROLE).append(": ").append(userMessage.getContent()).append("\n");
-
-            // Find and add the corresponding AI response if it exists
-            conversation.getAiResponses().stream()
-                    .filter(ar -> ar.getUserMessage() != null && ar.getUserMessage().getId().equals(userMessage.getId()))
-                    .findFirst()
-                    .ifPresent(aiResponse ->
-                            sb.append(ASSISTANT_ROLE).append(": ").append(aiResponse.getContent()).append("\n"));
+        int usedTokens = tokenEstimator.estimate(MEMORY_HEADER);
+        for (ConversationMemory.Memory memory : memories) {
+            int memoryTokens = tokenEstimator.estimate(memory.content());
+            if (recentMessageIds.contains(memory.userMessageId()) || usedTokens + memoryTokens > tokenBudget) {
+                continue;
+            }
+            sb.append(memory.content());
+            usedTokens += memoryTokens;
         }
+        return sb.isEmpty() ? "" : MEMORY_HEADER + sb + "\n";
+    }
 
-        return sb.toString();
+    /**
+     * Formats a turn as it appears in the prompt.
+     *
+     * @param userContent The user's message
+     * @param aiContent   The AI's reply
+     * @return The formatted turn
+     */
+    private String formatTurn(String userContent, String aiContent) {
+        return USER_ROLE + ": " + userContent + "\n" + ASSISTANT_ROLE + ": " + aiContent + "\n";
     }
 
-    @Deprecated
-    private String buildPromptWithNewModel(Conversation conversation) {
-        return buildPromptWithWindow(conversation, conversation.getUserMessages().size());
+    /**
+     * Builds a prompt string containing the most recent conversation history.
+     * Turns are added from the newest back while they fit in the token budget, stopping at the turns
+     * already condensed into the summary. The newest turn, which holds the message being answered,
+     * is always included.
+     *
+     * @param history     The history of the conversation, with each message already paired with its response
+     * @param tokenBudget The maximum estimated number of tokens of the history
+     * @return A formatted string containing the conversation history
+     */
+    private String buildPromptWithinBudget(ConversationHistory history, int tokenBudget) {
+        Deque<String> turns = new ArrayDeque<>();
+        List<ConversationHistory.Turn> recentTurns = history.getTurnsAfterSummary();
+        int usedTokens = 0;
+
+        // Iterate through the turns from the newest back
+        for (int i = recentTurns.size() - 1; i >= 0; i--) {
+            ConversationHistory.Turn turn = recentTurns.get(i);
+
+            // Skip turns whose generation was cancelled, the model never answered them
+            if (turn.isAborted()) {
+                continue;
+            }
+
+            // Format the user message and the AI response
+            StringBuilder sb = new StringBuilder();
+            sb.append(USER_ROLE).append(": ").append(turn.userMessage().getContent()).append("\n");
+            if (turn.response() != null) {
+                sb.append(ASSISTANT_ROLE).append(": ").append(turn.response().getContent()).append("\n");
+            }
+
+            // Stop at the first turn that does not fit, so the history has no gaps
+            int turnTokens = tokenEstimator.estimate(sb.toString());
+            if (!turns.isEmpty() && usedTokens + turnTokens > tokenBudget) {
+                break;
+            }
+            turns.addFirst(sb.toString());
+            usedTokens += turnTokens;
+        }
+
+        return String.join("", turns);
     }
 
     /**
      * Clears all messages from a user's conversation.
+     * The conversation is locked first, like a turn does, so a turn being stored finishes before the clear
+     * and a turn answered afterwards finds its message gone instead of writing back to the cleared conversation.
      *
      * @param userId The ID of the user whose conversation should be cleared
      */
@@ -269,15 +857,23 @@ public class LlamaApiService {
     public void clearConversation(String userId) {
         // Find the user by ID
         User user = findUserById(Long.parseLong(userId));
-        Conversation conversation = user.getConversation();
+        Conversation conversation = user.getConversation() == null ? null
+                : conversationRepository.findForUpdateById(user.getConversation().getId()).orElse(null);
 
-        // If the user has an active conversation, clear all messages
+        // If the user has an active conversation, clear all messages with one statement per table,
+        // responses first since they point to the messages
         if (conversation != null) {
-            conversation.getUserMessages().clear();
-            conversation.getAiResponses().clear();
+            aiResponseRepository.deleteByConversationId(conversation.getId());
+            userMessageRepository.deleteByConversationId(conversation.getId());
+            conversation.setLlmContext(null);
+            conversation.setLlmContextKey(null);
+            conversation.setSummary(null);
+            conversation.setSummarizedUpToMessageId(null);
 
             // Save the empty conversation
             conversationRepository.save(conversation);
+            // The stored embeddings are deleted along with the messages
+            conversationMemory.forget(user.getId());
         }
     }
 
@@ -291,51 +887,21 @@ public class LlamaApiService {
      * @throws ForbiddenEventException if the prompt is not about creating an event or if the event date is in the past
      */
     public EventDTO createEventWithAI(PromptDTO promptDTO, Long userId) {
-        // Find the user by ID
-        User user = findUserById(userId);
-
-        // Validate that the prompt is about creating an event
-        if (!isCreateEventPrompt(promptDTO.getPrompt())) {
-            throw new ForbiddenEventException("La solicitud no es para crear un evento. Por favor, solicite crear un evento.");
-        }
-
-        // Create a special prompt instructing the AI to generate event details in JSON format
-        LocalDateTime now = LocalDateTime.now();
-        String aiPrompt = "Genera detalles de un evento basado en la siguiente descripción. " +
-                "La fecha y hora actual es: " + now + ". " +
-                "Interpreta referencias relativas de fechas como 'mañana', 'hoy', 'pasado mañana', etc. correctamente basado en la fecha actual. " +
-                "Por ejemplo, si hoy es " + now.toLocalDate() + ", entonces 'mañana' se refiere a " + now.toLocalDate().plusDays(1) + ". " +
-                "El evento DEBE estar programado en el futuro (después de la fecha y hora actual). " +
-                "Responde ÚNICAMENTE con un objeto JSON que contenga estos campos: " +
-                "title, startTime (en formato yyyy-MM-dd'T'HH:mm:ss), " +
-                "endTime (en formato yyyy-MM-dd'T'HH:mm:ss), location, y description. " +
-                "No incluyas ningún otro texto en tu respuesta. " +
-                "Aquí está la descripción del evento: " + promptDTO.getPrompt();
-
-        // Create a DTO for the Ollama service and send the prompt
-        OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(aiPrompt), iaModel);
-        OllamaResponse iaResponse = iaService.sendPrompt(ollamaDTO);
-
-        // Parse the AI response to extract event details
-        try {
-            // Extract JSON from the response
-            String jsonResponse = iaResponse.getResponse().trim();
-
-            // Create EventCreateDTO from the parsed JSON
-            EventCreateDTO eventCreateDTO = parseEventFromAIResponse(jsonResponse);
-
-            // Validate that the event date is in the future
-            if (eventCreateDTO.getStartTime().isBefore(now)) {
-                throw new ForbiddenEventException("No se puede crear un evento en el pasado. Por favor, especifique una fecha futura.");
-            }
+        return createEventWithAIAsync(promptDTO, userId).block();
+    }
 
-            // Convert EventCreateDTO to EventDTO without creating an Event entity
-            return EventMapper.createDTOFromCreateDTO(eventCreateDTO, userId);
-        } catch (ForbiddenEventException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException("Error al generar el JSON del evento desde la respuesta de la IA: " + e.getMessage(), e);
-        }
+    /**
+     * Non-blocking variant of {@link #createEventWithAI(PromptDTO, Long)}.
+     * No thread is held while the AI model is generating the event details.
+     *
+     * @param promptDTO The prompt data transfer object containing the user's message
+     * @param userId The ID of the user requesting the event JSON
+     * @return A Mono emitting the event details, or a ForbiddenEventException error if the
+     *         prompt is not about creating an event or if the event date is in the past
+     */
+    public Mono<EventDTO> createEventWithAIAsync(PromptDTO promptDTO, Long userId) {
+        return generateEventAsync("event", promptDTO, userId,
+                "Error al generar el JSON del evento desde la respuesta de la IA: ");
     }
 
     /**
@@ -378,18 +944,66 @@ public class LlamaApiService {
      * @throws ForbiddenEventException if the prompt is not about creating an event or if the event date is in the past
      */
     public EventDTO createFutureEventWithAI(PromptDTO promptDTO, Long userId) {
-        // Find the user by ID
-        User user = findUserById(userId);
+        return createFutureEventWithAIAsync(promptDTO, userId).block();
+    }
 
-        // Validate that the prompt is about creating an event
-        if (!isCreateEventPrompt(promptDTO.getPrompt())) {
-            throw new ForbiddenEventException("La solicitud no es para crear un evento. Por favor, solicite crear un evento.");
-        }
+    /**
+     * Non-blocking variant of {@link #createFutureEventWithAI(PromptDTO, Long)}.
+     * No thread is held while the AI model is generating the event details.
+     *
+     * @param promptDTO The prompt data transfer object containing the user's message
+     * @param userId The ID of the user requesting the event JSON
+     * @return A Mono emitting the event details, or a ForbiddenEventException error if the
+     *         prompt is not about creating an event or if the event date is in the past
+     */
+    public Mono<EventDTO> createFutureEventWithAIAsync(PromptDTO promptDTO, Long userId) {
+        return generateEventAsync("future-event", promptDTO, userId,
+                "Error al generar el JSON del evento futuro desde la respuesta de la IA: ");
+    }
+
+    /**
+     * Validates an event prompt, asks the AI for the event details and maps them to an EventDTO.
+     * The validation runs on a worker thread; the AI call itself does not block any thread.
+     * Identical requests of the same user in progress at the same time (e.g. retries) share one generation.
+     *
+     * @param kind         Which kind of event is generated, so different endpoints are never merged
+     * @param promptDTO    The prompt data transfer object containing the user's message
+     * @param userId       The ID of the user requesting the event JSON
+     * @param errorMessage The message prefix used when the AI response cannot be turned into an event
+     * @return A Mono emitting the generated event details
+     */
+    private Mono<EventDTO> generateEventAsync(String kind, PromptDTO promptDTO, Long userId, String errorMessage) {
+        // The prompt sent to the model includes the current time, so identical requests are recognised by user and prompt
+        String coalescingKey = kind + "-" + userId + "-" + promptDTO.getPrompt();
+        return requestCoalescer.execute(coalescingKey, () -> Mono.fromCallable(() -> {
+                    // Find the user by ID
+                    findUserById(userId);
+
+                    // Validate that the prompt is about creating an event
+                    if (!isCreateEventPrompt(promptDTO.getPrompt())) {
+                        throw new ForbiddenEventException("La solicitud no es para crear un evento. Por favor, solicite crear un evento.");
+                    }
+                    return LocalDateTime.now();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(now -> {
+                    // Create a DTO for the Ollama service and send the prompt
+                    OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(buildEventPrompt(promptDTO.getPrompt(), now)), iaModel);
+                    return iaService.sendPromptAsync(ollamaDTO, OllamaRequestContext.forEvent(userId))
+                            .map(iaResponse -> toEventDTO(iaResponse, now, userId, errorMessage));
+                }));
+    }
 
-        // Create a special prompt instructing the AI to generate event details in JSON format
-        // Explicitly instruct the AI to create an event in the future
-        LocalDateTime now = LocalDateTime.now();
-        String aiPrompt = "Genera detalles de un evento basado en la siguiente descripción. " +
+    /**
+     * Creates a special prompt instructing the AI to generate event details in JSON format,
+     * explicitly asking for an event in the future.
+     *
+     * @param description The user's description of the event
+     * @param now         The current date and time used to resolve relative dates
+     * @return The prompt to send to the AI model
+     */
+    private String buildEventPrompt(String description, LocalDateTime now) {
+        return "Genera detalles de un evento basado en la siguiente descripción. " +
                 "La fecha y hora actual es: " + now + ". " +
                 "Interpreta referencias relativas de fechas como 'mañana', 'hoy', 'pasado mañana', etc. correctamente basado en la fecha actual. " +
                 "Por ejemplo, si hoy es " + now.toLocalDate() + ", entonces 'mañana' se refiere a " + now.toLocalDate().plusDays(1) + ". " +
@@ -398,12 +1012,20 @@ public class LlamaApiService {
                 "title, startTime (en formato yyyy-MM-dd'T'HH:mm:ss), " +
                 "endTime (en formato yyyy-MM-dd'T'HH:mm:ss), location, y description. " +
                 "No incluyas ningún otro texto en tu respuesta. " +
-                "Aquí está la descripción del evento: " + promptDTO.getPrompt();
-
-        // Create a DTO for the Ollama service and send the prompt
-        OllamaDTO ollamaDTO = OllamaMapping.toOllamaDTO(new PromptDTO(aiPrompt), iaModel);
-        OllamaResponse iaResponse = iaService.sendPrompt(ollamaDTO);
+                "Aquí está la descripción del evento: " + description;
+    }
 
+    /**
+     * Parses the AI response into an EventDTO, checking that the event is in the future.
+     *
+     * @param iaResponse   The response from the AI model
+     * @param now          The date and time the request was made
+     * @param userId       The ID of the user requesting the event JSON
+     * @param errorMessage The message prefix used when the response cannot be parsed
+     * @return A data transfer object containing the event details
+     * @throws ForbiddenEventException if the event date is in the past
+     */
+    private EventDTO toEventDTO(OllamaResponse iaResponse, LocalDateTime now, Long userId, String errorMessage) {
         // Parse the AI response to extract event details
         try {
             // Extract JSON from the response
@@ -422,7 +1044,7 @@ public class LlamaApiService {
         } catch (ForbiddenEventException e) {
             throw e;
         } catch (Exception e) {
-            throw new RuntimeException("Error al generar el JSON del evento futuro desde la respuesta de la IA: " + e.getMessage(), e);
+            throw new RuntimeException(errorMessage + e.getMessage(), e);
         }
     }
 
@@ -480,4 +1102,20 @@ public class LlamaApiService {
 
         throw new RuntimeException("Campo '" + fieldName + "' no encontrado en la respuesta JSON");
     }
+
+    /**
+     * A conversation turn whose user message has been stored and whose AI response is still pending.
+     */
+    private record PendingTurn(Long userId, Long conversationId, Long userMessageId, Personality personality,
+                               OllamaDTO ollamaDTO, String userPrompt, boolean semanticCacheable,
+                               int answeredTurnsAfterSummary) {
+
+        /**
+         * Context used to queue the turn fairly among the user's requests and to send
+         * every turn of the conversation to the same Ollama server.
+         */
+        OllamaRequestContext requestContext() {
+            return OllamaRequestContext.forConversation(userId, conversationId);
+        }
+    }
 }
@@ -1,21 +1,55 @@
 package com.blinky.apillama3blinky.service;
 
+import com.blinky.apillama3blinky.client.AdmissionController;
+import com.blinky.apillama3blinky.client.CircuitBreaker;
+import com.blinky.apillama3blinky.client.OllamaBackendPool;
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.client.RequestCoalescer;
 import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.dto.OllamaEmbeddingDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaEmbeddingResponse;
 import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.mapping.OllamaMapping;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Service responsible for communicating with the Ollama API.
  * Handles sending prompts to the language model and receiving responses.
+ * Identical generate calls of the same user made at the same time are merged into one, so retries of
+ * a prompt do not each start a generation. Calls go through the circuit breaker, which refuses them
+ * straight away while Ollama keeps failing, and then wait in the admission controller of their
+ * workload, so chat and event extraction each have their own capacity (bulkhead) shared fairly
+ * between users. Admitted calls are spread over the configured Ollama servers by the backend pool,
+ * which keeps the turns of a conversation on the same server whenever the routing policy allows it.
  */
 @Service
 public class OllamaService {
 
-    private final WebClient iaWebClient;
+    // API endpoint for text generation
+    private static final String GENERATE_URL = "/api/generate";
+    // API endpoint for text embeddings
+    private static final String EMBEDDINGS_URL = "/api/embeddings";
 
-    public OllamaService(WebClient iaWebClient) {
-        this.iaWebClient = iaWebClient;
+    private final OllamaBackendPool backendPool;
+    private final AdmissionController chatAdmissionController;
+    private final AdmissionController eventAdmissionController;
+    private final CircuitBreaker circuitBreaker;
+    private final RequestCoalescer requestCoalescer;
+
+    public OllamaService(OllamaBackendPool backendPool,
+                         @Qualifier("chatAdmissionController") AdmissionController chatAdmissionController,
+                         @Qualifier("eventAdmissionController") AdmissionController eventAdmissionController,
+                         CircuitBreaker circuitBreaker,
+                         RequestCoalescer requestCoalescer) {
+        this.backendPool = backendPool;
+        this.chatAdmissionController = chatAdmissionController;
+        this.eventAdmissionController = eventAdmissionController;
+        this.circuitBreaker = circuitBreaker;
+        this.requestCoalescer = requestCoalescer;
     }
 
     /**
@@ -25,15 +59,101 @@ public class OllamaService {
      * @return The response from the Ollama API containing the generated text
      */
     public OllamaResponse sendPrompt(OllamaDTO ollamaDTO) {
-        // Define the API endpoint for text generation
-        String url = "/api/generate";
-
-        // Make a POST request to the Ollama API
-        return iaWebClient.post()
-                .uri(url)
-                .bodyValue(ollamaDTO)
-                .retrieve()
-                .bodyToMono(OllamaResponse.class)
-                .block();
+        return sendPromptAsync(ollamaDTO).block();
+    }
+
+    /**
+     * Sends a prompt to the Ollama API without blocking the calling thread.
+     * The request is only sent when the returned Mono is subscribed to.
+     *
+     * @param ollamaDTO Data transfer object containing the prompt and model configuration
+     * @return A Mono emitting the response from the Ollama API once generation has finished
+     */
+    public Mono<OllamaResponse> sendPromptAsync(OllamaDTO ollamaDTO) {
+        return sendPromptAsync(ollamaDTO, OllamaRequestContext.anonymous());
+    }
+
+    /**
+     * Sends a prompt made on behalf of a user to the Ollama API without blocking the calling thread.
+     *
+     * @param ollamaDTO Data transfer object containing the prompt and model configuration
+     * @param context   Who the call is made for, used for fair admission, routing and choosing the bulkhead
+     * @return A Mono emitting the response from the Ollama API once generation has finished,
+     *         or failing with TooManyRequestsException if the call could not be queued
+     *         or CircuitOpenException if Ollama has been failing
+     */
+    public Mono<OllamaResponse> sendPromptAsync(OllamaDTO ollamaDTO, OllamaRequestContext context) {
+        // Join an identical call in progress, or wait for a free slot and make a POST request
+        // to the Ollama server chosen by the routing policy
+        return requestCoalescer.execute(coalescingKey(ollamaDTO, context), () ->
+                circuitBreaker.execute(admissionController(context).admit(context.userKey(),
+                        backendPool.execute(context.routingKey(), true, webClient -> webClient.post()
+                                .uri(GENERATE_URL)
+                                .bodyValue(ollamaDTO)
+                                .retrieve()
+                                .bodyToMono(OllamaResponse.class)))));
+    }
+
+    /**
+     * Sends a prompt to the Ollama API with streaming enabled and relays the generated chunks.
+     * Ollama answers with newline-delimited JSON, one object per generated fragment,
+     * and the last object has {@code done} set to true.
+     *
+     * The admission slot is held until the stream ends.
+     *
+     * @param ollamaDTO Data transfer object containing the prompt and model configuration (with stream enabled)
+     * @param context   Who the call is made for, used for fair admission, routing and choosing the bulkhead
+     * @return A stream of partial responses from the Ollama API, ending with the done chunk
+     */
+    public Flux<OllamaResponse> streamPrompt(OllamaDTO ollamaDTO, OllamaRequestContext context) {
+        // Wait for a free slot, then make a POST request to the chosen Ollama server and decode each NDJSON line as it arrives
+        return circuitBreaker.executeMany(admissionController(context).admitMany(context.userKey(),
+                backendPool.executeMany(context.routingKey(), webClient -> webClient.post()
+                        .uri(GENERATE_URL)
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .bodyValue(ollamaDTO)
+                        .retrieve()
+                        .bodyToFlux(OllamaResponse.class))));
+    }
+
+    /**
+     * Computes the embedding of a text with an Ollama embedding model.
+     * Embeddings are quick to compute, so they skip the admission queue and are never hedged;
+     * the circuit breaker still applies.
+     *
+     * @param model   Name of the embedding model
+     * @param text    The text to embed
+     * @param context Who the call is made for, used for routing
+     * @return A Mono emitting the embedding vector
+     */
+    public Mono<float[]> embed(String model, String text, OllamaRequestContext context) {
+        return circuitBreaker.execute(backendPool.execute(context.routingKey(), webClient -> webClient.post()
+                        .uri(EMBEDDINGS_URL)
+                        .bodyValue(new OllamaEmbeddingDTO(model, text))
+                        .retrieve()
+                        .bodyToMono(OllamaEmbeddingResponse.class)))
+                .map(OllamaEmbeddingResponse::getEmbedding);
+    }
+
+    /**
+     * Builds the key under which identical generate calls are merged.
+     * Only calls made for the same user, conversation and workload are merged: a merged call runs under
+     * the admission slot and routing of the call that started it, so a call of another user must not join it.
+     *
+     * @param ollamaDTO The request to the model
+     * @param context   Who the call is made for
+     * @return The coalescing key
+     */
+    private static String coalescingKey(OllamaDTO ollamaDTO, OllamaRequestContext context) {
+        return "generate-" + context.workload() + "-" + context.userKey() + "-" + context.routingKey()
+                + "-" + OllamaMapping.fingerprint(ollamaDTO);
+    }
+
+    private AdmissionController admissionController(OllamaRequestContext context) {
+        // Background summaries share the event bulkhead so they never take the slots of the chat
+        return switch (context.workload()) {
+            case CHAT -> chatAdmissionController;
+            case EVENT, SUMMARY -> eventAdmissionController;
+        };
     }
 }
@@ -156,6 +156,8 @@ public class PersonalityService {
         personality.setName(personalityDetails.getName());
         personality.setBasePrompt(personalityDetails.getBasePrompt());
         personality.setDescription(personalityDetails.getDescription());
+        personality.setFallbackReply(personalityDetails.getFallbackReply());
+        personality.setResponseCacheEnabled(personalityDetails.isResponseCacheEnabled());
 
         // Save the updated entity
         return personalityRepository.save(personality);
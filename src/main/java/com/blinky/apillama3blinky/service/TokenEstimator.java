@@ -0,0 +1,86 @@
+package com.blinky.apillama3blinky.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how many tokens a text takes and how many tokens a prompt may use with each model.
+ * <p>
+ * The estimate divides the number of characters by an average number of characters per token, which is
+ * close enough to size the conversation history without calling the model's tokenizer. The token limit
+ * of a model is the context window it is run with in Ollama, and it is shared by the prompt and the reply.
+ */
+@Component
+public class TokenEstimator {
+
+    private final double charsPerToken;
+    private final int defaultMaxTokens;
+    private final Map<String, Integer> maxTokensByModel = new HashMap<>();
+
+    /**
+     * @param charsPerToken    Average number of characters per token
+     * @param defaultMaxTokens Token limit of the models without their own
+     * @param modelMaxTokens   Token limits of specific models, as {@code model=tokens} entries
+     */
+    @Autowired
+    public TokenEstimator(@Value("${ia.token-budget.chars-per-token:3.5}") double charsPerToken,
+                          @Value("${ia.token-budget.max-tokens:2048}") int defaultMaxTokens,
+                          @Value("${ia.token-budget.models:}") List<String> modelMaxTokens) {
+        if (charsPerToken <= 0 || defaultMaxTokens < 1) {
+            throw new IllegalArgumentException("Configuración del presupuesto de tokens no válida");
+        }
+        this.charsPerToken = charsPerToken;
+        this.defaultMaxTokens = defaultMaxTokens;
+        for (String entry : modelMaxTokens) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            // Split on the last '=' since model names may contain other separators, e.g. llama3.2:3b
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Límite de tokens no válido: " + entry);
+            }
+            maxTokensByModel.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+    }
+
+    /**
+     * Estimates the number of tokens of a text.
+     *
+     * @param text The text
+     * @return The estimated number of tokens, 0 for an empty text
+     */
+    public int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (int) Math.ceil(text.codePointCount(0, text.length()) / charsPerToken);
+    }
+
+    /**
+     * Gets the token limit of a model, shared by the prompt and the reply.
+     *
+     * @param model Name of the model
+     * @return The token limit
+     */
+    public int maxTokens(String model) {
+        return maxTokensByModel.getOrDefault(model, defaultMaxTokens);
+    }
+
+    /**
+     * Computes the tokens left for the conversation history once the base prompt and the reply are accounted for.
+     *
+     * @param model      Name of the model
+     * @param basePrompt Text sent before the history
+     * @param numPredict Maximum number of tokens of the reply
+     * @return The tokens available for the history, never negative
+     */
+    public int historyBudget(String model, String basePrompt, int numPredict) {
+        return Math.max(0, maxTokens(model) - estimate(basePrompt) - Math.max(0, numPredict));
+    }
+}
@@ -0,0 +1,169 @@
+package com.blinky.apillama3blinky;
+
+import com.blinky.apillama3blinky.model.AIResponse;
+import com.blinky.apillama3blinky.model.Conversation;
+import com.blinky.apillama3blinky.model.ConversationHistory;
+import com.blinky.apillama3blinky.model.MessageEmbedding;
+import com.blinky.apillama3blinky.model.User;
+import com.blinky.apillama3blinky.model.UserMessage;
+import com.blinky.apillama3blinky.repository.AIResponseRepository;
+import com.blinky.apillama3blinky.repository.ConversationRepository;
+import com.blinky.apillama3blinky.repository.MessageEmbeddingRepository;
+import com.blinky.apillama3blinky.repository.UserMessageRepository;
+import com.blinky.apillama3blinky.repository.UserRepository;
+import com.blinky.apillama3blinky.service.LlamaApiService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for loading and clearing the history of a conversation in the database.
+ * <p>
+ * Uses the H2 in-memory database; each test stores users with conversations of several turns.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+public class ConversationHistoryIntegrationTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationRepository conversationRepository;
+
+    @Autowired
+    private UserMessageRepository userMessageRepository;
+
+    @Autowired
+    private AIResponseRepository aiResponseRepository;
+
+    @Autowired
+    private MessageEmbeddingRepository messageEmbeddingRepository;
+
+    @Autowired
+    private LlamaApiService llamaApiService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    public void setUp() {
+        userRepository.deleteAll();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void testFindRecentTurns_ShouldReturnOnlyTheNewestTurnsPaired() {
+        User user = storeUserWithTurns("history@example.com", 5);
+
+        List<ConversationHistory.Turn> turns = userMessageRepository.findRecentTurns(user.getConversation().getId(), Limit.of(3));
+
+        assertEquals(3, turns.size());
+        assertEquals("mensaje 5", turns.get(0).userMessage().getContent());
+        assertNull(turns.get(0).response());
+        assertEquals("mensaje 4", turns.get(1).userMessage().getContent());
+        assertEquals("respuesta 4", turns.get(1).response().getContent());
+        assertEquals("mensaje 3", turns.get(2).userMessage().getContent());
+        assertEquals("respuesta 3", turns.get(2).response().getContent());
+    }
+
+    @Test
+    public void testFindRecentTurns_WithWindowLargerThanConversation_ShouldReturnEveryTurn() {
+        User user = storeUserWithTurns("history@example.com", 5);
+
+        List<ConversationHistory.Turn> turns = userMessageRepository.findRecentTurns(user.getConversation().getId(), Limit.of(50));
+
+        assertEquals(5, turns.size());
+        assertEquals("mensaje 1", turns.get(4).userMessage().getContent());
+        assertTrue(turns.get(4).isAnswered());
+    }
+
+    @Test
+    public void testClearConversation_ShouldDeleteEverythingWithSameStatementsForAnyLength() {
+        User shortUser = storeUserWithTurns("short@example.com", 3);
+        User longUser = storeUserWithTurns("long@example.com", 300);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        statistics.clear();
+        llamaApiService.clearConversation(shortUser.getId().toString());
+        long shortStatements = statistics.getPrepareStatementCount();
+
+        statistics.clear();
+        llamaApiService.clearConversation(longUser.getId().toString());
+        long longStatements = statistics.getPrepareStatementCount();
+
+        assertEquals(shortStatements, longStatements);
+        // Only the user and its conversation were loaded, none of the messages or responses
+        assertEquals(2, statistics.getEntityLoadCount());
+        assertEquals(0, userMessageRepository.count());
+        assertEquals(0, aiResponseRepository.count());
+        assertEquals(0, messageEmbeddingRepository.count());
+        assertEquals(2, conversationRepository.count());
+    }
+
+    @Test
+    public void testStoringTurns_ShouldBatchInserts() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        storeUserWithTurns("batch@example.com", 300);
+
+        // 300 messages and 299 responses go out in batches of 50, with one sequence call per 50 IDs
+        assertTrue(statistics.getPrepareStatementCount() < 40,
+                "Sentencias preparadas: " + statistics.getPrepareStatementCount());
+        assertEquals(300, userMessageRepository.count());
+    }
+
+    /**
+     * Stores a user with a conversation of the given number of turns, the last one still waiting for its response.
+     * The first message also has a stored embedding.
+     */
+    private User storeUserWithTurns(String email, int turns) {
+        return transactionTemplate.execute(status -> {
+            User user = new User();
+            user.setEmail(email);
+            user.setPassword("password");
+            Conversation conversation = new Conversation("History");
+            conversation.setUser(user);
+            user.setConversation(conversation);
+
+            for (int i = 1; i <= turns; i++) {
+                UserMessage userMessage = new UserMessage("mensaje " + i);
+                userMessage.setConversation(conversation);
+                userMessage.setSeq(i - 1);
+                conversation.getUserMessages().add(userMessage);
+                if (i < turns) {
+                    AIResponse response = new AIResponse("respuesta " + i);
+                    response.setConversation(conversation);
+                    response.setUserMessage(userMessage);
+                    conversation.getAiResponses().add(response);
+                }
+            }
+            User saved = userRepository.save(user);
+            messageEmbeddingRepository.save(new MessageEmbedding(saved.getId(), conversation.getUserMessages().get(0),
+                    "nomic-embed-text", "user: mensaje 1\n", new byte[]{0, 0, -128, 63}));
+            return saved;
+        });
+    }
+}
@@ -8,6 +8,7 @@ import com.blinky.apillama3blinky.model.User;
 import com.blinky.apillama3blinky.repository.EventRepository;
 import com.blinky.apillama3blinky.repository.UserRepository;
 import com.blinky.apillama3blinky.security.JwtUtil;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,6 +18,7 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.test.context.ActiveProfiles;
@@ -24,7 +26,11 @@ import org.springframework.test.context.ActiveProfiles;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -39,6 +45,9 @@ import static org.junit.jupiter.api.Assertions.*;
  * - DELETE /api/events/{id} (delete an event)
  * - GET /api/events/search?title={title} (search events by title)
  * - GET /api/events/user/{userId} (get events by user ID)
+ * - GET /api/events?from={from}&to={to} (get events overlapping a time range)
+ * 
+ * The listings are paginated: each page carries the cursor of the next one in the X-Next-Cursor header.
  * 
  * Testing strategy:
  * 1. Tests both positive and negative scenarios for each endpoint
@@ -58,7 +67,9 @@ import static org.junit.jupiter.api.Assertions.*;
  * 2. Act: Send the HTTP request to the endpoint
  * 3. Assert: Verify the response status, body, and any side effects
  */
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties =
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+                "com.blinky.apillama3blinky.EventControllerIntegrationTest$SqlRecorder")
 @ActiveProfiles("test")
 public class EventControllerIntegrationTest {
 
@@ -77,6 +88,9 @@ public class EventControllerIntegrationTest {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private String baseUrl;
     private User regularUser;
     private User adminUser;
@@ -182,6 +196,172 @@ public class EventControllerIntegrationTest {
         assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
     }
 
+    @Test
+    public void testGetAllEvents_WithPageSize_ShouldReturnPagesLinkedByCursor() {
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<List<EventDTO>> firstPage = restTemplate.exchange(
+                baseUrl + "?size=2",
+                HttpMethod.GET,
+                request,
+                new ParameterizedTypeReference<List<EventDTO>>() {}
+        );
+
+        assertEquals(HttpStatus.OK, firstPage.getStatusCode());
+        assertEquals(2, firstPage.getBody().size());
+        assertEquals(regularUserEvents.get(0).getId(), firstPage.getBody().get(0).getId());
+        assertEquals(regularUserEvents.get(1).getId(), firstPage.getBody().get(1).getId());
+        String cursor = firstPage.getHeaders().getFirst("X-Next-Cursor");
+        assertNotNull(cursor);
+
+        ResponseEntity<List<EventDTO>> lastPage = restTemplate.exchange(
+                baseUrl + "?size=2&cursor=" + cursor,
+                HttpMethod.GET,
+                request,
+                new ParameterizedTypeReference<List<EventDTO>>() {}
+        );
+
+        assertEquals(HttpStatus.OK, lastPage.getStatusCode());
+        assertEquals(1, lastPage.getBody().size());
+        assertEquals(regularUserEvents.get(2).getId(), lastPage.getBody().get(0).getId());
+        assertNull(lastPage.getHeaders().getFirst("X-Next-Cursor"));
+    }
+
+    @Test
+    public void testGetAllEvents_AsAdminUser_WithSameStartTimes_ShouldReturnEveryEventOnce() {
+        // Events starting at the same time are ordered by ID, so none is skipped or repeated between pages
+        LocalDateTime startTime = LocalDateTime.now().plusDays(1).withNano(0);
+        for (int i = 0; i < 5; i++) {
+            createTestEvent(anotherUser, "Same Time Event " + i, startTime, startTime.plusHours(1));
+        }
+
+        List<EventDTO> events = fetchAllPages(baseUrl + "?size=4", adminUserHeaders);
+
+        int totalEvents = regularUserEvents.size() + adminUserEvents.size() + anotherUserEvents.size() + 5;
+        assertEquals(totalEvents, events.size());
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < events.size(); i++) {
+            assertTrue(ids.add(events.get(i).getId()), "Evento repetido: " + events.get(i).getId());
+            if (i > 0) {
+                assertFalse(events.get(i).getStartTime().isBefore(events.get(i - 1).getStartTime()));
+            }
+        }
+    }
+
+    @Test
+    public void testGetAllEvents_WithInvalidCursor_ShouldReturnBadRequest() {
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<String> response = restTemplate.exchange(
+                baseUrl + "?cursor=no-es-un-cursor",
+                HttpMethod.GET,
+                request,
+                String.class
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(response.getBody().contains("cursor"));
+    }
+
+    @Test
+    public void testGetAllEvents_WithZeroPageSize_ShouldReturnBadRequest() {
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<String> response = restTemplate.exchange(
+                baseUrl + "?size=0",
+                HttpMethod.GET,
+                request,
+                String.class
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    // ========== GET /api/events?from=&to= (Get Events in Range) Tests ==========
+
+    @Test
+    public void testGetEventsInRange_ShouldReturnOnlyOwnEventsOverlappingTheRange() {
+        LocalDateTime from = LocalDateTime.of(2030, 3, 4, 0, 0);
+        LocalDateTime to = from.plusWeeks(1);
+        Event startsBefore = createTestEvent(regularUser, "Starts Before", from.minusHours(2), from.plusHours(1));
+        Event inside = createTestEvent(regularUser, "Inside", from.plusDays(2), from.plusDays(2).plusHours(1));
+        Event endsAfter = createTestEvent(regularUser, "Ends After", to.minusHours(1), to.plusHours(1));
+        createTestEvent(regularUser, "Ends At Start", from.minusHours(1), from);
+        createTestEvent(regularUser, "Starts At End", to, to.plusHours(1));
+        createTestEvent(anotherUser, "Another User Inside", from.plusDays(2), from.plusDays(2).plusHours(1));
+
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<List<EventDTO>> response = restTemplate.exchange(
+                baseUrl + "?from=" + from + "&to=" + to,
+                HttpMethod.GET,
+                request,
+                new ParameterizedTypeReference<List<EventDTO>>() {}
+        );
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<Long> ids = response.getBody().stream().map(EventDTO::getId).toList();
+        assertEquals(List.of(startsBefore.getId(), inside.getId(), endsAfter.getId()), ids);
+    }
+
+    @Test
+    public void testGetEventsInRange_WithPageSize_ShouldReturnEveryEventAcrossPages() {
+        LocalDateTime from = LocalDateTime.now();
+        List<EventDTO> events = fetchAllPages(baseUrl + "?from=" + from + "&to=" + from.plusDays(30) + "&size=1",
+                regularUserHeaders);
+
+        assertEquals(regularUserEvents.size(), events.size());
+    }
+
+    @Test
+    public void testGetEventsInRange_WithoutEnd_ShouldReturnBadRequest() {
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<String> response = restTemplate.exchange(
+                baseUrl + "?from=" + LocalDateTime.of(2030, 3, 4, 0, 0),
+                HttpMethod.GET,
+                request,
+                String.class
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void testGetEventsInRange_WithEndBeforeStart_ShouldReturnBadRequest() {
+        LocalDateTime from = LocalDateTime.of(2030, 3, 4, 0, 0);
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<String> response = restTemplate.exchange(
+                baseUrl + "?from=" + from + "&to=" + from.minusDays(1),
+                HttpMethod.GET,
+                request,
+                String.class
+        );
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void testGetEventsInRange_QueryPlanShouldUseUserTimeRangeIndex() {
+        LocalDateTime from = LocalDateTime.of(2030, 3, 4, 0, 0);
+        LocalDateTime to = from.plusWeeks(1);
+        SqlRecorder.STATEMENTS.clear();
+        HttpEntity<?> request = new HttpEntity<>(regularUserHeaders);
+        ResponseEntity<String> response = restTemplate.exchange(
+                baseUrl + "?from=" + from + "&to=" + to + "&size=10",
+                HttpMethod.GET,
+                request,
+                String.class
+        );
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        String sql = SqlRecorder.STATEMENTS.stream()
+                .filter(statement -> statement.contains("end_time>"))
+                .findFirst()
+                .orElseThrow();
+        assertFalse(sql.contains(" join "), "La consulta no debe unir la tabla de usuarios: " + sql);
+
+        // The window asks for one more row than the page size to know whether there is a next page
+        String plan = jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, regularUser.getId(), to, from, 11);
+        assertNotNull(plan);
+        assertTrue(plan.toUpperCase().contains("IDX_EVENTS_USER_START_TIME_ID_END_TIME"), "Plan: " + plan);
+    }
+
     // ========== GET /api/events/{id} (Get Event by ID) Tests ==========
 
     @Test
@@ -584,8 +764,26 @@ public class EventControllerIntegrationTest {
         assertTrue(events.isEmpty());
     }
 
+    @Test
+    public void testSearchEvents_WithPageSize_ShouldReturnEveryMatchAcrossPages() {
+        List<EventDTO> events = fetchAllPages(baseUrl + "/search?title=Event&size=2", regularUserHeaders);
+
+        assertEquals(regularUserEvents.size(), events.size());
+        assertTrue(events.stream().allMatch(e -> e.getUserId().equals(regularUser.getId())));
+    }
+
     // ========== GET /api/events/user/{userId} (Get Events by User ID) Tests ==========
 
+    @Test
+    public void testGetEventsByUserId_WithPageSize_ShouldReturnEveryEventAcrossPages() {
+        List<EventDTO> events = fetchAllPages(baseUrl + "/user/" + anotherUser.getId() + "?size=1", adminUserHeaders);
+
+        assertEquals(anotherUserEvents.size(), events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(anotherUserEvents.get(i).getId(), events.get(i).getId());
+        }
+    }
+
     @Test
     public void testGetEventsByUserId_AsRegularUser_OwnEvents_ShouldSucceed() {
         // Send request as regular user for own events
@@ -650,6 +848,42 @@ public class EventControllerIntegrationTest {
 
     // ========== Helper Methods ==========
 
+    /**
+     * Records the SQL statements Hibernate prepares, so a test can look at the queries Spring Data generates.
+     */
+    public static class SqlRecorder implements StatementInspector {
+        static final Queue<String> STATEMENTS = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    /**
+     * Follows the X-Next-Cursor header from the first page to the last, checking that no page exceeds the
+     * requested size (given as the last query parameter of the URL).
+     */
+    private List<EventDTO> fetchAllPages(String url, HttpHeaders headers) {
+        int size = Integer.parseInt(url.substring(url.lastIndexOf("size=") + "size=".length()));
+        List<EventDTO> events = new ArrayList<>();
+        String cursor = null;
+        do {
+            ResponseEntity<List<EventDTO>> page = restTemplate.exchange(
+                    cursor == null ? url : url + "&cursor=" + cursor,
+                    HttpMethod.GET,
+                    new HttpEntity<>(headers),
+                    new ParameterizedTypeReference<List<EventDTO>>() {}
+            );
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            assertTrue(page.getBody().size() <= size);
+            events.addAll(page.getBody());
+            cursor = page.getHeaders().getFirst("X-Next-Cursor");
+        } while (cursor != null);
+        return events;
+    }
+
     private User createUser(String email, String username, boolean isAdmin) {
         User user = new User();
         user.setEmail(email);
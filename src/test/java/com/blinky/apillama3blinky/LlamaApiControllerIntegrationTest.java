@@ -1,7 +1,9 @@
 package com.blinky.apillama3blinky;
 
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
 import com.blinky.apillama3blinky.controller.response.PromptResponse;
+import com.blinky.apillama3blinky.exception.TooManyRequestsException;
 import com.blinky.apillama3blinky.model.Personality;
 import com.blinky.apillama3blinky.model.User;
 import com.blinky.apillama3blinky.repository.PersonalityRepository;
@@ -22,18 +24,27 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -41,6 +52,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * 
  * This test class provides complete test coverage for all LlamaApiController endpoints:
  * - POST /api/llama/send_prompt (send a prompt to the LLM)
+ * - POST /api/llama/send_prompt/stream (stream the LLM reply as it is generated)
  * - POST /api/llama/clear_conversation (clear the user's conversation history)
  * 
  * Testing strategy:
@@ -108,7 +120,7 @@ public class LlamaApiControllerIntegrationTest {
 
         // Mock the LlamaApiService
         PromptResponse mockResponse = new PromptResponse("This is a mock response from the LLM");
-        when(llamaApiService.sendPrompt(any(PromptDTO.class), any(Long.class))).thenReturn(mockResponse);
+        when(llamaApiService.sendPromptAsync(any(PromptDTO.class), any(Long.class))).thenReturn(Mono.just(mockResponse));
         doNothing().when(llamaApiService).clearConversation(anyString());
     }
 
@@ -127,11 +139,15 @@ public class LlamaApiControllerIntegrationTest {
         PromptDTO promptDTO = new PromptDTO("This is a test prompt");
         promptDTO.setPersonalityId(testPersonality.getId());
 
-        // Send request as regular user
-        mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt")
+        // Send request as regular user; the reply is written asynchronously
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt")
                 .header("Authorization", "Bearer " + regularUserToken)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(promptDTO)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.response").value("This is a mock response from the LLM"));
@@ -166,6 +182,94 @@ public class LlamaApiControllerIntegrationTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void testSendPrompt_WhenModelIsSaturated_ShouldReturnTooManyRequests() throws Exception {
+        // The admission queue is full
+        when(llamaApiService.sendPromptAsync(any(PromptDTO.class), any(Long.class)))
+                .thenReturn(Mono.error(new TooManyRequestsException("Demasiadas peticiones", 5)));
+
+        PromptDTO promptDTO = new PromptDTO("This is a test prompt");
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt")
+                .header("Authorization", "Bearer " + regularUserToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(promptDTO)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "5"))
+                .andExpect(jsonPath("$.message").value("Demasiadas peticiones"));
+    }
+
+    @Test
+    public void testSendPrompt_WhenDeadlinePasses_ShouldReturnGatewayTimeoutAndCancel() throws Exception {
+        // The model never answers
+        AtomicBoolean cancelled = new AtomicBoolean();
+        when(llamaApiService.sendPromptAsync(any(PromptDTO.class), any(Long.class)))
+                .thenReturn(Mono.<PromptResponse>never().doOnCancel(() -> cancelled.set(true)));
+
+        PromptDTO promptDTO = new PromptDTO("This is a test prompt");
+
+        // The client asks for a one second deadline
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt")
+                .header("Authorization", "Bearer " + regularUserToken)
+                .header("X-Request-Timeout", "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(promptDTO)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isGatewayTimeout());
+        assertTrue(cancelled.get());
+    }
+
+    // ========== POST /api/llama/send_prompt/stream (Stream Prompt) Tests ==========
+
+    @Test
+    public void testStreamPrompt_AsAuthenticatedUser_ShouldStreamChunks() throws Exception {
+        // Mock a reply split in two tokens followed by the done chunk
+        when(llamaApiService.streamPrompt(any(PromptDTO.class), any(Long.class))).thenReturn(Flux.just(
+                new PromptChunkResponse("Hola"),
+                new PromptChunkResponse(" mundo"),
+                new PromptChunkResponse("", true, "Hola mundo", "[HAPPY]")));
+
+        PromptDTO promptDTO = new PromptDTO("This is a test prompt");
+
+        // Send request as regular user asking for Server-Sent Events
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt/stream")
+                .header("Authorization", "Bearer " + regularUserToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .content(objectMapper.writeValueAsString(promptDTO)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Every chunk is relayed as its own event, in order
+        mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(result))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().string(org.hamcrest.Matchers.stringContainsInOrder(
+                        "\"token\":\"Hola\"", "\"token\":\" mundo\"", "\"done\":true", "\"response\":\"Hola mundo\"")));
+    }
+
+    @Test
+    public void testStreamPrompt_WithoutAuth_ShouldReturnForbidden() throws Exception {
+        PromptDTO promptDTO = new PromptDTO("This is a test prompt");
+
+        // Send request without auth token
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/llama/send_prompt/stream")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .content(objectMapper.writeValueAsString(promptDTO)))
+                .andDo(print())
+                .andExpect(status().isForbidden());
+    }
+
     // ========== POST /api/llama/clear_conversation (Clear Conversation) Tests ==========
 
     @Test
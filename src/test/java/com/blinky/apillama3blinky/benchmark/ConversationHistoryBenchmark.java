@@ -0,0 +1,92 @@
+package com.blinky.apillama3blinky.benchmark;
+
+import com.blinky.apillama3blinky.model.AIResponse;
+import com.blinky.apillama3blinky.model.Conversation;
+import com.blinky.apillama3blinky.model.ConversationHistory;
+import com.blinky.apillama3blinky.model.UserMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares pairing the turns of a conversation by scanning the responses for every message, as the prompt
+ * was built before, with pairing them through {@link ConversationHistory}.
+ * <p>
+ * Both walk every turn, as when the token budget fits the whole conversation. The scan grows with the square
+ * of the number of turns, while the cost per turn of the history stays flat.
+ * Run {@link #main} from the test classpath after {@code mvn test-compile}; it is not part of the test suite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversationHistoryBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int turns;
+
+    private Conversation conversation;
+
+    @Setup
+    public void setUp() {
+        conversation = new Conversation("Benchmark");
+        conversation.setUserMessages(new ArrayList<>(turns));
+        conversation.setAiResponses(new ArrayList<>(turns));
+        for (int i = 1; i <= turns; i++) {
+            UserMessage userMessage = new UserMessage("mensaje " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+
+            AIResponse response = new AIResponse("respuesta " + i);
+            response.setUserMessage(userMessage);
+            conversation.getAiResponses().add(response);
+        }
+    }
+
+    @Benchmark
+    public void scanResponsesPerMessage(Blackhole blackhole) {
+        List<UserMessage> userMessages = conversation.getUserMessages();
+        for (int i = userMessages.size() - 1; i >= 0; i--) {
+            UserMessage userMessage = userMessages.get(i);
+            Optional<AIResponse> response = conversation.getAiResponses().stream()
+                    .filter(ar -> ar.getUserMessage() != null && ar.getUserMessage().getId().equals(userMessage.getId()))
+                    .findFirst();
+            blackhole.consume(response);
+        }
+    }
+
+    @Benchmark
+    public void conversationHistory(Blackhole blackhole) {
+        List<ConversationHistory.Turn> history = ConversationHistory.of(conversation).getTurnsAfterSummary();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            blackhole.consume(history.get(i).response());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConversationHistoryBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.blinky.apillama3blinky.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the approximate nearest neighbour index.
+ */
+public class HnswIndexTest {
+
+    @Test
+    public void testEmptyIndexFindsNothing() {
+        HnswIndex index = new HnswIndex(4, 8, 50, 1);
+
+        assertTrue(index.search(new float[]{1, 0, 0, 0}, 3, 10).isEmpty());
+    }
+
+    @Test
+    public void testFindsIdenticalVectorWithSimilarityOne() {
+        HnswIndex index = new HnswIndex(3, 8, 50, 1);
+        index.add(new float[]{1, 0, 0});
+        int target = index.add(new float[]{0, 2, 0});
+        index.add(new float[]{0, 0, 3});
+
+        List<HnswIndex.Result> results = index.search(new float[]{0, 5, 0}, 1, 10);
+
+        assertEquals(target, results.get(0).node());
+        assertEquals(1.0, results.get(0).similarity(), 1e-6);
+    }
+
+    @Test
+    public void testRecallAgainstExactSearch() {
+        Random random = new Random(7);
+        int dimension = 32;
+        float[][] vectors = new float[2000][];
+        HnswIndex index = new HnswIndex(dimension, 16, 100, 3);
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random, dimension);
+            index.add(vectors[i]);
+        }
+
+        int queries = 100;
+        int found = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random, dimension);
+            if (index.search(query, 1, 50).get(0).node() == exactNearest(vectors, query)) {
+                found++;
+            }
+        }
+
+        // The approximate search finds the true nearest neighbour almost every time
+        assertTrue(found >= 95, "Recall demasiado baja: " + found + "/" + queries);
+    }
+
+    @Test
+    public void testRejectsVectorOfWrongDimension() {
+        HnswIndex index = new HnswIndex(3, 8, 50, 1);
+
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[]{1, 2}));
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static int exactNearest(float[][] vectors, float[] query) {
+        int best = -1;
+        double bestSimilarity = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < vectors.length; i++) {
+            double similarity = cosine(vectors[i], query);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
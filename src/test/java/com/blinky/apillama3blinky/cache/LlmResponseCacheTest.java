@@ -0,0 +1,100 @@
+package com.blinky.apillama3blinky.cache;
+
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the model response cache.
+ */
+public class LlmResponseCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong now;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        now = new AtomicLong();
+    }
+
+    @Test
+    public void testKeyDependsOnModelPromptAndOptions() {
+        LlmResponseCache cache = createCache(10_000, Duration.ofHours(1));
+        String key = cache.keyFor(new OllamaDTO("llama3", "Hola", false));
+
+        assertEquals(key, cache.keyFor(new OllamaDTO("llama3", "Hola", true)));
+        assertNotEquals(key, cache.keyFor(new OllamaDTO("llama3", "Hola.", false)));
+        assertNotEquals(key, cache.keyFor(new OllamaDTO("mistral", "Hola", false)));
+        assertNotEquals(key, cache.keyFor(new OllamaDTO("llama3", "Hola", false, 0.9, 0.5, 128)));
+        assertNotEquals(key, cache.keyFor(new OllamaDTO("llama3", "Hola", false, 0.4, 0.5, 256)));
+    }
+
+    @Test
+    public void testRequestsWithOllamaContextAreNotCached() {
+        LlmResponseCache cache = createCache(10_000, Duration.ofHours(1));
+        OllamaDTO request = new OllamaDTO("llama3", "Hola", false);
+        request.setContext(new int[]{1, 2, 3});
+
+        assertNull(cache.keyFor(request));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        LlmResponseCache cache = createCache(10_000, Duration.ofMinutes(10));
+        cache.put("saludo", response("Hola"));
+        now.addAndGet(Duration.ofMinutes(9).toNanos());
+        assertNotNull(cache.get("saludo"));
+
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+
+        assertNull(cache.get("saludo"));
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryEvictedWhenFull() {
+        // Room for two short replies
+        LlmResponseCache cache = createCache(600, Duration.ofHours(1));
+        cache.put("a", response("Hola"));
+        cache.put("b", response("Qué tal"));
+        cache.get("a");
+
+        cache.put("c", response("Buenas"));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1.0, meterRegistry.get("ia.response-cache.evictions").counter().count());
+    }
+
+    @Test
+    public void testHitRatioMetric() {
+        LlmResponseCache cache = createCache(10_000, Duration.ofHours(1));
+        cache.put("saludo", response("Hola"));
+
+        cache.get("saludo");
+        cache.get("saludo");
+        cache.get("despedida");
+
+        assertEquals(2.0, meterRegistry.get("ia.response-cache.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("ia.response-cache.requests").tag("result", "miss").counter().count());
+        assertEquals(2.0 / 3, meterRegistry.get("ia.response-cache.hit.ratio").gauge().value(), 0.001);
+    }
+
+    private LlmResponseCache createCache(long maxBytes, Duration ttl) {
+        return new LlmResponseCache(maxBytes, ttl, meterRegistry, now::get);
+    }
+
+    private OllamaResponse response(String text) {
+        return new OllamaResponse("llama3", null, text, true, "stop", null);
+    }
+}
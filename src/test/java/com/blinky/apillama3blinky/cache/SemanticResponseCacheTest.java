@@ -0,0 +1,164 @@
+package com.blinky.apillama3blinky.cache;
+
+import com.blinky.apillama3blinky.client.AdmissionController;
+import com.blinky.apillama3blinky.client.CircuitBreaker;
+import com.blinky.apillama3blinky.client.OllamaBackend;
+import com.blinky.apillama3blinky.client.OllamaBackendPool;
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.client.RequestCoalescer;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.service.OllamaService;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the semantic response cache, with embeddings computed by a deterministic stub
+ * of the Ollama embeddings endpoint.
+ */
+public class SemanticResponseCacheTest {
+
+    private static final int DIMENSION = 64;
+    private static final Pattern PROMPT_FIELD = Pattern.compile("\"prompt\"\\s*:\\s*\"([^\"]*)\"");
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong now;
+    private SemanticResponseCache cache;
+    private HttpServer embeddingServer;
+    private OllamaService ollamaService;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        meterRegistry = new SimpleMeterRegistry();
+        now = new AtomicLong();
+        cache = new SemanticResponseCache(0.8, 10, Duration.ofMinutes(30), meterRegistry, now::get);
+
+        embeddingServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        embeddingServer.createContext("/api/embeddings", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Matcher prompt = PROMPT_FIELD.matcher(body);
+            byte[] reply = ("{\"embedding\":" + toJson(bagOfWords(prompt.find() ? prompt.group(1) : "")) + "}")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        embeddingServer.start();
+
+        String url = "http://127.0.0.1:" + embeddingServer.getAddress().getPort();
+        OllamaBackendPool pool = new OllamaBackendPool(
+                List.of(new OllamaBackend(url, WebClient.builder().baseUrl(url).build())), 3, Duration.ofSeconds(1));
+        AdmissionController admissionController = new AdmissionController("chat", 4, 10, 10, Duration.ofSeconds(1), meterRegistry);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("ollama", 1.0, 100, 100, Duration.ofSeconds(1), 1, meterRegistry);
+        ollamaService = new OllamaService(pool, admissionController, admissionController, circuitBreaker, new RequestCoalescer(meterRegistry));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        embeddingServer.stop(0);
+    }
+
+    @Test
+    public void testParaphraseIsAnsweredFromCache() {
+        cache.put("blinky", embed("Hola, ¿qué tal estás?"), response("¡Muy bien!"));
+
+        OllamaResponse cached = cache.get("blinky", embed("hola que tal estas hoy"));
+
+        assertNotNull(cached);
+        assertEquals("¡Muy bien!", cached.getResponse());
+        assertEquals(1.0, meterRegistry.get("ia.semantic-cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    public void testUnrelatedPromptIsNotAnswered() {
+        cache.put("blinky", embed("Hola, ¿qué tal estás?"), response("¡Muy bien!"));
+
+        assertNull(cache.get("blinky", embed("¿Qué tiempo hará mañana en Madrid?")));
+        assertEquals(1.0, meterRegistry.get("ia.semantic-cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    public void testRepliesAreScopedPerPersonality() {
+        cache.put("blinky", embed("Hola, ¿qué tal estás?"), response("¡Muy bien!"));
+
+        assertNull(cache.get("gruñón", embed("Hola, ¿qué tal estás?")));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        cache.put("blinky", embed("Hola, ¿qué tal estás?"), response("¡Muy bien!"));
+
+        now.addAndGet(Duration.ofMinutes(30).toNanos());
+
+        assertNull(cache.get("blinky", embed("Hola, ¿qué tal estás?")));
+    }
+
+    @Test
+    public void testFullScopeIsRebuiltWithNewestEntries() {
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(1);
+            cache.put("blinky", embed("mensaje número " + i), response("respuesta " + i));
+        }
+
+        cache.put("blinky", embed("Hola, ¿qué tal estás?"), response("¡Muy bien!"));
+
+        // Half of the entries are kept plus the new one
+        assertEquals(6, cache.getEntryCount("blinky"));
+        assertNull(cache.get("blinky", embed("mensaje número 0")));
+        assertEquals("respuesta 9", cache.get("blinky", embed("mensaje número 9")).getResponse());
+    }
+
+    private float[] embed(String text) {
+        return ollamaService.embed("nomic-embed-text", text, OllamaRequestContext.anonymous()).block();
+    }
+
+    private OllamaResponse response(String text) {
+        return new OllamaResponse("llama3", null, text, true, "stop", null);
+    }
+
+    /**
+     * Deterministic embedding: each word, without accents or punctuation, adds 1 to a dimension chosen by its hash.
+     */
+    private static float[] bagOfWords(String text) {
+        float[] vector = new float[DIMENSION];
+        String plain = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        for (String word : plain.split("[^a-z0-9]+")) {
+            if (!word.isEmpty()) {
+                vector[Math.floorMod(word.hashCode(), DIMENSION)] += 1;
+            }
+        }
+        return vector;
+    }
+
+    private static String toJson(float[] vector) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(vector[i]);
+        }
+        return json.append(']').toString();
+    }
+}
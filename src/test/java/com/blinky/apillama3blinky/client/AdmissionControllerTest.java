@@ -0,0 +1,168 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the admission controller in front of the Ollama calls.
+ */
+public class AdmissionControllerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private List<String> started;
+    private Map<String, Sinks.One<String>> calls;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        started = new ArrayList<>();
+        calls = new HashMap<>();
+    }
+
+    @Test
+    public void testCallsBeyondLimitWaitForFreeSlot() {
+        AdmissionController controller = createController(2, 10, 10);
+
+        controller.admit("user-1", call("a")).subscribe();
+        controller.admit("user-2", call("b")).subscribe();
+        controller.admit("user-3", call("c")).subscribe();
+
+        assertEquals(List.of("a", "b"), started);
+        assertEquals(1, controller.getQueued());
+        assertEquals(1.0, meterRegistry.get("ia.admission.queue.size").gauge().value());
+
+        finish("a");
+
+        assertEquals(List.of("a", "b", "c"), started);
+        assertEquals(0, controller.getQueued());
+        assertEquals(2, controller.getActive());
+    }
+
+    @Test
+    public void testUsersAreServedInTurn() {
+        AdmissionController controller = createController(1, 10, 10);
+
+        controller.admit("user-1", call("a1")).subscribe();
+        controller.admit("user-1", call("a2")).subscribe();
+        controller.admit("user-1", call("a3")).subscribe();
+        controller.admit("user-2", call("b1")).subscribe();
+
+        finish("a1");
+        finish("a2");
+        finish("b1");
+
+        // user-2 does not have to wait for every queued call of user-1
+        assertEquals(List.of("a1", "a2", "b1", "a3"), started);
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() {
+        AdmissionController controller = createController(1, 1, 10);
+
+        controller.admit("user-1", call("a")).subscribe();
+        controller.admit("user-2", call("b")).subscribe();
+
+        TooManyRequestsException exception = assertThrows(TooManyRequestsException.class,
+                () -> controller.admit("user-3", call("c")).block());
+        assertEquals(5, exception.getRetryAfterSeconds());
+        assertEquals(1.0, meterRegistry.get("ia.admission.rejected").counter().count());
+        assertFalse(started.contains("c"));
+    }
+
+    @Test
+    public void testRejectsUserWithTooManyQueuedCalls() {
+        AdmissionController controller = createController(1, 10, 1);
+
+        controller.admit("user-1", call("a1")).subscribe();
+        controller.admit("user-1", call("a2")).subscribe();
+
+        assertThrows(TooManyRequestsException.class, () -> controller.admit("user-1", call("a3")).block());
+
+        // Other users can still queue
+        controller.admit("user-2", call("b1")).subscribe();
+        assertEquals(2, controller.getQueued());
+    }
+
+    @Test
+    public void testCancelledCallLeavesQueueAndFailedCallFreesSlot() {
+        AdmissionController controller = createController(1, 10, 10);
+
+        controller.admit("user-1", call("a")).subscribe(value -> { }, error -> { });
+        Disposable waiting = controller.admit("user-2", call("b")).subscribe();
+        controller.admit("user-3", call("c")).subscribe();
+
+        waiting.dispose();
+        assertEquals(1, controller.getQueued());
+
+        calls.get("a").tryEmitError(new IllegalStateException("Ollama caído"));
+
+        assertEquals(List.of("a", "c"), started);
+        assertEquals(1, controller.getActive());
+    }
+
+    @Test
+    public void testRaisingLimitAdmitsWaitingCalls() {
+        AdmissionController controller = createController(1, 10, 10);
+
+        controller.admit("user-1", call("a")).subscribe();
+        controller.admit("user-2", call("b")).subscribe();
+        controller.admit("user-3", call("c")).subscribe();
+
+        controller.setMaxConcurrency(3);
+
+        assertEquals(List.of("a", "b", "c"), started);
+        assertEquals(3, meterRegistry.get("ia.admission.wait").timer().count());
+    }
+
+    @Test
+    public void testAdaptiveLimitAdmitsMoreCallsAsTheyComplete() {
+        GradientConcurrencyLimit adaptiveLimit = new GradientConcurrencyLimit("chat", 1, 1, 8, meterRegistry);
+        AdmissionController controller = new AdmissionController("chat", adaptiveLimit, 10, 10, Duration.ofSeconds(5), meterRegistry);
+        for (int i = 0; i < 10; i++) {
+            controller.admit("user-" + i, call("c" + i)).subscribe();
+        }
+        assertEquals(1, started.size());
+
+        // Fast calls on a saturated limit make room for more calls at once
+        int finished = 0;
+        while (controller.getMaxConcurrency() == 1 && finished < 10) {
+            finish(started.get(finished++));
+        }
+
+        assertTrue(controller.getMaxConcurrency() > 1);
+        assertEquals(controller.getMaxConcurrency(), controller.getActive());
+    }
+
+    private AdmissionController createController(int maxConcurrency, int maxQueueSize, int maxQueuedPerUser) {
+        return new AdmissionController("chat", maxConcurrency, maxQueueSize, maxQueuedPerUser, Duration.ofSeconds(5), meterRegistry);
+    }
+
+    /**
+     * Creates a call that records when it starts and stays in progress until finished by the test.
+     */
+    private Mono<String> call(String name) {
+        Sinks.One<String> sink = Sinks.one();
+        calls.put(name, sink);
+        return Mono.defer(() -> {
+            started.add(name);
+            return sink.asMono();
+        });
+    }
+
+    private void finish(String name) {
+        calls.get(name).tryEmitValue(name);
+    }
+}
@@ -0,0 +1,122 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.exception.CircuitOpenException;
+import com.blinky.apillama3blinky.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the circuit breaker around the Ollama calls.
+ */
+public class CircuitBreakerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicLong now;
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        now = new AtomicLong();
+        // Opens once half of the last 4 calls failed, probes with 2 calls after 30 seconds
+        breaker = new CircuitBreaker("ollama", 0.5, 4, 4, Duration.ofSeconds(30), 2, meterRegistry, now::get);
+    }
+
+    @Test
+    public void testOpensWhenFailureRateReachesThreshold() {
+        succeed();
+        succeed();
+        fail();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpenCircuitRejectsWithoutCallingOllama() {
+        openCircuit();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(CircuitOpenException.class,
+                () -> breaker.execute(Mono.fromCallable(calls::incrementAndGet)).block());
+
+        assertEquals(0, calls.get());
+        assertEquals(1.0, meterRegistry.get("ia.circuit.rejected").counter().count());
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterSuccessfulProbes() {
+        openCircuit();
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // Only the configured number of probes go through at once
+        Sinks.One<String> firstProbe = Sinks.one();
+        Sinks.One<String> secondProbe = Sinks.one();
+        breaker.execute(firstProbe.asMono()).subscribe();
+        breaker.execute(secondProbe.asMono()).subscribe();
+        assertThrows(CircuitOpenException.class, () -> breaker.execute(Mono.just("tercera")).block());
+
+        firstProbe.tryEmitValue("ok");
+        secondProbe.tryEmitValue("ok");
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals("ok", breaker.execute(Mono.just("ok")).block());
+    }
+
+    @Test
+    public void testHalfOpenReopensWhenProbeFails() {
+        openCircuit();
+        now.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        fail();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testErrorsNotCausedByOllamaAreIgnored() {
+        for (int i = 0; i < 4; i++) {
+            Mono<String> rejected = breaker.execute(Mono.error(new TooManyRequestsException("Cola llena", 5)));
+            assertThrows(TooManyRequestsException.class, rejected::block);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private void openCircuit() {
+        for (int i = 0; i < 4; i++) {
+            fail();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void succeed() {
+        breaker.execute(Mono.just("ok")).block();
+    }
+
+    private void fail() {
+        WebClientRequestException error = new WebClientRequestException(new ConnectException("Connection refused"),
+                HttpMethod.POST, URI.create("http://localhost:11434/api/generate"),
+                HttpHeaders.EMPTY);
+        assertThrows(WebClientRequestException.class, () -> breaker.execute(Mono.error(error)).block());
+    }
+}
@@ -0,0 +1,109 @@
+package com.blinky.apillama3blinky.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the consistent-hash routing policy.
+ */
+public class ConsistentHashRoutingPolicyTest {
+
+    private static final int CONVERSATIONS = 2000;
+
+    @Test
+    public void testSameConversationAlwaysGoesToSameBackend() {
+        List<OllamaBackend> backends = createBackends(3);
+        ConsistentHashRoutingPolicy policy = new ConsistentHashRoutingPolicy(backends, 160, 1.25);
+
+        OllamaBackend first = policy.select(backends, "conversation-42");
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, policy.select(backends, "conversation-42"));
+        }
+    }
+
+    @Test
+    public void testConversationsAreSpreadOverBackends() {
+        List<OllamaBackend> backends = createBackends(4);
+        ConsistentHashRoutingPolicy policy = new ConsistentHashRoutingPolicy(backends, 160, 1.25);
+
+        Map<OllamaBackend, Integer> counts = new HashMap<>();
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            counts.merge(policy.select(backends, "conversation-" + i), 1, Integer::sum);
+        }
+
+        // Every backend gets a fair share (25% expected)
+        assertEquals(4, counts.size());
+        counts.values().forEach(count -> assertTrue(count > CONVERSATIONS * 0.15, "Reparto desigual: " + counts));
+    }
+
+    @Test
+    public void testRemovingBackendOnlyMovesItsConversations() {
+        List<OllamaBackend> backends = createBackends(4);
+        ConsistentHashRoutingPolicy policy = new ConsistentHashRoutingPolicy(backends, 160, 1.25);
+        OllamaBackend removed = backends.get(2);
+        List<OllamaBackend> remaining = new ArrayList<>(backends);
+        remaining.remove(removed);
+
+        int moved = 0;
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            String key = "conversation-" + i;
+            OllamaBackend before = policy.select(backends, key);
+            OllamaBackend after = policy.select(remaining, key);
+            if (before != removed) {
+                // Conversations of the surviving backends stay where they were
+                assertSame(before, after);
+            } else {
+                moved++;
+            }
+        }
+
+        // Only about a quarter of the conversations had to move
+        assertTrue(moved < CONVERSATIONS * 0.35, "Demasiadas conversaciones reasignadas: " + moved);
+    }
+
+    @Test
+    public void testOverloadedBackendSpillsOverToNextOnRing() {
+        List<OllamaBackend> backends = createBackends(3);
+        ConsistentHashRoutingPolicy policy = new ConsistentHashRoutingPolicy(backends, 160, 1.25);
+        OllamaBackend home = policy.select(backends, "conversation-7");
+
+        // Load the conversation's backend well above the average
+        for (int i = 0; i < 4; i++) {
+            home.onRequestStart();
+        }
+
+        OllamaBackend spilled = policy.select(backends, "conversation-7");
+        assertNotSame(home, spilled);
+
+        // Once the load drains the conversation returns to its backend
+        for (int i = 0; i < 4; i++) {
+            home.onRequestEnd();
+        }
+        assertSame(home, policy.select(backends, "conversation-7"));
+    }
+
+    @Test
+    public void testRequestWithoutKeyGoesToLeastLoadedBackend() {
+        List<OllamaBackend> backends = createBackends(2);
+        ConsistentHashRoutingPolicy policy = new ConsistentHashRoutingPolicy(backends, 160, 1.25);
+        backends.get(0).onRequestStart();
+
+        assertSame(backends.get(1), policy.select(backends, null));
+    }
+
+    private List<OllamaBackend> createBackends(int count) {
+        List<OllamaBackend> backends = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            String url = "http://ollama-" + i + ":11434";
+            backends.add(new OllamaBackend(url, WebClient.create(url)));
+        }
+        return backends;
+    }
+}
@@ -0,0 +1,81 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the latency-driven concurrency limit.
+ */
+public class GradientConcurrencyLimitTest {
+
+    private static final long BASE_RTT = TimeUnit.SECONDS.toNanos(2);
+
+    private SimpleMeterRegistry meterRegistry;
+    private GradientConcurrencyLimit limit;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limit = new GradientConcurrencyLimit("chat", 4, 1, 32, meterRegistry);
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyStaysFlat() {
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASE_RTT, limit.getLimit(), false);
+        }
+
+        assertTrue(limit.getLimit() > 4, "El límite debería crecer: " + limit.getLimit());
+        assertEquals(limit.getLimit(), meterRegistry.get("ia.admission.limit").gauge().value());
+        assertEquals(2000.0, meterRegistry.get("ia.admission.rtt").tag("window", "long").gauge().value(), 1.0);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() {
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASE_RTT, limit.getLimit(), false);
+        }
+        int warmLimit = limit.getLimit();
+
+        // The backend starts queuing: calls take three times as long
+        for (int i = 0; i < 30; i++) {
+            limit.onSample(BASE_RTT * 3, limit.getLimit(), false);
+        }
+
+        assertTrue(limit.getLimit() < warmLimit, "El límite debería bajar: " + warmLimit + " -> " + limit.getLimit());
+        assertTrue(limit.getShortRtt(TimeUnit.MILLISECONDS) > limit.getLongRtt(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailuresCutLimitDownToMinimum() {
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASE_RTT, 1, true);
+        }
+
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhenUnused() {
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(BASE_RTT, 1, false);
+        }
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysWithinBounds() {
+        GradientConcurrencyLimit bounded = new GradientConcurrencyLimit("chat", 4, 2, 6, meterRegistry);
+        for (int i = 0; i < 200; i++) {
+            bounded.onSample(BASE_RTT, bounded.getLimit(), false);
+        }
+
+        assertEquals(6, bounded.getLimit());
+    }
+}
@@ -0,0 +1,70 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the hedging policy.
+ */
+public class HedgingPolicyTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void testNoHedgingUntilEnoughLatencySamples() {
+        HedgingPolicy policy = new HedgingPolicy(0.95, Duration.ofMillis(100), 0.05, meterRegistry);
+        for (int i = 0; i < 19; i++) {
+            policy.recordLatency(Duration.ofSeconds(1).toNanos());
+        }
+
+        assertNull(policy.hedgeDelay());
+    }
+
+    @Test
+    public void testDelayIsPercentileOfRecentLatency() {
+        HedgingPolicy policy = new HedgingPolicy(0.9, Duration.ofMillis(100), 0.05, meterRegistry);
+        // Latencies of 1 to 100 seconds
+        for (int i = 100; i >= 1; i--) {
+            policy.recordLatency(Duration.ofSeconds(i).toNanos());
+        }
+
+        assertEquals(Duration.ofSeconds(90), policy.hedgeDelay());
+    }
+
+    @Test
+    public void testDelayNeverBelowMinimum() {
+        HedgingPolicy policy = new HedgingPolicy(0.95, Duration.ofSeconds(2), 0.05, meterRegistry);
+        for (int i = 0; i < 50; i++) {
+            policy.recordLatency(Duration.ofMillis(10).toNanos());
+        }
+
+        assertEquals(Duration.ofSeconds(2), policy.hedgeDelay());
+    }
+
+    @Test
+    public void testBudgetLimitsHedgesToShareOfCalls() {
+        HedgingPolicy policy = new HedgingPolicy(0.95, Duration.ofMillis(100), 0.1, meterRegistry);
+
+        // Every call wants a hedge, but only about one in ten gets it
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+
+        assertTrue(hedges >= 9 && hedges <= 10, "Duplicadas: " + hedges);
+        assertEquals(hedges, meterRegistry.get("ia.hedge.sent").counter().count());
+    }
+}
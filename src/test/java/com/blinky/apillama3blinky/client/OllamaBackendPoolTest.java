@@ -0,0 +1,306 @@
+package com.blinky.apillama3blinky.client;
+
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.exception.OllamaUnavailableException;
+import com.blinky.apillama3blinky.service.OllamaService;
+import com.sun.net.httpserver.HttpExchange;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the Ollama backend pool, using local stub HTTP servers in place of Ollama.
+ */
+public class OllamaBackendPoolTest {
+
+    private final List<StubOllama> stubs = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        stubs.forEach(stub -> stub.server.stop(0));
+    }
+
+    @Test
+    public void testRoutesToLeastLoadedBackend() throws Exception {
+        StubOllama slow = startStub("slow");
+        StubOllama fast = startStub("fast");
+        slow.hold = new CountDownLatch(1);
+        OllamaBackendPool pool = createPool(3, slow, fast);
+        OllamaService ollamaService = createService(pool);
+
+        // The first request goes to the first backend and stays in flight
+        Disposable pending = ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).subscribe();
+        assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        assertEquals(1, pool.getBackends().get(0).getInFlight());
+
+        // The next request (a different prompt, so it is not merged with the first) is routed to the backend with nothing in flight
+        OllamaResponse response = ollamaService.sendPromptAsync(new OllamaDTO("llama3", "qué tal", false)).block();
+        assertEquals("fast", response.getResponse());
+        assertEquals(1, fast.generateCalls.get());
+
+        slow.hold.countDown();
+        pending.dispose();
+    }
+
+    @Test
+    public void testEjectsFailingBackendAndProbeRestoresIt() throws Exception {
+        StubOllama failing = startStub("failing");
+        StubOllama healthy = startStub("healthy");
+        failing.failing = true;
+        OllamaBackendPool pool = createPool(2, failing, healthy);
+        OllamaService ollamaService = createService(pool);
+        OllamaBackend failingBackend = pool.getBackends().get(0);
+
+        // Two consecutive server errors take the backend out of rotation
+        for (int i = 0; i < 2; i++) {
+            assertThrows(WebClientResponseException.class,
+                    () -> ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).block());
+        }
+        assertFalse(failingBackend.isHealthy());
+
+        // Traffic now goes to the remaining backend only
+        assertEquals("healthy", ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).block().getResponse());
+        assertEquals(2, failing.generateCalls.get());
+
+        // The backend stays out while its health probe fails, and returns once it passes
+        pool.probeBackends();
+        assertFalse(failingBackend.isHealthy());
+        failing.failing = false;
+        pool.probeBackends();
+        assertTrue(failingBackend.isHealthy());
+    }
+
+    @Test
+    public void testProbeEjectsBackendThatStopsResponding() throws Exception {
+        StubOllama first = startStub("first");
+        StubOllama second = startStub("second");
+        OllamaBackendPool pool = createPool(3, first, second);
+
+        // A backend that goes down is ejected by the probe before any request fails on it
+        first.server.stop(0);
+        pool.probeBackends();
+
+        assertFalse(pool.getBackends().get(0).isHealthy());
+        assertTrue(pool.getBackends().get(1).isHealthy());
+        assertSame(pool.getBackends().get(1), pool.select(null));
+    }
+
+    @Test
+    public void testNoHealthyBackendFailsFast() throws Exception {
+        StubOllama only = startStub("only");
+        only.failing = true;
+        OllamaBackendPool pool = createPool(1, only);
+
+        pool.probeBackends();
+
+        assertThrows(OllamaUnavailableException.class, () -> pool.select(null));
+    }
+
+    @Test
+    public void testHedgesStalledCallOnAnotherBackend() throws Exception {
+        StubOllama stalled = startStub("stalled");
+        StubOllama spare = startStub("spare");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, Duration.ofMillis(50), 0.5, meterRegistry);
+        // Always prefer the first backend, so only hedges reach the second one
+        RoutingPolicy firstBackend = (healthyBackends, routingKey) -> healthyBackends.get(0);
+        OllamaBackendPool pool = new OllamaBackendPool(backends(stalled, spare), firstBackend, hedgingPolicy, 3, Duration.ofSeconds(1));
+        OllamaService ollamaService = createService(pool);
+
+        // Learn the normal latency
+        for (int i = 0; i < 20; i++) {
+            assertEquals("stalled", ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).block().getResponse());
+        }
+        assertEquals(0, spare.generateCalls.get());
+
+        // The first backend stalls: the hedge on the second one answers and the stalled call is cancelled
+        stalled.hold = new CountDownLatch(1);
+        OllamaResponse response = ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false))
+                .block(Duration.ofSeconds(5));
+
+        assertEquals("spare", response.getResponse());
+        assertEquals(1, spare.generateCalls.get());
+        assertEquals(0, pool.getBackends().get(0).getInFlight());
+        assertEquals(1.0, meterRegistry.get("ia.hedge.won").counter().count());
+        stalled.hold.countDown();
+    }
+
+    @Test
+    public void testFailedHedgeDoesNotEndSlowCallThatSucceedsLater() throws Exception {
+        StubOllama slow = startStub("slow");
+        StubOllama broken = startStub("broken");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, Duration.ofMillis(50), 0.5, meterRegistry);
+        RoutingPolicy firstBackend = (healthyBackends, routingKey) -> healthyBackends.get(0);
+        OllamaBackendPool pool = new OllamaBackendPool(backends(slow, broken), firstBackend, hedgingPolicy, 3, Duration.ofSeconds(1));
+        OllamaService ollamaService = createService(pool);
+        for (int i = 0; i < 20; i++) {
+            ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).block();
+        }
+
+        // The first backend is slow and the hedge on the second one fails straight away
+        slow.hold = new CountDownLatch(1);
+        broken.failing = true;
+        CompletableFuture<OllamaResponse> response = ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false))
+                .toFuture();
+        awaitHedgeFinished(pool, broken);
+        assertFalse(response.isDone());
+
+        // The original call still answers
+        slow.hold.countDown();
+        assertEquals("slow", response.get(5, TimeUnit.SECONDS).getResponse());
+        assertEquals(0.0, meterRegistry.get("ia.hedge.won").counter().count());
+    }
+
+    @Test
+    public void testWhenCallAndHedgeFailReportsOriginalError() throws Exception {
+        StubOllama slow = startStub("slow");
+        StubOllama broken = startStub("broken");
+        HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, Duration.ofMillis(50), 0.5, new SimpleMeterRegistry());
+        RoutingPolicy firstBackend = (healthyBackends, routingKey) -> healthyBackends.get(0);
+        OllamaBackendPool pool = new OllamaBackendPool(backends(slow, broken), firstBackend, hedgingPolicy, 3, Duration.ofSeconds(1));
+        OllamaService ollamaService = createService(pool);
+        for (int i = 0; i < 20; i++) {
+            ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false)).block();
+        }
+
+        slow.hold = new CountDownLatch(1);
+        slow.failing = true;
+        broken.failing = true;
+        CompletableFuture<OllamaResponse> response = ollamaService.sendPromptAsync(new OllamaDTO("llama3", "hola", false))
+                .toFuture();
+        awaitHedgeFinished(pool, broken);
+        slow.hold.countDown();
+
+        Exception error = assertThrows(Exception.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(WebClientResponseException.class, error.getCause());
+    }
+
+    @Test
+    public void testEmbeddingsDoNotFeedHedgingLatency() throws Exception {
+        StubOllama stub = startStub("reply");
+        HedgingPolicy hedgingPolicy = new HedgingPolicy(0.95, Duration.ofMillis(50), 0.5, new SimpleMeterRegistry());
+        OllamaBackendPool pool = new OllamaBackendPool(backends(stub), new LeastOutstandingRoutingPolicy(), hedgingPolicy,
+                3, Duration.ofSeconds(1));
+        OllamaService ollamaService = createService(pool);
+
+        for (int i = 0; i < 25; i++) {
+            ollamaService.embed("nomic-embed-text", "texto " + i, OllamaRequestContext.anonymous()).block();
+        }
+
+        // Quick embedding calls would pull the hedging delay down for generations
+        assertNull(hedgingPolicy.hedgeDelay());
+    }
+
+    /**
+     * Waits until the hedge sent to the given backend has finished and its outcome has been handled.
+     */
+    private void awaitHedgeFinished(OllamaBackendPool pool, StubOllama hedgeBackend) throws InterruptedException {
+        OllamaBackend backend = pool.getBackends().get(1);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((hedgeBackend.generateCalls.get() == 0 || backend.getInFlight() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, hedgeBackend.generateCalls.get());
+        Thread.sleep(100);
+    }
+
+    private OllamaBackendPool createPool(int maxConsecutiveFailures, StubOllama... stubs) {
+        return new OllamaBackendPool(backends(stubs), maxConsecutiveFailures, Duration.ofSeconds(1));
+    }
+
+    private List<OllamaBackend> backends(StubOllama... stubs) {
+        List<OllamaBackend> backends = new ArrayList<>();
+        for (StubOllama stub : stubs) {
+            backends.add(new OllamaBackend(stub.url(), WebClient.builder().baseUrl(stub.url()).build()));
+        }
+        return backends;
+    }
+
+    private OllamaService createService(OllamaBackendPool pool) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AdmissionController admissionController = new AdmissionController("chat", 10, 10, 10, Duration.ofSeconds(1), meterRegistry);
+        // A breaker that never opens, so the pool's own ejection is what is tested here
+        CircuitBreaker circuitBreaker = new CircuitBreaker("ollama", 1.0, 100, 100, Duration.ofSeconds(1), 1, meterRegistry);
+        return new OllamaService(pool, admissionController, admissionController, circuitBreaker, new RequestCoalescer(meterRegistry));
+    }
+
+    private StubOllama startStub(String reply) throws IOException {
+        StubOllama stub = new StubOllama(reply);
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * Minimal stand-in for an Ollama server answering /api/generate, /api/embeddings and /api/version.
+     */
+    private static class StubOllama {
+        private final HttpServer server;
+        private final AtomicInteger generateCalls = new AtomicInteger();
+        private final CountDownLatch received = new CountDownLatch(1);
+        private volatile CountDownLatch hold;
+        private volatile boolean failing;
+
+        StubOllama(String reply) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/api/generate", exchange -> {
+                generateCalls.incrementAndGet();
+                received.countDown();
+                exchange.getRequestBody().readAllBytes();
+                if (hold != null) {
+                    try {
+                        hold.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failing) {
+                    respond(exchange, 500, "{\"error\":\"model failed\"}");
+                } else {
+                    respond(exchange, 200, "{\"model\":\"llama3\",\"response\":\"" + reply + "\",\"done\":true}");
+                }
+            });
+            server.createContext("/api/embeddings", exchange -> {
+                exchange.getRequestBody().readAllBytes();
+                respond(exchange, 200, "{\"embedding\":[0.5,0.25]}");
+            });
+            server.createContext("/api/version", exchange ->
+                    respond(exchange, failing ? 500 : 200, "{\"version\":\"0.6.0\"}"));
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
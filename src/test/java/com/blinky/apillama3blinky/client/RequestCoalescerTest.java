@@ -0,0 +1,97 @@
+package com.blinky.apillama3blinky.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the coalescing of identical calls.
+ */
+public class RequestCoalescerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private RequestCoalescer coalescer;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new RequestCoalescer(meterRegistry);
+    }
+
+    @Test
+    public void testIdenticalConcurrentCallsShareOneCall() {
+        AtomicInteger calls = new AtomicInteger();
+        Sinks.One<String> reply = Sinks.one();
+
+        CompletableFuture<String> first = coalescer.execute("hola", () -> countCall(calls, reply)).toFuture();
+        CompletableFuture<String> second = coalescer.execute("hola", () -> countCall(calls, reply)).toFuture();
+        reply.tryEmitValue("¡Hola!");
+
+        assertEquals("¡Hola!", first.join());
+        assertEquals("¡Hola!", second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1.0, meterRegistry.get("ia.coalescing.joined").counter().count());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotMerged() {
+        AtomicInteger calls = new AtomicInteger();
+
+        coalescer.execute("hola", () -> countCall(calls, Mono.just("a"))).block();
+        coalescer.execute("adiós", () -> countCall(calls, Mono.just("b"))).block();
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testErrorsAreSharedAndNextCallRunsAgain() {
+        AtomicInteger calls = new AtomicInteger();
+        Sinks.One<String> reply = Sinks.one();
+
+        CompletableFuture<String> first = coalescer.execute("hola", () -> countCall(calls, reply)).toFuture();
+        CompletableFuture<String> second = coalescer.execute("hola", () -> countCall(calls, reply)).toFuture();
+        reply.tryEmitError(new IllegalStateException("Ollama caído"));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals("otra vez", coalescer.execute("hola", () -> countCall(calls, Mono.just("otra vez"))).block());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testCallCancelledOnlyWhenEveryCallerLeaves() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Mono<String> slowCall = Mono.<String>never().doOnCancel(() -> cancelled.set(true));
+
+        Disposable first = coalescer.execute("hola", () -> slowCall).subscribe();
+        Disposable second = coalescer.execute("hola", () -> slowCall).subscribe();
+
+        first.dispose();
+        assertFalse(cancelled.get());
+
+        second.dispose();
+        assertTrue(cancelled.get());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    private Mono<String> countCall(AtomicInteger calls, Sinks.One<String> reply) {
+        return countCall(calls, reply.asMono());
+    }
+
+    private Mono<String> countCall(AtomicInteger calls, Mono<String> reply) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return reply;
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package com.blinky.apillama3blinky.mapping;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EmbeddingMappingTest {
+
+    @Test
+    public void testRoundTripKeepsComponents() {
+        float[] vector = {0f, -1.5f, 3.25e-7f, Float.MAX_VALUE, 0.1234f};
+
+        byte[] bytes = EmbeddingMapping.toBytes(vector);
+
+        assertEquals(vector.length * 4, bytes.length);
+        assertArrayEquals(vector, EmbeddingMapping.toVector(bytes));
+    }
+
+    @Test
+    public void testTruncatedBytesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingMapping.toVector(new byte[]{1, 2, 3}));
+    }
+}
@@ -0,0 +1,39 @@
+package com.blinky.apillama3blinky.mapping;
+
+import com.blinky.apillama3blinky.model.Event;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.KeysetScrollPosition;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventCursorMappingTest {
+
+    @Test
+    public void testRoundTripKeepsStartTimeAndId() {
+        Event event = new Event("Reunión", LocalDateTime.of(2026, 3, 1, 9, 30, 15), LocalDateTime.of(2026, 3, 1, 10, 0), null);
+        event.setId(42L);
+
+        KeysetScrollPosition position = EventCursorMapping.toScrollPosition(EventCursorMapping.toCursor(event));
+
+        assertEquals(event.getStartTime(), position.getKeys().get("startTime"));
+        assertEquals(42L, position.getKeys().get("id"));
+        assertTrue(position.scrollsForward());
+    }
+
+    @Test
+    public void testMissingCursorStartsFromTheBeginning() {
+        assertTrue(EventCursorMapping.toScrollPosition(null).isInitial());
+        assertTrue(EventCursorMapping.toScrollPosition("").isInitial());
+    }
+
+    @Test
+    public void testMalformedCursorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EventCursorMapping.toScrollPosition("no-es-un-cursor"));
+        assertThrows(IllegalArgumentException.class, () -> EventCursorMapping.toScrollPosition("%%%"));
+        assertThrows(IllegalArgumentException.class, () -> EventCursorMapping.toScrollPosition("MjAyNnwxMg"));
+    }
+}
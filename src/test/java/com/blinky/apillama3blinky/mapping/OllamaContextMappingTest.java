@@ -0,0 +1,42 @@
+package com.blinky.apillama3blinky.mapping;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OllamaContextMappingTest {
+
+    @Test
+    public void testRoundTripKeepsTokensAndOrder() {
+        // Tokens covering one, two, three and five byte varints
+        List<Integer> tokens = List.of(0, 1, 127, 128, 16383, 16384, 128006, 2_000_000_000);
+
+        byte[] bytes = OllamaContextMapping.toBytes(tokens);
+        int[] decoded = OllamaContextMapping.toTokens(bytes);
+
+        assertArrayEquals(tokens.stream().mapToInt(Integer::intValue).toArray(), decoded);
+    }
+
+    @Test
+    public void testTypicalTokensAreSmallerThanInts() {
+        // Llama 3 token ids fit in three bytes or less
+        List<Integer> tokens = List.of(128000, 9906, 11, 1268, 527, 499, 30, 128009);
+
+        byte[] bytes = OllamaContextMapping.toBytes(tokens);
+
+        assertEquals(16, bytes.length);
+    }
+
+    @Test
+    public void testTruncatedBytesAreRejected() {
+        byte[] bytes = OllamaContextMapping.toBytes(List.of(16384));
+
+        byte[] truncated = new byte[]{bytes[0], bytes[1]};
+
+        assertThrows(IllegalArgumentException.class, () -> OllamaContextMapping.toTokens(truncated));
+    }
+}
@@ -0,0 +1,86 @@
+package com.blinky.apillama3blinky.model;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConversationHistoryTest {
+
+    @Test
+    public void testPairsEachMessageWithItsResponse() {
+        Conversation conversation = conversationWithMessages(3);
+        // Responses stored out of order, and none for the last message
+        conversation.getAiResponses().add(response(conversation.getUserMessages().get(1), false));
+        conversation.getAiResponses().add(response(conversation.getUserMessages().get(0), false));
+
+        List<ConversationHistory.Turn> turns = ConversationHistory.of(conversation).getTurns();
+
+        assertEquals(3, turns.size());
+        for (int i = 0; i < 3; i++) {
+            assertSame(conversation.getUserMessages().get(i), turns.get(i).userMessage());
+        }
+        assertEquals("respuesta 1", turns.get(0).response().getContent());
+        assertEquals("respuesta 2", turns.get(1).response().getContent());
+        assertNull(turns.get(2).response());
+        assertFalse(turns.get(2).isAnswered());
+    }
+
+    @Test
+    public void testAbortedResponseIsNotAnswered() {
+        Conversation conversation = conversationWithMessages(1);
+        conversation.getAiResponses().add(response(conversation.getUserMessages().get(0), true));
+
+        ConversationHistory.Turn turn = ConversationHistory.of(conversation).getTurns().get(0);
+
+        assertTrue(turn.isAborted());
+        assertFalse(turn.isAnswered());
+    }
+
+    @Test
+    public void testTurnsAfterSummaryStartAfterSummarizedMessage() {
+        Conversation conversation = conversationWithMessages(5);
+        conversation.setSummarizedUpToMessageId(3L);
+
+        ConversationHistory history = ConversationHistory.of(conversation);
+
+        assertEquals(5, history.getTurns().size());
+        List<ConversationHistory.Turn> recent = history.getTurnsAfterSummary();
+        assertEquals(2, recent.size());
+        assertEquals(4L, recent.get(0).userMessage().getId());
+        assertEquals(5L, recent.get(1).userMessage().getId());
+    }
+
+    @Test
+    public void testTurnsAfterSummaryWithoutSummaryAreAllTurns() {
+        Conversation conversation = conversationWithMessages(4);
+
+        assertEquals(4, ConversationHistory.of(conversation).getTurnsAfterSummary().size());
+    }
+
+    private Conversation conversationWithMessages(int count) {
+        Conversation conversation = new Conversation("Test Conversation");
+        conversation.setUserMessages(new ArrayList<>());
+        conversation.setAiResponses(new ArrayList<>());
+        for (int i = 1; i <= count; i++) {
+            UserMessage userMessage = new UserMessage("mensaje " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+        }
+        return conversation;
+    }
+
+    private AIResponse response(UserMessage userMessage, boolean aborted) {
+        AIResponse response = new AIResponse("respuesta " + userMessage.getId());
+        response.setUserMessage(userMessage);
+        response.setAborted(aborted);
+        return response;
+    }
+}
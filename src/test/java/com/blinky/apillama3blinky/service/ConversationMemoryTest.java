@@ -0,0 +1,165 @@
+package com.blinky.apillama3blinky.service;
+
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.mapping.EmbeddingMapping;
+import com.blinky.apillama3blinky.model.MessageEmbedding;
+import com.blinky.apillama3blinky.model.UserMessage;
+import com.blinky.apillama3blinky.repository.MessageEmbeddingRepository;
+import com.blinky.apillama3blinky.repository.UserMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the long-term memory of past exchanges.
+ */
+@ExtendWith(MockitoExtension.class)
+public class ConversationMemoryTest {
+
+    @Mock
+    private OllamaService ollamaService;
+
+    @Mock
+    private MessageEmbeddingRepository messageEmbeddingRepository;
+
+    @Mock
+    private UserMessageRepository userMessageRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private ConversationMemory memory;
+
+    @BeforeEach
+    void setUp() {
+        memory = new ConversationMemory(true, "nomic-embed-text", 2, 0.5, Duration.ofSeconds(1), 10, 1, 10,
+                ollamaService, messageEmbeddingRepository, userMessageRepository, transactionTemplate,
+                new SimpleMeterRegistry());
+
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        lenient().doAnswer(invocation -> {
+            Consumer<TransactionStatus> action = invocation.getArgument(0);
+            action.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        memory.shutdown();
+    }
+
+    @Test
+    void testRecall_ShouldReturnMostSimilarStoredExchanges() {
+        when(messageEmbeddingRepository.findByUserIdAndModel(1L, "nomic-embed-text")).thenReturn(List.of(
+                stored(10L, "user: Mi perro se llama Toby\n", new float[]{1f, 0f, 0f}),
+                stored(11L, "user: Trabajo en Madrid\n", new float[]{0f, 1f, 0f}),
+                stored(12L, "user: Me gusta el fútbol\n", new float[]{0f, 0f, 1f})));
+        memory.load(1L);
+        embeds("¿Cómo se llama mi perro?", new float[]{0.8f, 0.6f, 0f});
+
+        List<ConversationMemory.Memory> recalled = memory.recall(1L, "¿Cómo se llama mi perro?");
+
+        // The third exchange is orthogonal to the message, below the minimum similarity
+        assertEquals(List.of(10L, 11L), recalled.stream().map(ConversationMemory.Memory::userMessageId).toList());
+        assertEquals("user: Mi perro se llama Toby\n", recalled.get(0).content());
+        assertTrue(recalled.get(0).similarity() > recalled.get(1).similarity());
+    }
+
+    @Test
+    void testRecall_UserNotLoaded_ShouldAnswerWithoutMemoriesAndLoadInBackground() {
+        when(messageEmbeddingRepository.findByUserIdAndModel(1L, "nomic-embed-text")).thenReturn(List.of());
+
+        assertTrue(memory.recall(1L, "Hola").isEmpty());
+
+        verify(messageEmbeddingRepository, timeout(5000)).findByUserIdAndModel(1L, "nomic-embed-text");
+        verify(ollamaService, never()).embed(any(), any(), any(OllamaRequestContext.class));
+    }
+
+    @Test
+    void testRecall_WhenEmbeddingFails_ShouldReturnNoMemories() {
+        when(messageEmbeddingRepository.findByUserIdAndModel(1L, "nomic-embed-text")).thenReturn(List.of(
+                stored(10L, "user: Mi perro se llama Toby\n", new float[]{1f, 0f, 0f})));
+        memory.load(1L);
+        when(ollamaService.embed(any(), any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.error(new IllegalStateException("Ollama caído")));
+
+        assertTrue(memory.recall(1L, "¿Cómo se llama mi perro?").isEmpty());
+    }
+
+    @Test
+    void testIndex_ShouldStoreEmbeddingAndAddItToLoadedIndex() {
+        when(messageEmbeddingRepository.findByUserIdAndModel(1L, "nomic-embed-text")).thenReturn(List.of());
+        memory.load(1L);
+        UserMessage userMessage = new UserMessage("Mi perro se llama Toby");
+        when(userMessageRepository.getReferenceById(10L)).thenReturn(userMessage);
+        embeds("user: Mi perro se llama Toby\n", new float[]{1f, 0f, 0f});
+        embeds("¿Y mi perro?", new float[]{1f, 0.1f, 0f});
+
+        memory.index(1L, 10L, "user: Mi perro se llama Toby\n");
+
+        ArgumentCaptor<MessageEmbedding> saved = ArgumentCaptor.forClass(MessageEmbedding.class);
+        verify(messageEmbeddingRepository).save(saved.capture());
+        assertEquals(1L, saved.getValue().getUserId());
+        assertSame(userMessage, saved.getValue().getUserMessage());
+        assertArrayEquals(new float[]{1f, 0f, 0f}, EmbeddingMapping.toVector(saved.getValue().getVector()));
+        assertEquals(10L, memory.recall(1L, "¿Y mi perro?").get(0).userMessageId());
+    }
+
+    @Test
+    void testForget_ShouldDropLoadedIndex() {
+        when(messageEmbeddingRepository.findByUserIdAndModel(1L, "nomic-embed-text")).thenReturn(List.of(
+                stored(10L, "user: Mi perro se llama Toby\n", new float[]{1f, 0f, 0f})));
+        memory.load(1L);
+
+        memory.forget(1L);
+
+        assertTrue(memory.recall(1L, "¿Cómo se llama mi perro?").isEmpty());
+        verify(ollamaService, never()).embed(any(), any(), any(OllamaRequestContext.class));
+    }
+
+    private void embeds(String text, float[] embedding) {
+        when(ollamaService.embed(eq("nomic-embed-text"), eq(text), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(embedding));
+    }
+
+    private static MessageEmbeddingRepository.StoredMemory stored(Long userMessageId, String content, float[] vector) {
+        return new MessageEmbeddingRepository.StoredMemory() {
+            @Override
+            public Long getUserMessageId() {
+                return userMessageId;
+            }
+
+            @Override
+            public String getContent() {
+                return content;
+            }
+
+            @Override
+            public byte[] getVector() {
+                return EmbeddingMapping.toBytes(vector);
+            }
+        };
+    }
+}
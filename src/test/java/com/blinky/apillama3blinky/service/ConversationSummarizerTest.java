@@ -0,0 +1,230 @@
+package com.blinky.apillama3blinky.service;
+
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
+import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.model.AIResponse;
+import com.blinky.apillama3blinky.model.Conversation;
+import com.blinky.apillama3blinky.model.ConversationHistory;
+import com.blinky.apillama3blinky.model.UserMessage;
+import com.blinky.apillama3blinky.repository.ConversationRepository;
+import com.blinky.apillama3blinky.repository.UserMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the background summaries of long conversations.
+ */
+@ExtendWith(MockitoExtension.class)
+public class ConversationSummarizerTest {
+
+    @Mock
+    private OllamaService ollamaService;
+
+    @Mock
+    private ConversationRepository conversationRepository;
+
+    @Mock
+    private UserMessageRepository userMessageRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConversationSummarizer summarizer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // Summarize once there are more than 4 turns, keeping the last 2, out of the 50 most recent turns
+        summarizer = new ConversationSummarizer(true, 4, 2, 256, Duration.ofSeconds(5), 1, 10, 50,
+                ollamaService, conversationRepository, userMessageRepository, transactionTemplate, meterRegistry);
+        ReflectionTestUtils.setField(summarizer, "iaModel", "llama3");
+
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        lenient().doAnswer(invocation -> {
+            Consumer<TransactionStatus> action = invocation.getArgument(0);
+            action.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        summarizer.shutdown();
+    }
+
+    @Test
+    void testSummarize_ShouldCondenseAllButTheMostRecentTurns() {
+        Conversation conversation = conversationWithTurns(6);
+        mockStoredConversation(conversation);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, " El usuario habló de sus planes. ", true, "stop", null)));
+
+        summarizer.summarize(1L, 7L);
+
+        ArgumentCaptor<OllamaDTO> request = ArgumentCaptor.forClass(OllamaDTO.class);
+        ArgumentCaptor<OllamaRequestContext> context = ArgumentCaptor.forClass(OllamaRequestContext.class);
+        verify(ollamaService).sendPromptAsync(request.capture(), context.capture());
+        assertTrue(request.getValue().getPrompt().contains("user: User message 3\nassistant: AI response 3\n"));
+        assertFalse(request.getValue().getPrompt().contains("User message 4"));
+        assertEquals(256, request.getValue().getNumPredict());
+        assertEquals(OllamaRequestContext.Workload.SUMMARY, context.getValue().workload());
+
+        assertEquals("El usuario habló de sus planes.", conversation.getSummary());
+        assertEquals(3L, conversation.getSummarizedUpToMessageId());
+        assertEquals(1.0, meterRegistry.get("ia.summary.requests").tag("result", "stored").counter().count());
+    }
+
+    @Test
+    void testSummarize_ShouldFoldPreviousSummaryAndSkipSummarizedTurns() {
+        Conversation conversation = conversationWithTurns(8);
+        conversation.setSummary("El usuario se llama Ana.");
+        conversation.setSummarizedUpToMessageId(1L);
+        mockStoredConversation(conversation);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Ana habló de sus planes.", true, "stop", null)));
+
+        summarizer.summarize(1L, 7L);
+
+        ArgumentCaptor<OllamaDTO> request = ArgumentCaptor.forClass(OllamaDTO.class);
+        verify(ollamaService).sendPromptAsync(request.capture(), any(OllamaRequestContext.class));
+        assertTrue(request.getValue().getPrompt().contains("El usuario se llama Ana."));
+        assertFalse(request.getValue().getPrompt().contains("User message 1\n"));
+        assertTrue(request.getValue().getPrompt().contains("User message 2"));
+        assertEquals(5L, conversation.getSummarizedUpToMessageId());
+    }
+
+    @Test
+    void testSummarize_WhenConversationClearedMeanwhile_ShouldNotStoreSummary() {
+        Conversation conversation = conversationWithTurns(6);
+        Conversation cleared = new Conversation("Test Conversation");
+        when(conversationRepository.findById(1L)).thenReturn(Optional.of(conversation));
+        when(userMessageRepository.findRecentTurns(1L, Limit.of(50))).thenReturn(recentTurns(conversation));
+        when(conversationRepository.findForUpdateById(1L)).thenReturn(Optional.of(cleared));
+        when(userMessageRepository.existsById(3L)).thenReturn(false);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Resumen", true, "stop", null)));
+
+        summarizer.summarize(1L, 7L);
+
+        assertNull(cleared.getSummary());
+        assertNull(cleared.getSummarizedUpToMessageId());
+    }
+
+    @Test
+    void testSummarizeIfNeeded_ShortConversation_ShouldNotCallModel() {
+        summarizer.summarizeIfNeeded(1L, 7L, 4);
+
+        verifyNoInteractions(ollamaService, conversationRepository);
+    }
+
+    @Test
+    void testSummarizeIfNeeded_LongConversation_ShouldSummarizeInBackground() throws Exception {
+        Conversation conversation = conversationWithTurns(5);
+        mockStoredConversation(conversation);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Resumen", true, "stop", null)));
+
+        CountDownLatch stored = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            Consumer<TransactionStatus> action = invocation.getArgument(0);
+            action.accept(null);
+            stored.countDown();
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+
+        summarizer.summarizeIfNeeded(1L, 7L, 5);
+
+        assertTrue(stored.await(5, TimeUnit.SECONDS));
+        assertEquals(2L, conversation.getSummarizedUpToMessageId());
+    }
+
+    @Test
+    void testSummarize_ShouldReadOnlyTheRecentTurnsWindow() {
+        Conversation conversation = conversationWithTurns(6);
+        mockStoredConversation(conversation);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Resumen", true, "stop", null)));
+
+        summarizer.summarize(1L, 7L);
+
+        // The window query and an existence check, never the whole conversation
+        verify(userMessageRepository).findRecentTurns(1L, Limit.of(50));
+        verify(userMessageRepository).existsById(3L);
+        assertEquals(3L, conversation.getSummarizedUpToMessageId());
+    }
+
+    @Test
+    void testConstructor_WindowNotLargerThanTrigger_ShouldBeRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ConversationSummarizer(true, 4, 2, 256,
+                Duration.ofSeconds(5), 1, 10, 4, ollamaService, conversationRepository, userMessageRepository,
+                transactionTemplate, meterRegistry));
+    }
+
+    /**
+     * Makes the repositories return the conversation, its most recent turns and its stored messages.
+     */
+    private void mockStoredConversation(Conversation conversation) {
+        when(conversationRepository.findById(1L)).thenReturn(Optional.of(conversation));
+        when(conversationRepository.findForUpdateById(1L)).thenReturn(Optional.of(conversation));
+        when(userMessageRepository.findRecentTurns(1L, Limit.of(50))).thenReturn(recentTurns(conversation));
+        lenient().when(userMessageRepository.existsById(anyLong())).thenReturn(true);
+    }
+
+    /**
+     * Lists the turns of a conversation newest first, as the window query returns them.
+     */
+    private List<ConversationHistory.Turn> recentTurns(Conversation conversation) {
+        List<ConversationHistory.Turn> turns = new ArrayList<>(ConversationHistory.of(conversation).getTurns());
+        Collections.reverse(turns);
+        return turns;
+    }
+
+    /**
+     * Builds a conversation with the given number of answered turns, whose user messages have IDs from 0.
+     */
+    private Conversation conversationWithTurns(int turns) {
+        Conversation conversation = new Conversation("Test Conversation");
+        ReflectionTestUtils.setField(conversation, "id", 1L);
+        for (int i = 0; i < turns; i++) {
+            UserMessage userMessage = new UserMessage("User message " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+
+            AIResponse aiResponse = new AIResponse("AI response " + i);
+            aiResponse.setUserMessage(userMessage);
+            conversation.getAiResponses().add(aiResponse);
+        }
+        return conversation;
+    }
+}
@@ -1,28 +1,56 @@
 package com.blinky.apillama3blinky.service;
 
+import com.blinky.apillama3blinky.cache.LlmResponseCache;
 import com.blinky.apillama3blinky.cache.PersonalityCache;
+import com.blinky.apillama3blinky.cache.SemanticResponseCache;
+import com.blinky.apillama3blinky.client.OllamaRequestContext;
+import com.blinky.apillama3blinky.client.RequestCoalescer;
+import com.blinky.apillama3blinky.controller.dto.EventDTO;
+import com.blinky.apillama3blinky.controller.dto.OllamaDTO;
 import com.blinky.apillama3blinky.controller.dto.PromptDTO;
 import com.blinky.apillama3blinky.controller.response.OllamaResponse;
+import com.blinky.apillama3blinky.controller.response.PromptChunkResponse;
+import com.blinky.apillama3blinky.controller.response.PromptResponse;
+import com.blinky.apillama3blinky.exception.CircuitOpenException;
 import com.blinky.apillama3blinky.model.*;
 import com.blinky.apillama3blinky.repository.AIResponseRepository;
 import com.blinky.apillama3blinky.repository.ConversationRepository;
 import com.blinky.apillama3blinky.repository.UserMessageRepository;
 import com.blinky.apillama3blinky.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
@@ -50,10 +78,25 @@ public class LlamaApiServiceTest {
     @Mock
     private PersonalityCache personalityCache;
 
+    @Mock
+    private EventService eventService;
+
+    @Mock
+    private ConversationSummarizer conversationSummarizer;
+
+    @Mock
+    private ConversationMemory conversationMemory;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private LlmResponseCache responseCache;
+
     private LlamaApiService llamaApiService;
 
     @BeforeEach
     void setUp() {
+        responseCache = new LlmResponseCache(DataSize.ofMegabytes(1), Duration.ofHours(1), new SimpleMeterRegistry());
         llamaApiService = new LlamaApiService(
                 ollamaService,
                 userRepository,
@@ -61,17 +104,26 @@ public class LlamaApiServiceTest {
                 userMessageRepository,
                 aiResponseRepository,
                 personalityService,
-                personalityCache
+                personalityCache,
+                responseCache,
+                new SemanticResponseCache(0.9, 100, Duration.ofHours(1), new SimpleMeterRegistry()),
+                new RequestCoalescer(new SimpleMeterRegistry()),
+                new TokenEstimator(3.5, 2048, List.of()),
+                conversationSummarizer,
+                conversationMemory,
+                eventService,
+                transactionTemplate
         );
         ReflectionTestUtils.setField(llamaApiService, "iaModel", "llama3");
+        ReflectionTestUtils.setField(llamaApiService, "historyMaxTurns", 50);
     }
 
     /**
-     * Test that the sliding window only includes the last N interactions.
+     * Test that the history only includes the newest interactions that fit in the token budget.
      */
     @Test
-    void testBuildPromptWithWindow_ShouldLimitToWindowSize() throws Exception {
-        // Create a conversation with more messages than the window size
+    void testBuildPromptWithinBudget_ShouldKeepNewestTurnsThatFit() throws Exception {
+        // Create a conversation with more messages than the budget allows
         Conversation conversation = new Conversation("Test Conversation");
         List<UserMessage> userMessages = new ArrayList<>();
         List<AIResponse> aiResponses = new ArrayList<>();
@@ -92,12 +144,13 @@ public class LlamaApiServiceTest {
         conversation.setAiResponses(aiResponses);
 
         // Use reflection to access the private method
-        Method buildPromptWithWindowMethod = LlamaApiService.class.getDeclaredMethod(
-                "buildPromptWithWindow", Conversation.class, int.class);
-        buildPromptWithWindowMethod.setAccessible(true);
+        Method buildPromptWithinBudgetMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildPromptWithinBudget", ConversationHistory.class, int.class);
+        buildPromptWithinBudgetMethod.setAccessible(true);
 
-        // Test with window size 5
-        String result = (String) buildPromptWithWindowMethod.invoke(llamaApiService, conversation, 5);
+        // Test with a budget for 5 turns, all of the same length
+        int turnTokens = new TokenEstimator(3.5, 2048, List.of()).estimate("user: User message 5\nassistant: AI response 5\n");
+        String result = (String) buildPromptWithinBudgetMethod.invoke(llamaApiService, ConversationHistory.of(conversation), 5 * turnTokens);
 
         // Verify that only the last 5 messages are included
         assertFalse(result.contains("User message 0"));
@@ -111,10 +164,10 @@ public class LlamaApiServiceTest {
     }
 
     /**
-     * Test that the fetch join method is used to avoid N+1 queries.
+     * Test that the whole conversation is not fetched to start a turn.
      */
     @Test
-    void testGetOrCreateConversation_ShouldUseFetchJoin() throws Exception {
+    void testGetOrCreateConversation_ShouldNotFetchWholeHistory() throws Exception {
         // Create a user with a conversation
         User user = new User();
         user.setId(1L);
@@ -123,20 +176,39 @@ public class LlamaApiServiceTest {
         ReflectionTestUtils.setField(conversation, "id", 1L);
         user.setConversation(conversation);
 
-        // Mock the repository to return the conversation with fetch join
-        when(conversationRepository.findWithMessagesAndResponses(anyLong()))
-                .thenReturn(Optional.of(conversation));
-
         // Use reflection to access the private method
         Method getOrCreateConversationMethod = LlamaApiService.class.getDeclaredMethod(
                 "getOrCreateConversation", User.class);
         getOrCreateConversationMethod.setAccessible(true);
 
         // Call the method
-        getOrCreateConversationMethod.invoke(llamaApiService, user);
+        assertSame(conversation, getOrCreateConversationMethod.invoke(llamaApiService, user));
+
+        // Verify that neither the messages nor the responses were fetched
+        verifyNoInteractions(userMessageRepository, aiResponseRepository);
+    }
 
-        // Verify that the fetch join method was called
-        verify(conversationRepository).findWithMessagesAndResponses(conversation.getId());
+    /**
+     * Test that a turn reads only the most recent turns of the conversation, oldest first.
+     */
+    @Test
+    void testLoadRecentTurns_ShouldQueryOnlyTheWindow() throws Exception {
+        Conversation conversation = new Conversation("Test Conversation");
+        ReflectionTestUtils.setField(conversation, "id", 1L);
+        UserMessage older = new UserMessage("Older");
+        UserMessage newer = new UserMessage("Newer");
+        when(userMessageRepository.findRecentTurns(1L, Limit.of(50))).thenReturn(List.of(
+                new ConversationHistory.Turn(newer, null), new ConversationHistory.Turn(older, new AIResponse("Reply"))));
+
+        Method loadRecentTurnsMethod = LlamaApiService.class.getDeclaredMethod("loadRecentTurns", Conversation.class);
+        loadRecentTurnsMethod.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        List<ConversationHistory.Turn> turns = (List<ConversationHistory.Turn>) loadRecentTurnsMethod.invoke(llamaApiService, conversation);
+
+        assertEquals(2, turns.size());
+        assertSame(older, turns.get(0).userMessage());
+        assertSame(newer, turns.get(1).userMessage());
+        verify(userMessageRepository).findRecentTurns(1L, Limit.of(50));
     }
 
     /**
@@ -161,16 +233,633 @@ public class LlamaApiServiceTest {
 
         // Use reflection to access the private method
         Method getPersonalityForPromptMethod = LlamaApiService.class.getDeclaredMethod(
-                "getPersonalityForPrompt", PromptDTO.class, Conversation.class);
+                "getPersonalityForPrompt", PromptDTO.class, List.class);
         getPersonalityForPromptMethod.setAccessible(true);
 
         // Call the method
         Personality result = (Personality) getPersonalityForPromptMethod.invoke(
-                llamaApiService, promptDTO, conversation);
+                llamaApiService, promptDTO, List.of());
 
         // Verify that the cache was used and the service was not called
         verify(personalityCache).getPersonalityById(1L);
         verify(personalityService, never()).getPersonalityById(anyLong());
         assertEquals(personality, result);
     }
+
+    /**
+     * Test that a stored Ollama context is sent back with only the new user message,
+     * and that a personality change falls back to the full prompt.
+     */
+    @Test
+    void testBuildOllamaRequest_WithReusableContext_ShouldSendOnlyNewMessage() throws Exception {
+        ReflectionTestUtils.setField(llamaApiService, "contextReuseEnabled", true);
+        ReflectionTestUtils.setField(llamaApiService, "contextReuseMaxTokens", 4096);
+
+        Personality personality = new Personality("Test Personality", "Base prompt", "Description");
+        ReflectionTestUtils.setField(personality, "id", 1L);
+        Personality otherPersonality = new Personality("Other Personality", "Other prompt", "Description");
+        ReflectionTestUtils.setField(otherPersonality, "id", 2L);
+
+        // A conversation whose last generation left a context behind
+        Conversation conversation = new Conversation("Test Conversation");
+        UserMessage previousMessage = new UserMessage("Previous message");
+        ReflectionTestUtils.setField(previousMessage, "id", 1L);
+        UserMessage newMessage = new UserMessage("New message");
+        ReflectionTestUtils.setField(newMessage, "id", 2L);
+        conversation.getUserMessages().add(previousMessage);
+        conversation.getUserMessages().add(newMessage);
+
+        Method updateContextMethod = LlamaApiService.class.getDeclaredMethod(
+                "updateConversationContext", Conversation.class, Personality.class, List.class);
+        updateContextMethod.setAccessible(true);
+        updateContextMethod.invoke(llamaApiService, conversation, personality, List.of(128000, 9906, 11));
+
+        Method buildOllamaRequestMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildOllamaRequest", Conversation.class, ConversationHistory.class, Personality.class, UserMessage.class,
+                boolean.class, List.class);
+        buildOllamaRequestMethod.setAccessible(true);
+
+        // Same personality: continue from the context with only the new message
+        OllamaDTO reused = (OllamaDTO) buildOllamaRequestMethod.invoke(llamaApiService, conversation, ConversationHistory.of(conversation), personality, newMessage, false, List.of());
+        assertArrayEquals(new int[]{128000, 9906, 11}, reused.getContext());
+        assertEquals("user: New message\n", reused.getPrompt());
+
+        // Different personality: the context is not valid, so the whole prompt is rebuilt
+        OllamaDTO rebuilt = (OllamaDTO) buildOllamaRequestMethod.invoke(llamaApiService, conversation, ConversationHistory.of(conversation), otherPersonality, newMessage, false, List.of());
+        assertNull(rebuilt.getContext());
+        assertTrue(rebuilt.getPrompt().startsWith("Other prompt"));
+        assertTrue(rebuilt.getPrompt().contains("Previous message"));
+    }
+
+    /**
+     * Test that a summarized conversation sends the summary followed only by the turns after it.
+     */
+    @Test
+    void testBuildOllamaRequest_WithSummary_ShouldReplaceSummarizedTurns() throws Exception {
+        Personality personality = new Personality("Test Personality", "Base prompt", "Description");
+        Conversation conversation = new Conversation("Test Conversation");
+        for (int i = 0; i < 4; i++) {
+            UserMessage userMessage = new UserMessage("User message " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+
+            AIResponse aiResponse = new AIResponse("AI response " + i);
+            aiResponse.setUserMessage(userMessage);
+            conversation.getAiResponses().add(aiResponse);
+        }
+        conversation.setSummary("El usuario se llama Ana.");
+        conversation.setSummarizedUpToMessageId(1L);
+
+        Method buildOllamaRequestMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildOllamaRequest", Conversation.class, ConversationHistory.class, Personality.class, UserMessage.class,
+                boolean.class, List.class);
+        buildOllamaRequestMethod.setAccessible(true);
+        OllamaDTO request = (OllamaDTO) buildOllamaRequestMethod.invoke(
+                llamaApiService, conversation, ConversationHistory.of(conversation), personality, conversation.getUserMessages().get(3), false, List.of());
+
+        assertEquals("Base prompt\n\nResumen de la conversación anterior:\nEl usuario se llama Ana.\n\n"
+                + "user: User message 2\nassistant: AI response 2\nuser: User message 3\nassistant: AI response 3\n",
+                request.getPrompt());
+    }
+
+    /**
+     * Test that recalled past exchanges are sent after the base prompt, except those already in the recent history.
+     */
+    @Test
+    void testBuildOllamaRequest_WithMemories_ShouldAddRelevantPastExchanges() throws Exception {
+        ReflectionTestUtils.setField(llamaApiService, "memoryMaxTokens", 512);
+        Personality personality = new Personality("Test Personality", "Base prompt", "Description");
+        Conversation conversation = new Conversation("Test Conversation");
+        UserMessage previousMessage = new UserMessage("¿Qué tal?");
+        ReflectionTestUtils.setField(previousMessage, "id", 20L);
+        UserMessage newMessage = new UserMessage("¿Cómo se llama mi perro?");
+        ReflectionTestUtils.setField(newMessage, "id", 21L);
+        conversation.getUserMessages().add(previousMessage);
+        conversation.getUserMessages().add(newMessage);
+
+        List<ConversationMemory.Memory> memories = List.of(
+                new ConversationMemory.Memory(3L, "user: Mi perro se llama Toby\nassistant: ¡Qué nombre tan bonito!\n", 0.9),
+                new ConversationMemory.Memory(20L, "user: ¿Qué tal?\nassistant: Bien\n", 0.6));
+
+        Method buildOllamaRequestMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildOllamaRequest", Conversation.class, ConversationHistory.class, Personality.class, UserMessage.class,
+                boolean.class, List.class);
+        buildOllamaRequestMethod.setAccessible(true);
+        OllamaDTO request = (OllamaDTO) buildOllamaRequestMethod.invoke(
+                llamaApiService, conversation, ConversationHistory.of(conversation), personality, newMessage, false, memories);
+
+        assertEquals("Base prompt\n\nFragmentos relevantes de conversaciones anteriores:\n"
+                + "user: Mi perro se llama Toby\nassistant: ¡Qué nombre tan bonito!\n\n"
+                + "user: ¿Qué tal?\nuser: ¿Cómo se llama mi perro?\n", request.getPrompt());
+    }
+
+    /**
+     * Test that sendPrompt calls the model outside of the short transactions that store the turn.
+     */
+    @Test
+    void testSendPrompt_ShouldCallModelOutsideOfTransactions() {
+        AtomicBoolean inTransaction = trackTransactions();
+        Personality personality = mockTurnCollaborators();
+
+        // Record whether the model is called while a transaction is open
+        AtomicBoolean calledInsideTransaction = new AtomicBoolean();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class))).thenReturn(Mono.fromCallable(() -> {
+            calledInsideTransaction.set(inTransaction.get());
+            return new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null);
+        }));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        PromptResponse response = llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+
+        // The model ran between the two transactions and the reply was stored in the second one
+        assertFalse(calledInsideTransaction.get());
+        assertEquals("Hola", response.getResponse());
+        ArgumentCaptor<AIResponse> captor = ArgumentCaptor.forClass(AIResponse.class);
+        verify(aiResponseRepository).save(captor.capture());
+        assertEquals("Hola [HAPPY]", captor.getValue().getContent());
+        assertEquals(personality, captor.getValue().getPersonality());
+        verify(userMessageRepository, never()).deleteById(anyLong());
+    }
+
+    /**
+     * Test that a turn is appended after the newest stored turn without going through the conversation's lists.
+     */
+    @Test
+    void testSendPrompt_ShouldAppendTurnAfterNewestTurn() {
+        trackTransactions();
+        mockTurnCollaborators();
+        UserMessage previousMessage = new UserMessage("Buenas");
+        ReflectionTestUtils.setField(previousMessage, "id", 9L);
+        previousMessage.setSeq(4);
+        AIResponse previousResponse = new AIResponse("Hola [HAPPY]");
+        previousResponse.setUserMessage(previousMessage);
+        when(userMessageRepository.findRecentTurns(1L, Limit.of(50)))
+                .thenReturn(List.of(new ConversationHistory.Turn(previousMessage, previousResponse)));
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "¿Qué quieres? [MEH]", true, "stop", null)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+
+        ArgumentCaptor<UserMessage> message = ArgumentCaptor.forClass(UserMessage.class);
+        verify(userMessageRepository).save(message.capture());
+        assertEquals(5, message.getValue().getSeq());
+        Conversation conversation = message.getValue().getConversation();
+        assertTrue(conversation.getUserMessages().isEmpty());
+        assertTrue(conversation.getAiResponses().isEmpty());
+        // The previous answered turn and the new one
+        verify(conversationSummarizer).summarizeIfNeeded(1L, 1L, 2);
+    }
+
+    /**
+     * Test that a turn reads its history through the window query, limited to the configured number of turns.
+     */
+    @Test
+    void testSendPrompt_ShouldReadHistoryWithConfiguredWindow() {
+        ReflectionTestUtils.setField(llamaApiService, "historyMaxTurns", 12);
+        trackTransactions();
+        mockTurnCollaborators();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+
+        verify(userMessageRepository).findRecentTurns(1L, Limit.of(12));
+        verify(userMessageRepository, times(1)).findRecentTurns(anyLong(), any(Limit.class));
+    }
+
+    /**
+     * Test that a reply to a conversation cleared while the model was answering is not stored.
+     */
+    @Test
+    void testSendPrompt_WhenConversationClearedMeanwhile_ShouldNotStoreReply() {
+        trackTransactions();
+        mockTurnCollaborators();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null)));
+        when(userMessageRepository.existsById(10L)).thenReturn(false);
+
+        PromptResponse response = llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+
+        assertNotNull(response);
+        verify(conversationRepository).findForUpdateById(1L);
+        verify(aiResponseRepository, never()).save(any(AIResponse.class));
+        verify(conversationSummarizer, never()).summarizeIfNeeded(anyLong(), anyLong(), anyInt());
+    }
+
+    /**
+     * Test that clearing a conversation locks it before deleting its turns, as a turn does.
+     */
+    @Test
+    void testClearConversation_ShouldLockConversationBeforeDeleting() {
+        User user = new User();
+        user.setId(1L);
+        Conversation conversation = new Conversation("Test Conversation");
+        ReflectionTestUtils.setField(conversation, "id", 1L);
+        conversation.setSummary("Resumen");
+        user.setConversation(conversation);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        when(conversationRepository.findForUpdateById(1L)).thenReturn(Optional.of(conversation));
+
+        llamaApiService.clearConversation("1");
+
+        InOrder inOrder = inOrder(conversationRepository, aiResponseRepository, userMessageRepository);
+        inOrder.verify(conversationRepository).findForUpdateById(1L);
+        inOrder.verify(aiResponseRepository).deleteByConversationId(1L);
+        inOrder.verify(userMessageRepository).deleteByConversationId(1L);
+        assertNull(conversation.getSummary());
+    }
+
+    /**
+     * Test that a failed model call discards the stored user message instead of leaving it unanswered.
+     */
+    @Test
+    void testSendPrompt_WhenModelFails_ShouldDiscardUserMessage() {
+        trackTransactions();
+        mockTurnCollaborators();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class))).thenReturn(Mono.error(new IllegalStateException("Ollama caído")));
+
+        assertThrows(IllegalStateException.class, () -> llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L));
+
+        verify(userMessageRepository).deleteById(10L);
+        verify(aiResponseRepository, never()).save(any(AIResponse.class));
+    }
+
+    /**
+     * Test that an identical prompt to a personality with the response cache enabled is answered without calling the model.
+     */
+    @Test
+    void testSendPrompt_WithResponseCacheEnabled_ShouldAnswerRepeatedPromptFromCache() {
+        ReflectionTestUtils.setField(llamaApiService, "responseCacheEnabled", true);
+        trackTransactions();
+        Personality personality = mockTurnCollaborators();
+        personality.setResponseCacheEnabled(true);
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        PromptResponse first = llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+        PromptResponse second = llamaApiService.sendPrompt(new PromptDTO("Hola"), 1L);
+
+        // Both turns are stored, but the model only generated the first reply
+        assertEquals(first.getResponse(), second.getResponse());
+        verify(ollamaService, times(1)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+        verify(aiResponseRepository, times(2)).save(any(AIResponse.class));
+        assertEquals(0.5, responseCache.getHitRatio());
+    }
+
+    /**
+     * Test that a first message close in meaning to an earlier one is answered from the semantic cache.
+     */
+    @Test
+    void testSendPrompt_WithSemanticCache_ShouldAnswerParaphrasedFirstMessageFromCache() {
+        ReflectionTestUtils.setField(llamaApiService, "semanticCacheEnabled", true);
+        trackTransactions();
+        Personality personality = mockTurnCollaborators();
+        ReflectionTestUtils.setField(personality, "id", 1L);
+        personality.setResponseCacheEnabled(true);
+        when(ollamaService.embed(any(), eq("Hola, ¿qué tal?"), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new float[]{1f, 0.1f, 0f}));
+        when(ollamaService.embed(any(), eq("hola que tal"), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new float[]{1f, 0.12f, 0f}));
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "¡Muy bien! [HAPPY]", true, "stop", null)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        PromptResponse first = llamaApiService.sendPrompt(new PromptDTO("Hola, ¿qué tal?"), 1L);
+        // The user clears the conversation, so the paraphrase is again a first message
+        userRepository.findById(1L).orElseThrow().setConversation(null);
+        PromptResponse paraphrase = llamaApiService.sendPrompt(new PromptDTO("hola que tal"), 1L);
+
+        assertEquals(first.getResponse(), paraphrase.getResponse());
+        verify(ollamaService, times(2)).embed(any(), any(), any(OllamaRequestContext.class));
+        verify(ollamaService, times(1)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+    }
+
+    /**
+     * Test that a reply from the semantic cache does not leave the Ollama context of the earlier prompt,
+     * which may be another user's, in the conversation.
+     */
+    @Test
+    void testSendPrompt_FromSemanticCache_ShouldNotStoreContextOfEarlierPrompt() {
+        ReflectionTestUtils.setField(llamaApiService, "semanticCacheEnabled", true);
+        ReflectionTestUtils.setField(llamaApiService, "contextReuseEnabled", true);
+        trackTransactions();
+        Personality personality = mockTurnCollaborators();
+        ReflectionTestUtils.setField(personality, "id", 1L);
+        personality.setResponseCacheEnabled(true);
+        Conversation conversation = conversationRepository.findForUpdateById(1L).orElseThrow();
+        when(ollamaService.embed(any(), eq("Hola, ¿qué tal?"), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new float[]{1f, 0.1f, 0f}));
+        when(ollamaService.embed(any(), eq("hola que tal"), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new float[]{1f, 0.12f, 0f}));
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.just(new OllamaResponse("llama3", null, "¡Muy bien! [HAPPY]", true, "stop",
+                        List.of(128000, 9906, 11))));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // The generated reply leaves its own context in the conversation
+        llamaApiService.sendPrompt(new PromptDTO("Hola, ¿qué tal?"), 1L);
+        assertNotNull(conversation.getLlmContext());
+
+        userRepository.findById(1L).orElseThrow().setConversation(null);
+        llamaApiService.sendPrompt(new PromptDTO("hola que tal"), 1L);
+
+        verify(ollamaService, times(1)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+        assertNull(conversation.getLlmContext());
+        assertNull(conversation.getLlmContextKey());
+    }
+
+    /**
+     * Test that identical event requests of a user made at the same time share a single generation.
+     */
+    @Test
+    void testCreateEventWithAIAsync_ConcurrentIdenticalRequests_ShouldShareOneGeneration() {
+        User user = new User();
+        user.setId(1L);
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        Sinks.One<OllamaResponse> generation = Sinks.one();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class))).thenReturn(generation.asMono());
+
+        PromptDTO prompt = new PromptDTO("Crea un evento mañana a las 10 para ir al médico");
+        CompletableFuture<EventDTO> first = llamaApiService.createEventWithAIAsync(prompt, 1L).toFuture();
+        CompletableFuture<EventDTO> retry = llamaApiService.createEventWithAIAsync(prompt, 1L).toFuture();
+        verify(ollamaService, timeout(5000)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+
+        generation.tryEmitValue(new OllamaResponse("llama3", null,
+                "{\"title\":\"Médico\",\"startTime\":\"2099-01-01T10:00:00\",\"endTime\":\"2099-01-01T11:00:00\","
+                        + "\"location\":\"Centro de salud\",\"description\":\"Revisión\"}", true, "stop", null));
+
+        assertEquals("Médico", first.join().getTitle());
+        assertEquals("Médico", retry.join().getTitle());
+        verify(ollamaService, times(1)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+    }
+
+    /**
+     * Test that a user retrying a prompt while the first request is still being answered shares its turn,
+     * while the same prompt of another user gets its own.
+     */
+    @Test
+    void testSendPromptAsync_ConcurrentRetry_ShouldShareTheFirstTurn() {
+        trackTransactions();
+        mockTurnCollaborators();
+        User otherUser = new User();
+        otherUser.setId(2L);
+        otherUser.setEmail("other@example.com");
+        when(userRepository.findById(2L)).thenReturn(Optional.of(otherUser));
+        Sinks.One<OllamaResponse> generation = Sinks.one();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class))).thenReturn(generation.asMono());
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        CompletableFuture<PromptResponse> first = llamaApiService.sendPromptAsync(new PromptDTO("Hola"), 1L).toFuture();
+        verify(ollamaService, timeout(5000)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+        CompletableFuture<PromptResponse> retry = llamaApiService.sendPromptAsync(new PromptDTO("Hola"), 1L).toFuture();
+        CompletableFuture<PromptResponse> otherUserPrompt = llamaApiService.sendPromptAsync(new PromptDTO("Hola"), 2L).toFuture();
+        verify(ollamaService, timeout(5000).times(2)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+        generation.tryEmitValue(new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null));
+
+        assertEquals("Hola", first.join().getResponse());
+        assertEquals("Hola", retry.join().getResponse());
+        assertEquals("Hola", otherUserPrompt.join().getResponse());
+        // One turn for the user and its retry, one for the other user
+        verify(userMessageRepository, times(2)).save(any(UserMessage.class));
+        verify(aiResponseRepository, times(2)).save(any(AIResponse.class));
+        verify(ollamaService, times(2)).sendPromptAsync(any(), any(OllamaRequestContext.class));
+    }
+
+    /**
+     * Test that while the circuit to the model is open the personality's fallback reply is returned and the turn is discarded.
+     */
+    @Test
+    void testSendPromptAsync_WhenCircuitOpen_ShouldReplyWithPersonalityFallback() {
+        trackTransactions();
+        Personality personality = mockTurnCollaborators();
+        personality.setFallbackReply("Estoy echando una siesta, vuelve luego. [SLEEPY]");
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Mono.error(new CircuitOpenException("El asistente no está disponible")));
+
+        PromptResponse response = llamaApiService.sendPromptAsync(new PromptDTO("Hola"), 1L).block();
+
+        assertEquals("Estoy echando una siesta, vuelve luego.", response.getResponse());
+        assertEquals("[SLEEPY]", response.getReaction());
+        verify(userMessageRepository).deleteById(10L);
+        verify(aiResponseRepository, never()).save(any(AIResponse.class));
+    }
+
+    /**
+     * Test that a streamed prompt falls back to the default [ERROR] reply when the circuit is open.
+     */
+    @Test
+    void testStreamPrompt_WhenCircuitOpen_ShouldEndWithDefaultFallback() {
+        trackTransactions();
+        mockTurnCollaborators();
+        when(ollamaService.streamPrompt(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Flux.error(new CircuitOpenException("El asistente no está disponible")));
+
+        List<PromptChunkResponse> chunks = llamaApiService.streamPrompt(new PromptDTO("Hola"), 1L).collectList().block();
+
+        assertEquals(1, chunks.size());
+        assertTrue(chunks.get(0).isDone());
+        assertEquals("[ERROR]", chunks.get(0).getReaction());
+        verify(userMessageRepository).deleteById(10L);
+    }
+
+    /**
+     * Test that cancelling a prompt (client gone or deadline passed) cancels the model call and records the turn as aborted.
+     */
+    @Test
+    void testSendPromptAsync_WhenCancelled_ShouldCancelModelCallAndRecordAbortedTurn() throws Exception {
+        trackTransactions();
+        mockTurnCollaborators();
+        CountDownLatch modelCalled = new CountDownLatch(1);
+        AtomicBoolean modelCancelled = new AtomicBoolean();
+        when(ollamaService.sendPromptAsync(any(), any(OllamaRequestContext.class))).thenReturn(Mono.<OllamaResponse>never()
+                .doOnSubscribe(subscription -> modelCalled.countDown())
+                .doOnCancel(() -> modelCancelled.set(true)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Disposable request = llamaApiService.sendPromptAsync(new PromptDTO("Hola"), 1L).subscribe();
+        assertTrue(modelCalled.await(5, TimeUnit.SECONDS));
+        request.dispose();
+
+        ArgumentCaptor<AIResponse> captor = ArgumentCaptor.forClass(AIResponse.class);
+        verify(aiResponseRepository, timeout(5000)).save(captor.capture());
+        assertTrue(modelCancelled.get());
+        assertTrue(captor.getValue().isAborted());
+        verify(userMessageRepository, never()).deleteById(anyLong());
+    }
+
+    /**
+     * Test that building a stream neither recalls memories nor stores the user message until it is subscribed to,
+     * so a stream dropped before subscription leaves nothing behind.
+     */
+    @Test
+    void testStreamPrompt_ShouldNotStartTurnUntilSubscribed() {
+        Flux<PromptChunkResponse> stream = llamaApiService.streamPrompt(new PromptDTO("Hola"), 1L);
+
+        assertNotNull(stream);
+        verifyNoInteractions(conversationMemory, userRepository, userMessageRepository, transactionTemplate, ollamaService);
+    }
+
+    /**
+     * Test that a stream cancelled halfway keeps the partial reply in an aborted AI response.
+     */
+    @Test
+    void testStreamPrompt_WhenCancelled_ShouldRecordPartialReplyAsAborted() {
+        trackTransactions();
+        mockTurnCollaborators();
+        OllamaResponse firstChunk = new OllamaResponse("llama3", null, "[HAPPY] Hola", false, null, null);
+        when(ollamaService.streamPrompt(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Flux.just(firstChunk).concatWith(Flux.never()));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // The client goes away after the first chunk
+        llamaApiService.streamPrompt(new PromptDTO("Hola"), 1L).take(1).blockLast();
+
+        ArgumentCaptor<AIResponse> captor = ArgumentCaptor.forClass(AIResponse.class);
+        verify(aiResponseRepository, timeout(5000)).save(captor.capture());
+        assertTrue(captor.getValue().isAborted());
+        assertEquals("[HAPPY] Hola", captor.getValue().getContent());
+    }
+
+    /**
+     * Test that a stream answered from the response cache still records the turn as aborted when the client
+     * goes away before the cached reply is stored.
+     */
+    @Test
+    void testStreamPrompt_FromCacheWhenCancelled_ShouldRecordTurnAsAborted() {
+        ReflectionTestUtils.setField(llamaApiService, "responseCacheEnabled", true);
+        trackTransactions();
+        Personality personality = mockTurnCollaborators();
+        personality.setResponseCacheEnabled(true);
+        when(ollamaService.streamPrompt(any(), any(OllamaRequestContext.class)))
+                .thenReturn(Flux.just(new OllamaResponse("llama3", null, "Hola [HAPPY]", true, "stop", null)));
+        when(aiResponseRepository.save(any(AIResponse.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        llamaApiService.streamPrompt(new PromptDTO("Hola"), 1L).blockLast();
+
+        // The same prompt is answered from the cache, but the client goes away once the turn has started,
+        // while the cached reply is being looked up
+        BaseSubscriber<PromptChunkResponse> client = new BaseSubscriber<>() {
+        };
+        LlmResponseCache cache = spy(responseCache);
+        doAnswer(invocation -> {
+            client.cancel();
+            return invocation.callRealMethod();
+        }).when(cache).get(any());
+        ReflectionTestUtils.setField(llamaApiService, "responseCache", cache);
+        llamaApiService.streamPrompt(new PromptDTO("Hola"), 1L).subscribe(client);
+
+        ArgumentCaptor<AIResponse> captor = ArgumentCaptor.forClass(AIResponse.class);
+        verify(aiResponseRepository, timeout(5000).times(2)).save(captor.capture());
+        assertFalse(captor.getAllValues().get(0).isAborted());
+        assertTrue(captor.getAllValues().get(1).isAborted());
+        verify(ollamaService, times(1)).streamPrompt(any(), any(OllamaRequestContext.class));
+    }
+
+    /**
+     * Test that aborted turns are left out of the history sent to the model.
+     */
+    @Test
+    void testBuildPromptWithinBudget_ShouldSkipAbortedTurns() throws Exception {
+        Conversation conversation = new Conversation("Test Conversation");
+        for (int i = 0; i < 3; i++) {
+            UserMessage userMessage = new UserMessage("User message " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+
+            AIResponse aiResponse = new AIResponse("AI response " + i);
+            aiResponse.setUserMessage(userMessage);
+            aiResponse.setAborted(i == 1);
+            conversation.getAiResponses().add(aiResponse);
+        }
+
+        Method buildPromptWithinBudgetMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildPromptWithinBudget", ConversationHistory.class, int.class);
+        buildPromptWithinBudgetMethod.setAccessible(true);
+        String result = (String) buildPromptWithinBudgetMethod.invoke(llamaApiService, ConversationHistory.of(conversation), 2048);
+
+        assertTrue(result.contains("User message 0"));
+        assertFalse(result.contains("User message 1"));
+        assertFalse(result.contains("AI response 1"));
+        assertTrue(result.contains("AI response 2"));
+    }
+
+    /**
+     * Test that the message being answered is sent even when it alone is over the token budget.
+     */
+    @Test
+    void testBuildPromptWithinBudget_ShouldAlwaysKeepNewestMessage() throws Exception {
+        Conversation conversation = new Conversation("Test Conversation");
+        for (int i = 0; i < 2; i++) {
+            UserMessage userMessage = new UserMessage("User message " + i);
+            ReflectionTestUtils.setField(userMessage, "id", (long) i);
+            conversation.getUserMessages().add(userMessage);
+        }
+
+        Method buildPromptWithinBudgetMethod = LlamaApiService.class.getDeclaredMethod(
+                "buildPromptWithinBudget", ConversationHistory.class, int.class);
+        buildPromptWithinBudgetMethod.setAccessible(true);
+        String result = (String) buildPromptWithinBudgetMethod.invoke(llamaApiService, ConversationHistory.of(conversation), 0);
+
+        assertEquals("user: User message 1\n", result);
+    }
+
+    /**
+     * Makes the mocked TransactionTemplate run its callbacks and report whether one is currently running.
+     */
+    private AtomicBoolean trackTransactions() {
+        AtomicBoolean inTransaction = new AtomicBoolean();
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            inTransaction.set(true);
+            try {
+                TransactionCallback<?> callback = invocation.getArgument(0);
+                return callback.doInTransaction(null);
+            } finally {
+                inTransaction.set(false);
+            }
+        });
+        doAnswer(invocation -> {
+            inTransaction.set(true);
+            try {
+                Consumer<TransactionStatus> action = invocation.getArgument(0);
+                action.accept(null);
+                return null;
+            } finally {
+                inTransaction.set(false);
+            }
+        }).when(transactionTemplate).executeWithoutResult(any());
+        return inTransaction;
+    }
+
+    /**
+     * Mocks the repositories used to start a turn for a user without a conversation yet.
+     */
+    private Personality mockTurnCollaborators() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("user@example.com");
+        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+
+        Personality personality = new Personality("Test Personality", "Base prompt", "Description");
+        when(personalityCache.getFirstPersonality()).thenReturn(Optional.of(personality));
+
+        Conversation conversation = new Conversation("Test Conversation");
+        when(conversationRepository.save(any(Conversation.class))).thenAnswer(invocation -> {
+            ReflectionTestUtils.setField((Object) invocation.getArgument(0), "id", 1L);
+            return invocation.getArgument(0);
+        });
+        lenient().when(conversationRepository.findById(1L)).thenReturn(Optional.of(conversation));
+        lenient().when(conversationRepository.findForUpdateById(1L)).thenReturn(Optional.of(conversation));
+        lenient().when(userMessageRepository.existsById(10L)).thenReturn(true);
+
+        UserMessage storedMessage = new UserMessage("Hola");
+        ReflectionTestUtils.setField(storedMessage, "id", 10L);
+        when(userMessageRepository.save(any(UserMessage.class))).thenAnswer(invocation -> {
+            ReflectionTestUtils.setField((Object) invocation.getArgument(0), "id", 10L);
+            return invocation.getArgument(0);
+        });
+        lenient().when(userMessageRepository.getReferenceById(10L)).thenReturn(storedMessage);
+        return personality;
+    }
 }
@@ -0,0 +1,47 @@
+package com.blinky.apillama3blinky.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the token estimation and the per-model token budget.
+ */
+public class TokenEstimatorTest {
+
+    @Test
+    public void testEstimateRoundsUpCharactersPerToken() {
+        TokenEstimator estimator = new TokenEstimator(4, 2048, List.of());
+
+        assertEquals(0, estimator.estimate(""));
+        assertEquals(1, estimator.estimate("hola"));
+        assertEquals(2, estimator.estimate("hola!"));
+        // Accented characters count once
+        assertEquals(3, estimator.estimate("¿qué tal?"));
+    }
+
+    @Test
+    public void testModelsUseTheirOwnLimitOrTheDefault() {
+        TokenEstimator estimator = new TokenEstimator(4, 2048, List.of("llama3.2:3b=8192", " mistral = 4096 "));
+
+        assertEquals(8192, estimator.maxTokens("llama3.2:3b"));
+        assertEquals(4096, estimator.maxTokens("mistral"));
+        assertEquals(2048, estimator.maxTokens("llama3"));
+    }
+
+    @Test
+    public void testHistoryBudgetReservesBasePromptAndReply() {
+        TokenEstimator estimator = new TokenEstimator(4, 1000, List.of());
+
+        // 40 characters of base prompt take 10 tokens and the reply up to 128
+        assertEquals(862, estimator.historyBudget("llama3", "a".repeat(40), 128));
+        assertEquals(0, estimator.historyBudget("llama3", "a".repeat(4000), 128));
+    }
+
+    @Test
+    public void testRejectsInvalidModelLimit() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenEstimator(4, 2048, List.of("llama3")));
+    }
+}